@@ -0,0 +1,33 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Connection without a socket, flush drains the buffered bytes and counts them.
+ */
+class BenchmarkConnection extends BufferedClientConnection {
+
+    private ByteBuffer written = ByteBuffer.allocate(1024);
+
+    long bytesWritten = 0;
+
+    BenchmarkConnection(int connectionNum) {
+        super(connectionNum);
+    }
+
+    BenchmarkConnection(int connectionNum, boolean binary) {
+        super(connectionNum);
+        setBinary(binary);
+    }
+
+    @Override
+    public void flush() {
+        written = drain(written);
+        bytesWritten += written.remaining();
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+}
@@ -0,0 +1,95 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Board queries and serialization, done for every room on every broadcast.
+ * These replaced BoardToString() and checkGameFinished() over TileCombo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    /**
+     * Empty, mid game, won by X on the last line checked, and drawn.
+     */
+    @Param({"", "0X4O8X", "2X0O4X1O6X", "0X1O2X4O3X5O7X6O8X"})
+    public String moves;
+
+    private final BoardState state = new BoardState();
+    private final StateSnapshot snapshot = new StateSnapshot(state.getNumCells());
+    private final StringBuilder sb = new StringBuilder(64);
+    private final Random random = new Random(42);
+
+    private boolean xToMove;
+
+    private static final int[] GOMOKU_MOVES = new int[40];
+
+    static {
+        // spread over the board, with no five in a row
+        for (int i = 0; i < GOMOKU_MOVES.length; i++) {
+            GOMOKU_MOVES[i] = (i * 97 + 13) % 225;
+        }
+    }
+
+    private final BoardState gomoku = new BoardState(15, 5);
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < moves.length(); i += 2) {
+            state.mark(moves.charAt(i) - '0', moves.charAt(i + 1) == 'X' ? TileValue.X : TileValue.O);
+        }
+
+        xToMove = moves.length() % 4 == 0;
+    }
+
+    /**
+     * A 15 x 15 gomoku game of 40 moves, every mark checks only the lines through it.
+     */
+    @Benchmark
+    public boolean playGomoku() {
+        gomoku.clear();
+        for (int i = 0; i < GOMOKU_MOVES.length; i++) {
+            gomoku.mark(GOMOKU_MOVES[i], i % 2 == 0 ? TileValue.X : TileValue.O);
+        }
+        return gomoku.hasWinner();
+    }
+
+    @Benchmark
+    public boolean isFinished() {
+        return state.isFinished();
+    }
+
+    @Benchmark
+    public void encodeSnapshot(Blackhole bh) {
+        snapshot.encode(state, state.isFinished(), true);
+        bh.consume(snapshot.getTextLength());
+        bh.consume(snapshot.getBinary());
+    }
+
+    /**
+     * The string form of a board, as in TicTacToeApp.boardToString().
+     */
+    @Benchmark
+    public int appendTo() {
+        sb.setLength(0);
+        state.appendTo(sb);
+        return sb.length();
+    }
+
+    /**
+     * A bot's move, a table lookup in {@link PerfectPlay}.
+     */
+    @Benchmark
+    public int perfectPlayMove() {
+        return PerfectPlay.bestMove(state, xToMove, random);
+    }
+}
@@ -0,0 +1,48 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing inputs from a transport thread to the game thread, measured on one thread:
+ * publish a batch of inputs then drain it, as the loop does once per tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputRingBenchmark {
+
+    @Param({"1", "100"})
+    public int batch;
+
+    private final InputRing ring = new InputRing(1 << 10);
+    private final BenchmarkConnection connection = new BenchmarkConnection(1, true);
+
+    private long handled = 0;
+
+    private final InputRing.Handler handler = new InputRing.Handler() {
+        @Override
+        public void onMessage(ClientConnection connection, String message) {
+            handled++;
+        }
+
+        @Override
+        public void onCommand(ClientConnection connection, byte op, int arg) {
+            handled += arg;
+        }
+    };
+
+    @Benchmark
+    public long publishAndDrain() {
+        for (int i = 0; i < batch; i++) {
+            ring.publishCommand(connection, BinaryProtocol.MOVE, 4);
+        }
+
+        ring.drain(handler);
+        return handled;
+    }
+}
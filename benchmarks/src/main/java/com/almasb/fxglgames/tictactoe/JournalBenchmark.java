@@ -0,0 +1,93 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appending to the move journal from the game thread while the sync thread forces it in the background,
+ * and reading it back sequentially.
+ * Appends are measured a segment at a time into a fresh journal per iteration, so the files stay small.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+    private static final int RECORDS_TO_APPEND = 1_000_000;
+    private static final int RECORDS_TO_READ = 100_000;
+
+    private Path dir;
+    private Path readDir;
+    private MoveJournal journal;
+
+    private long visited = 0;
+
+    private final MoveJournal.Visitor visitor = (timeMillis, type, roomId, a, b) -> visited += b;
+
+    @Setup(Level.Iteration)
+    public void openJournal() throws IOException {
+        dir = Files.createTempDirectory("journal-bench");
+        journal = MoveJournal.open(dir, RECORDS_TO_APPEND + 1, MoveJournal.DEFAULT_SYNC_MILLIS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeJournal() throws IOException {
+        journal.close();
+        delete(dir);
+    }
+
+    @Setup
+    public void writeJournalToRead() throws IOException {
+        readDir = Files.createTempDirectory("journal-read-bench");
+        try (var written = MoveJournal.open(readDir, RECORDS_TO_READ + 1, MoveJournal.DEFAULT_SYNC_MILLIS)) {
+            for (int i = 0; i < RECORDS_TO_READ; i++) {
+                written.move(i / 9, i % 9, 1 + i % 2);
+            }
+        }
+    }
+
+    @TearDown
+    public void deleteJournalToRead() throws IOException {
+        delete(readDir);
+    }
+
+    /**
+     * Committing every 100 records, about what a busy tick appends.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    @OperationsPerInvocation(RECORDS_TO_APPEND)
+    public void appendMove() {
+        for (int i = 0; i < RECORDS_TO_APPEND; i++) {
+            journal.move(1, i % 9, 1);
+
+            if (i % 100 == 99) {
+                journal.commit();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_TO_READ)
+    public long readPerRecord() throws IOException {
+        MoveJournal.read(readDir, visitor);
+        return visited;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
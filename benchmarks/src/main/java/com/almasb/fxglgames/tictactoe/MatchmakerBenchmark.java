@@ -0,0 +1,58 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One matchmaking batch: a batch interval's worth of joins with ratings spread around the initial one,
+ * sorted and paired. Players without a close enough opponent carry over to the next batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchmakerBenchmark {
+
+    /**
+     * Joins per batch, 10000 is 100000 joins per second at the batch interval.
+     */
+    @Param({"100", "10000"})
+    public int joins;
+
+    private Matchmaker matchmaker;
+    private ClientConnection[] connections;
+    private int[] ratings;
+
+    private double now = 0;
+
+    @Setup
+    public void setup() {
+        matchmaker = new Matchmaker();
+
+        var random = new Random(1);
+        connections = new ClientConnection[joins];
+        ratings = new int[joins];
+        for (int i = 0; i < joins; i++) {
+            connections[i] = new BenchmarkConnection(i + 1);
+            ratings[i] = RatingTable.INITIAL_RATING + (int) (random.nextGaussian() * 200);
+        }
+    }
+
+    @Benchmark
+    public void batch(Blackhole bh) {
+        for (int i = 0; i < joins; i++) {
+            // a connection still waiting from an earlier batch is not added twice
+            if (!matchmaker.contains(connections[i])) {
+                matchmaker.add(connections[i], ratings[i], now);
+            }
+        }
+
+        now += Matchmaker.BATCH_INTERVAL;
+        matchmaker.tick(now, (a, b) -> bh.consume(a), bh::consume);
+    }
+}
@@ -0,0 +1,68 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring a million moves of random 3x3 games against perfect play, split over a pool of threads.
+ * Per move time should fall with the threads up to the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveAnalysisBenchmark {
+
+    private static final int MOVES = 1 << 20;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private final int[] moves = new int[MOVES];
+    private final int[] players = new int[MOVES];
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        pool = new ForkJoinPool(threads);
+
+        var random = new SplittableRandom(11);
+        var board = new BoardState();
+        boolean xToMove = true;
+
+        for (int i = 0; i < MOVES; i++) {
+            if (board.isFinished()) {
+                board.clear();
+                xToMove = true;
+            }
+
+            int cell;
+            do {
+                cell = random.nextInt(board.getNumCells());
+            } while (!board.isEmpty(cell));
+
+            moves[i] = MoveAnalysis.pack(board.getMask(TileValue.X), board.getMask(TileValue.O), cell);
+            players[i] = xToMove ? 0 : 1;
+
+            board.mark(cell, xToMove ? TileValue.X : TileValue.O);
+            xToMove = !xToMove;
+        }
+    }
+
+    @TearDown
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MOVES)
+    public long analyzePerMove() {
+        return MoveAnalysis.analyze(moves, players, MOVES, 2, pool).getOptimal(0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per message costs: decoding a frame off the stream, parsing it into a move,
+ * and writing an outgoing message through the FXGL transport.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final String TEXT_MOVE = "1,LEFT_DOWN,1,1";
+
+    private RoomManager rooms;
+    private GameRoom room;
+    private BenchmarkConnection player;
+
+    private FramedMessageReader textReader;
+    private FramedMessageReader binaryReader;
+
+    private FXGLTransport.MessageWriterS writer;
+    private String textState;
+    private String rawState;
+
+    @Setup
+    public void setup() {
+        rooms = new RoomManager();
+        player = new BenchmarkConnection(1);
+        rooms.onConnected(player);
+        rooms.onConnected(new BenchmarkConnection(2));
+        rooms.tick(0);
+        room = rooms.getRoom(player);
+
+        textReader = new FramedMessageReader(new RepeatingInputStream(
+                new byte[0], (TEXT_MOVE + "\n").getBytes(StandardCharsets.US_ASCII)));
+
+        binaryReader = new FramedMessageReader(new RepeatingInputStream(
+                new byte[] { BinaryProtocol.MAGIC, BinaryProtocol.VERSION },
+                new byte[] { BinaryProtocol.MOVE, 4 }));
+
+        writer = new FXGLTransport.MessageWriterS(OutputStream.nullOutputStream());
+
+        var snapshot = new StateSnapshot(room.getState().getNumCells());
+        snapshot.encode(room.getState(), false, true);
+        textState = new String(snapshot.getText(), 0, snapshot.getTextLength(), StandardCharsets.US_ASCII);
+        rawState = BinaryProtocol.toRaw(snapshot.getBinary(), snapshot.getBinary().length);
+    }
+
+    /**
+     * After the first call the cell is taken, so this measures parsing and the rejected move.
+     */
+    @Benchmark
+    public void parseTextMove() {
+        room.onMessage(player, TEXT_MOVE);
+    }
+
+    @Benchmark
+    public void parseBinaryMove() {
+        rooms.onCommand(player, BinaryProtocol.MOVE, 4);
+    }
+
+    @Benchmark
+    public void readTextFrame(Blackhole bh) throws Exception {
+        bh.consume(textReader.read());
+    }
+
+    @Benchmark
+    public void readBinaryFrame(Blackhole bh) throws Exception {
+        bh.consume(binaryReader.read());
+    }
+
+    @Benchmark
+    public void writeText() throws Exception {
+        writer.write(textState);
+    }
+
+    @Benchmark
+    public void writeRaw() throws Exception {
+        writer.write(rawState);
+    }
+
+    /**
+     * Returns the header once, then the same message forever.
+     */
+    private static final class RepeatingInputStream extends InputStream {
+
+        private final byte[] message;
+
+        private byte[] current;
+        private int position = 0;
+
+        RepeatingInputStream(byte[] header, byte[] message) {
+            this.message = message;
+            current = header;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == current.length) {
+                current = message;
+                position = 0;
+            }
+
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
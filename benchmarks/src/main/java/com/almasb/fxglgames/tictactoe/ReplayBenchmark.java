@@ -0,0 +1,87 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Reading single matches at random from a replay archive, and encoding a block of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+
+    private static final int MATCHES = 100_000;
+
+    private Path dir;
+    private ReplayArchive archive;
+
+    private final SplittableRandom random = new SplittableRandom(7);
+    private final List<Replay> block = new ArrayList<>();
+
+    @Setup
+    public void writeArchive() throws IOException {
+        dir = Files.createTempDirectory("replay-bench");
+
+        try (var written = ReplayArchive.open(dir)) {
+            for (int i = 0; i < MATCHES; i++) {
+                written.add(randomReplay(written.reserveMatchId()));
+            }
+        }
+
+        archive = ReplayArchive.openReadOnly(dir);
+
+        for (int i = 0; i < ReplayArchive.MATCHES_PER_BLOCK; i++) {
+            block.add(randomReplay(i + 1));
+        }
+    }
+
+    @TearDown
+    public void deleteArchive() throws IOException {
+        archive.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int readRandomMatch() throws IOException {
+        return archive.read(1 + random.nextInt(MATCHES)).getNumMoves();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ReplayArchive.MATCHES_PER_BLOCK)
+    public int encodePerMatch() throws IOException {
+        return ReplayArchive.encode(block).length;
+    }
+
+    /**
+     * A 3x3 game of 5 to 9 moves in a random order of cells.
+     */
+    private Replay randomReplay(long matchId) {
+        int numMoves = 5 + random.nextInt(5);
+        byte[] cells = {0, 1, 2, 3, 4, 5, 6, 7, 8};
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte cell = cells[i];
+            cells[i] = cells[j];
+            cells[j] = cell;
+        }
+
+        return new Replay(matchId, (int) matchId, 1_700_000_000_000L + matchId * 1000, 3, 3, random.nextInt(3),
+                random.nextBoolean(), Arrays.copyOf(cells, numMoves), new long[] {0b10101010L});
+    }
+}
@@ -0,0 +1,58 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full server tick where every room changed: serialize each room once,
+ * queue the state for both players and flush every connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int connections;
+
+    /**
+     * Share of connections using the binary protocol, in percent.
+     */
+    @Param({"0", "100"})
+    public int binaryPercent;
+
+    private RoomManager rooms;
+    private final List<GameRoom> roomList = new ArrayList<>();
+
+    private double now = 0;
+    private boolean isX = false;
+
+    @Setup
+    public void setup() {
+        rooms = new RoomManager();
+
+        for (int i = 1; i <= connections; i++) {
+            rooms.onConnected(new BenchmarkConnection(i, i * 100 <= connections * binaryPercent));
+        }
+
+        rooms.tick(now);
+        roomList.addAll(rooms.getRooms());
+    }
+
+    @Benchmark
+    public void tick() {
+        isX = !isX;
+        for (int i = 0; i < roomList.size(); i++) {
+            roomList.get(i).onSymbolChosen(isX);
+        }
+
+        now += 1.0 / 60;
+        rooms.tick(now);
+    }
+}
@@ -0,0 +1,125 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sits between a {@link Transport} and the listener that runs the game, e.g. a {@link ServerLoop},
+ * and sheds abusive traffic on the transport threads before it reaches the input ring.
+ *
+ * Beyond {@link #MAX_CONNECTIONS_PROPERTY} open connections a new one is closed as soon as it is accepted.
+ * Every connection may send {@link #RATE_PROPERTY} messages or binary frames per second on average,
+ * in bursts of up to {@link #BURST_PROPERTY}. Messages above that are dropped, and a connection
+ * that has a whole burst dropped in a row is closed.
+ */
+public final class AdmissionControl implements Transport.Listener {
+
+    /**
+     * System property with the most connections open at once.
+     */
+    public static final String MAX_CONNECTIONS_PROPERTY = "tictactoe.maxConnections";
+
+    /**
+     * System properties with the messages per second and the burst allowed per connection.
+     */
+    public static final String RATE_PROPERTY = "tictactoe.rateLimit";
+    public static final String BURST_PROPERTY = "tictactoe.rateBurst";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    public static final int DEFAULT_RATE = 50;
+    public static final int DEFAULT_BURST = 100;
+
+    private final Transport.Listener listener;
+
+    private final int maxConnections;
+    private final double rate;
+    private final int burst;
+
+    /**
+     * Admitted connections and their buckets, a connection missing here was rejected.
+     */
+    private final ConcurrentHashMap<ClientConnection, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger numAdmitted = new AtomicInteger();
+
+    /**
+     * Limits from {@link #MAX_CONNECTIONS_PROPERTY}, {@link #RATE_PROPERTY} and {@link #BURST_PROPERTY}.
+     */
+    public AdmissionControl(Transport.Listener listener) {
+        this(listener, Integer.getInteger(MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS),
+                Integer.getInteger(RATE_PROPERTY, DEFAULT_RATE), Integer.getInteger(BURST_PROPERTY, DEFAULT_BURST));
+    }
+
+    public AdmissionControl(Transport.Listener listener, int maxConnections, double rate, int burst) {
+        if (maxConnections <= 0 || rate <= 0 || burst <= 0)
+            throw new IllegalArgumentException("Limits must be positive: " + maxConnections + ", " + rate + ", " + burst);
+
+        this.listener = listener;
+        this.maxConnections = maxConnections;
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    public int getNumAdmitted() {
+        return numAdmitted.get();
+    }
+
+    @Override
+    public void onConnected(ClientConnection connection) {
+        if (numAdmitted.incrementAndGet() > maxConnections) {
+            numAdmitted.decrementAndGet();
+            ServerMetrics.INSTANCE.connectionsRejected.increment();
+            Log.warn("Rejecting connection {0}, {1} connections are open", connection.getConnectionNum(), maxConnections);
+
+            connection.close();
+            return;
+        }
+
+        buckets.put(connection, new TokenBucket(rate, burst, System.nanoTime()));
+        listener.onConnected(connection);
+    }
+
+    @Override
+    public void onReceive(ClientConnection connection, String message) {
+        if (admit(connection)) {
+            listener.onReceive(connection, message);
+        }
+    }
+
+    @Override
+    public void onCommand(ClientConnection connection, byte op, int arg) {
+        if (admit(connection)) {
+            listener.onCommand(connection, op, arg);
+        }
+    }
+
+    @Override
+    public void onDisconnected(ClientConnection connection) {
+        // a rejected connection was never passed on
+        if (buckets.remove(connection) != null) {
+            numAdmitted.decrementAndGet();
+            listener.onDisconnected(connection);
+        }
+    }
+
+    /**
+     * @return true if the connection is within its rate, otherwise the message is dropped
+     */
+    private boolean admit(ClientConnection connection) {
+        var bucket = buckets.get(connection);
+        if (bucket == null)
+            return false;
+
+        if (bucket.tryTake(System.nanoTime()))
+            return true;
+
+        ServerMetrics.INSTANCE.messagesShed.increment();
+
+        if (bucket.getDeniedInARow() == burst) {
+            Log.warn("Closing connection {0}, it keeps sending more than {1} messages per second",
+                    connection.getConnectionNum(), rate);
+            connection.close();
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,281 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * The backends of a {@link ConnectionRouter} on a consistent hash ring.
+ *
+ * A match goes to the first backend clockwise from the hash of its id that is up, not draining,
+ * and below {@link #LOAD_FACTOR} times the average load, so taking a backend out only moves its own matches
+ * and a busy backend passes new matches on to its neighbours.
+ *
+ * Backends report their load through their metrics endpoint, see {@link ServerMetrics#PORT_PROPERTY},
+ * which a thread of the ring scrapes every {@link #HEALTH_INTERVAL_MILLIS}.
+ */
+final class BackendRing {
+
+    static final int VIRTUAL_NODES = 64;
+
+    static final double LOAD_FACTOR = 1.25;
+
+    static final long HEALTH_INTERVAL_MILLIS = 1_000;
+
+    /**
+     * A backend without a metrics port that failed to connect is tried again after this long.
+     */
+    static final long RETRY_MILLIS = 5_000;
+
+    static final class Backend {
+        final int index;
+        final InetSocketAddress address;
+
+        /**
+         * Port of the backend's metrics endpoint on the same host, 0 if it has none.
+         */
+        final int metricsPort;
+
+        volatile boolean draining = false;
+        volatile boolean down = false;
+        volatile long downSince = 0;
+
+        /**
+         * Connections as last reported by the backend, -1 if unknown.
+         */
+        volatile int reportedConnections = -1;
+        volatile int reportedGames = -1;
+
+        /**
+         * Top byte of the session tokens the backend issues, 0 if it has no id or has not reported it.
+         */
+        volatile int serverId = 0;
+
+        /**
+         * Connections currently proxied to the backend, only changed on the router thread.
+         */
+        volatile int routed = 0;
+        volatile long totalRouted = 0;
+
+        Backend(int index, InetSocketAddress address, int metricsPort) {
+            this.index = index;
+            this.address = address;
+            this.metricsPort = metricsPort;
+        }
+
+        /**
+         * The backend may have connections the router does not know about, and the router
+         * may have routed connections since the last report, so the larger of both counts.
+         */
+        int getLoad() {
+            return Math.max(routed, reportedConnections);
+        }
+
+        boolean isAvailable() {
+            return !draining && !down;
+        }
+
+        void markDown() {
+            if (!down) {
+                down = true;
+                downSince = System.currentTimeMillis();
+                Log.warn("Backend {0} at {1} is down", index, address);
+            }
+        }
+
+        void markUp() {
+            if (down) {
+                down = false;
+                Log.info("Backend {0} at {1} is up", index, address);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return index + " " + address.getHostString() + ":" + address.getPort()
+                    + (down ? " down" : draining ? " draining" : " up")
+                    + ", routed " + routed + " (" + totalRouted + " total)"
+                    + (reportedConnections >= 0 ? ", reports " + reportedConnections + " connections, " + reportedGames + " games" : "")
+                    + (serverId != 0 ? ", server id " + serverId : "");
+        }
+    }
+
+    private final Backend[] backends;
+
+    /**
+     * Points on the ring in ascending order and the backend each belongs to.
+     */
+    private final long[] points;
+    private final Backend[] owners;
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(HEALTH_INTERVAL_MILLIS / 2))
+            .build();
+
+    BackendRing(Backend[] backends) {
+        this.backends = backends;
+
+        int numPoints = backends.length * VIRTUAL_NODES;
+        long[] keyed = new long[numPoints];
+        points = new long[numPoints];
+        owners = new Backend[numPoints];
+
+        // VIRTUAL_NODES points per backend, sorted with the backend each belongs to
+        Integer[] order = new Integer[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            keyed[i] = hash(((long) backends[i / VIRTUAL_NODES].address.hashCode() << 32) | (i % VIRTUAL_NODES));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keyed[a], keyed[b]));
+
+        for (int i = 0; i < numPoints; i++) {
+            points[i] = keyed[order[i]];
+            owners[i] = backends[order[i] / VIRTUAL_NODES];
+        }
+    }
+
+    Backend[] getBackends() {
+        return backends;
+    }
+
+    /**
+     * @return the backend for a new match, or if every backend looks down the first one not draining,
+     * as connecting is the surest check. Null if every backend is draining.
+     */
+    Backend pick(long matchId) {
+        int available = 0;
+        long total = 0;
+        for (Backend backend : backends) {
+            if (backend.isAvailable()) {
+                available++;
+                total += backend.getLoad();
+            }
+        }
+
+        int start = Arrays.binarySearch(points, hash(matchId));
+        if (start < 0) {
+            start = -start - 1;
+        }
+
+        if (available == 0) {
+            for (int i = 0; i < points.length; i++) {
+                Backend backend = owners[(start + i) % points.length];
+                if (!backend.draining)
+                    return backend;
+            }
+            return null;
+        }
+
+        // room for both players of the new match
+        long capacity = (long) Math.ceil(LOAD_FACTOR * (total + 2) / available);
+
+        Backend first = null;
+        for (int i = 0; i < points.length; i++) {
+            Backend backend = owners[(start + i) % points.length];
+            if (!backend.isAvailable())
+                continue;
+
+            if (backend.getLoad() + 2 <= capacity)
+                return backend;
+
+            if (first == null) {
+                first = backend;
+            }
+        }
+
+        return first;
+    }
+
+    /**
+     * @return the backend that issued the session token, if it reported its id and is not down, otherwise null
+     */
+    Backend owner(long token) {
+        int serverId = (int) (token >>> 56);
+        if (serverId == 0)
+            return null;
+
+        for (Backend backend : backends) {
+            if (backend.serverId == serverId && !backend.down)
+                return backend;
+        }
+        return null;
+    }
+
+    void startHealthChecks() {
+        var thread = new Thread(this::healthLoop, "router-health");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void healthLoop() {
+        try {
+            while (true) {
+                for (Backend backend : backends) {
+                    check(backend);
+                }
+
+                Thread.sleep(HEALTH_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    private void check(Backend backend) throws InterruptedException {
+        if (backend.metricsPort == 0) {
+            // only the router's own connects tell whether it is up
+            if (backend.down && System.currentTimeMillis() - backend.downSince >= RETRY_MILLIS) {
+                backend.markUp();
+            }
+            return;
+        }
+
+        var request = HttpRequest.newBuilder(URI.create("http://" + backend.address.getHostString() + ":"
+                        + backend.metricsPort + "/metrics?connections=false"))
+                .timeout(Duration.ofMillis(HEALTH_INTERVAL_MILLIS / 2))
+                .build();
+
+        try {
+            String body = http.send(request, HttpResponse.BodyHandlers.ofString()).body();
+
+            backend.reportedConnections = (int) gauge(body, "tictactoe_connections");
+            backend.reportedGames = (int) gauge(body, "tictactoe_games_active");
+            backend.serverId = (int) Math.max(0, gauge(body, "tictactoe_server_id"));
+            backend.markUp();
+        } catch (IOException e) {
+            backend.reportedConnections = -1;
+            backend.reportedGames = -1;
+            backend.markDown();
+        }
+    }
+
+    /**
+     * @return value of a gauge in the Prometheus text format, -1 if it is missing
+     */
+    static long gauge(String body, String name) {
+        int i = body.indexOf("\n" + name + " ");
+        if (i < 0)
+            return -1;
+
+        int start = i + name.length() + 2;
+        int end = body.indexOf('\n', start);
+        return Long.parseLong(body.substring(start, end < 0 ? body.length() : end).trim());
+    }
+
+    /**
+     * 64 bit finalizer of MurmurHash3, spreads consecutive ids around the ring.
+     */
+    static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
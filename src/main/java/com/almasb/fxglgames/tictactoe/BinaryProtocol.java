@@ -0,0 +1,269 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * Compact binary alternative to the comma-separated text protocol.
+ *
+ * A client opts in by sending {@link #MAGIC} followed by its protocol version as its very first bytes.
+ * Text clients never send a byte above 0x7F first, so both kinds share the same port.
+ * The server answers with {@link #MAGIC} and the version it accepted, or 0 if it does not support it.
+ * A text snapshot may already be on its way when the handshake arrives,
+ * so the client skips everything up to the reply (text never contains the MAGIC byte).
+ *
+ * Client to server, every frame is two bytes, an opcode and an argument:
+ * <pre>
+ *   MOVE   cell (x + y * 3)
+ *   SYMBOL 'X' or 'O'
+ *   SPECTATE room id, or 0 for any match in progress
+ *   BOT      ignored, starts a match against the server, see {@link PerfectPlay}
+ *   SESSION  ignored, asks for a session token
+ *   RESUME   next byte of a session token, big endian, the 8th frame resumes the session
+ *   REPLAY   next byte of an int match id, big endian, the 4th frame plays back the match, 0 for the latest
+ *   UDP      ignored, asks for states over UDP, see {@link UdpStateChannel}
+ *   PLAYER   next byte of a long player id, big endian, the 8th frame identifies the player for its rating
+ * </pre>
+ *
+ * Server to client, every state update is a fixed {@link #STATE_PACKET_SIZE} byte packet.
+ * The first {@link #STATE_SHARED_SIZE} bytes are the same for everyone in a room,
+ * the rest is specific to the recipient:
+ * <pre>
+ *   byte  STATE
+ *   3 bytes, big endian: bits 0-17 board, 2 bits per cell (0 empty, 1 X, 2 O), bits 18-19 flags
+ *   byte  role: 0 O, 1 X, 2 spectator
+ *   int   connection number
+ * </pre>
+ *
+ * A session token is sent as a {@link #TOKEN_PACKET_SIZE} byte packet, before any state that follows it:
+ * <pre>
+ *   byte  TOKEN
+ *   long  token, big endian, 0 if a RESUME failed
+ * </pre>
+ *
+ * The answer to UDP is a {@link #UDP_KEY_PACKET_SIZE} byte packet:
+ * <pre>
+ *   byte  UDP_KEY
+ *   short UDP port, big endian, 0 if the server has no UDP channel
+ *   long  key to send from the client's UDP socket, big endian
+ * </pre>
+ *
+ * The answer to PLAYER, and to every rated match finishing, is a {@link #RATING_PACKET_SIZE} byte packet:
+ * <pre>
+ *   byte  RATING
+ *   short rating, big endian
+ *   int   rated games played, big endian
+ * </pre>
+ *
+ * Those sizes are for the default 3 x 3 board. A server configured with a larger board,
+ * see {@link RoomManager#BOARD_SIZE_PROPERTY}, sends the board and flags in as many bytes as
+ * 2 bits per cell + 2 flag bits take, laid out the same way, see {@link #statePacketSize(int)}.
+ * Clients must be configured with the same board size. A cell must fit in the MOVE argument,
+ * so boards are at most {@link #MAX_BOARD_SIZE} wide.
+ */
+public final class BinaryProtocol {
+
+    public static final int VERSION = 2;
+
+    public static final byte MAGIC = (byte) 0xB7;
+
+    public static final int FRAME_SIZE = 2;
+
+    public static final byte MOVE = 0x01;
+    public static final byte SYMBOL = 0x02;
+    public static final byte SPECTATE = 0x03;
+    public static final byte BOT = 0x04;
+    public static final byte SESSION = 0x05;
+    public static final byte RESUME = 0x06;
+    public static final byte REPLAY = 0x07;
+    public static final byte UDP = 0x08;
+    public static final byte PLAYER = 0x09;
+
+    public static final byte STATE = 0x10;
+    public static final byte TOKEN = 0x11;
+    public static final byte UDP_KEY = 0x12;
+    public static final byte RATING = 0x13;
+
+    public static final int TOKEN_PACKET_SIZE = 9;
+    public static final int UDP_KEY_PACKET_SIZE = 11;
+    public static final int RATING_PACKET_SIZE = 7;
+
+    public static final int STATE_SHARED_SIZE = 4;
+    public static final int STATE_OWN_SIZE = 5;
+    public static final int STATE_PACKET_SIZE = STATE_SHARED_SIZE + STATE_OWN_SIZE;
+
+    public static final int MAX_BOARD_SIZE = 16;
+
+    public static final int FLAG_FINISHED = 1;
+    public static final int FLAG_SYMBOL_CHOSEN = 1 << 1;
+
+    public static final byte ROLE_O = 0;
+    public static final byte ROLE_X = 1;
+    public static final byte ROLE_SPECTATOR = 2;
+
+    /**
+     * Prefix of Strings that carry binary frames through FXGL's String based reader and writer.
+     * It cannot appear at the start of a message decoded from a text client's ASCII.
+     */
+    public static final char RAW_MARKER = '\uFFFF';
+
+    /**
+     * Inbound frames as Strings, one per opcode and argument, so that decoding allocates nothing.
+     * Opcodes other than MAGIC are numbered from 1, so their index is the opcode itself.
+     */
+    private static final String[] COMMANDS = new String[(PLAYER + 1) * 256];
+
+    static {
+        for (int i = 0; i <= PLAYER; i++) {
+            byte op = i == 0 ? MAGIC : (byte) i;
+
+            for (int arg = 0; arg < 256; arg++) {
+                COMMANDS[i * 256 + arg] = new String(new char[] { RAW_MARKER, (char) (op & 0xFF), (char) arg });
+            }
+        }
+    }
+
+    private BinaryProtocol() { }
+
+    public static boolean isValidOpcode(byte op) {
+        return op == MAGIC || (op >= MOVE && op <= PLAYER);
+    }
+
+    /**
+     * @return the shared String for an inbound frame
+     */
+    public static String commandString(byte op, byte arg) {
+        int i = op == MAGIC ? 0 : op;
+        return COMMANDS[i * 256 + (arg & 0xFF)];
+    }
+
+    /**
+     * @return true if the message is an inbound frame from {@link #commandString(byte, byte)}
+     */
+    public static boolean isCommand(String message) {
+        return message.length() == 3 && message.charAt(0) == RAW_MARKER;
+    }
+
+    public static byte opcodeOf(String command) {
+        return (byte) command.charAt(1);
+    }
+
+    public static int argOf(String command) {
+        return command.charAt(2);
+    }
+
+    /**
+     * @return true if the message carries raw bytes rather than text
+     */
+    public static boolean isRaw(String message) {
+        return !message.isEmpty() && message.charAt(0) == RAW_MARKER;
+    }
+
+    /**
+     * Wraps raw bytes in a String for FXGL's String based writer, see {@link #isRaw(String)}.
+     */
+    public static String toRaw(byte[] packet, int length) {
+        char[] chars = new char[length + 1];
+        chars[0] = RAW_MARKER;
+
+        for (int i = 0; i < length; i++) {
+            chars[i + 1] = (char) (packet[i] & 0xFF);
+        }
+
+        return new String(chars);
+    }
+
+    public static void encodeHandshake(byte[] out, int acceptedVersion) {
+        out[0] = MAGIC;
+        out[1] = (byte) acceptedVersion;
+    }
+
+    public static void encodeToken(byte[] out, long token) {
+        out[0] = TOKEN;
+        for (int i = 0; i < 8; i++) {
+            out[1 + i] = (byte) (token >>> (56 - 8 * i));
+        }
+    }
+
+    public static void encodeUdpKey(byte[] out, int port, long key) {
+        out[0] = UDP_KEY;
+        out[1] = (byte) (port >> 8);
+        out[2] = (byte) port;
+        for (int i = 0; i < 8; i++) {
+            out[3 + i] = (byte) (key >>> (56 - 8 * i));
+        }
+    }
+
+    public static void encodeRating(byte[] out, int rating, int games) {
+        out[0] = RATING;
+        out[1] = (byte) (rating >> 8);
+        out[2] = (byte) rating;
+        out[3] = (byte) (games >> 24);
+        out[4] = (byte) (games >> 16);
+        out[5] = (byte) (games >> 8);
+        out[6] = (byte) games;
+    }
+
+    /**
+     * @return size of the part of the state packet that every recipient shares
+     */
+    public static int sharedStateSize(int numCells) {
+        return 1 + (numCells * 2 + 2 + 7) / 8;
+    }
+
+    public static int statePacketSize(int numCells) {
+        return sharedStateSize(numCells) + STATE_OWN_SIZE;
+    }
+
+    public static int encodeFlags(boolean finished, boolean symbolChosen) {
+        return (finished ? FLAG_FINISHED : 0)
+                | (symbolChosen ? FLAG_SYMBOL_CHOSEN : 0);
+    }
+
+    /**
+     * Writes the part of the state packet that every recipient shares,
+     * {@link #sharedStateSize(int)} bytes.
+     */
+    public static void encodeSharedState(byte[] out, BoardState state, int flags) {
+        int numCells = state.getNumCells();
+        int last = sharedStateSize(numCells) - 1;
+
+        out[0] = STATE;
+
+        // 32 cells at a time, cell c in bits 2c and 2c + 1, 4 cells per byte from the end
+        for (int first = 0; first < numCells; first += 32) {
+            long x = state.getWord(TileValue.X, first >>> 6) >>> (first & 63) & 0xFFFFFFFFL;
+            long o = state.getWord(TileValue.O, first >>> 6) >>> (first & 63) & 0xFFFFFFFFL;
+            long codes = interleave(x) | interleave(o) << 1;
+
+            int numBytes = Math.min(8, (numCells - first + 3) / 4);
+            for (int i = 0; i < numBytes; i++) {
+                out[last - first / 4 - i] = (byte) (codes >>> (i * 8));
+            }
+        }
+
+        // the flags take the 2 bits after the last cell
+        int flagsByte = last - numCells / 4;
+        int flagsBits = flags << ((numCells & 3) * 2);
+        out[flagsByte] = (byte) ((numCells & 3) == 0 ? flagsBits : out[flagsByte] | flagsBits);
+    }
+
+    /**
+     * @return the low 32 bits spread out to the even bits
+     */
+    private static long interleave(long bits) {
+        bits = (bits | bits << 16) & 0x0000FFFF0000FFFFL;
+        bits = (bits | bits << 8) & 0x00FF00FF00FF00FFL;
+        bits = (bits | bits << 4) & 0x0F0F0F0F0F0F0F0FL;
+        bits = (bits | bits << 2) & 0x3333333333333333L;
+        return (bits | bits << 1) & 0x5555555555555555L;
+    }
+
+    /**
+     * Writes the recipient specific part of the state packet.
+     */
+    public static void encodeOwnState(byte[] out, byte role, int connectionNum) {
+        out[0] = role;
+        out[1] = (byte) (connectionNum >> 24);
+        out[2] = (byte) (connectionNum >> 16);
+        out[3] = (byte) (connectionNum >> 8);
+        out[4] = (byte) connectionNum;
+    }
+}
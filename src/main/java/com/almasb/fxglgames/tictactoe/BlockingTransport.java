@@ -0,0 +1,62 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blocking sockets with a reader and a writer thread per connection.
+ * With a virtual thread factory this scales to many thousands of connections.
+ */
+public class BlockingTransport implements Transport {
+
+    private final ThreadFactory threadFactory;
+
+    private final AtomicInteger nextConnectionNum = new AtomicInteger(1);
+
+    private ServerSocket serverSocket;
+
+    public BlockingTransport(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    @Override
+    public void start(int port, Listener listener) throws IOException {
+        serverSocket = new ServerSocket(port, 1024);
+
+        var t = new Thread(() -> acceptLoop(listener), "accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private void acceptLoop(Listener listener) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                var client = new SocketClientConnection(socket, nextConnectionNum.getAndIncrement());
+                listener.onConnected(client);
+
+                threadFactory.newThread(() -> client.readLoop(listener)).start();
+                threadFactory.newThread(client::writeLoop).start();
+            } catch (SocketException e) {
+                // server socket closed
+            } catch (IOException e) {
+                Log.warn(e, "Could not accept a connection");
+            }
+        }
+    }
+}
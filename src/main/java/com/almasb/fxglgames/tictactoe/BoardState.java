@@ -0,0 +1,287 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.Arrays;
+
+/**
+ * Headless board of size x size cells where a run of winLength marks in a row, column or diagonal wins,
+ * e.g. 3 x 3 with 3 for TicTacToe or 15 x 15 with 5 for gomoku.
+ * Marks are stored as one bitset for X and one for O, cell (x, y) maps to bit x + y * size.
+ *
+ * Only the lines through the cell just marked can have been completed, so {@link #mark(int, TileValue)}
+ * checks those, walking at most winLength - 1 cells each way in 4 directions. The result is kept,
+ * so the queries below never rescan the board.
+ * Nothing here depends on JavaFX or FXGL, and no method allocates.
+ */
+public final class BoardState {
+
+    public static final int DEFAULT_SIZE = 3;
+    public static final int DEFAULT_WIN_LENGTH = 3;
+
+    /**
+     * Along a row, a column, the diagonal and the anti-diagonal.
+     */
+    private static final int[] DX = { 1, 0, 1, 1 };
+    private static final int[] DY = { 0, 1, 1, -1 };
+
+    /**
+     * "GAME_DATA" character for each {@link #getCode(int)}.
+     */
+    private static final byte[] CHARS = { 'E', 'X', 'O' };
+
+    private final int size;
+    private final int numCells;
+    private final int winLength;
+
+    private final long[] xBits;
+    private final long[] oBits;
+
+    private int numMarked = 0;
+
+    private TileValue winner = TileValue.NONE;
+    private int winStart = -1;
+    private int winEnd = -1;
+
+    public BoardState() {
+        this(DEFAULT_SIZE, DEFAULT_WIN_LENGTH);
+    }
+
+    public BoardState(int size, int winLength) {
+        if (size < 1)
+            throw new IllegalArgumentException("Board size must be positive: " + size);
+
+        if (winLength < 1 || winLength > size)
+            throw new IllegalArgumentException("Win length must be between 1 and " + size + ": " + winLength);
+
+        this.size = size;
+        this.winLength = winLength;
+
+        numCells = size * size;
+        xBits = new long[(numCells + 63) / 64];
+        oBits = new long[xBits.length];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getNumCells() {
+        return numCells;
+    }
+
+    public int getWinLength() {
+        return winLength;
+    }
+
+    public int cellOf(int x, int y) {
+        return x + y * size;
+    }
+
+    public boolean isValidCell(int x, int y) {
+        return x >= 0 && x < size && y >= 0 && y < size;
+    }
+
+    /**
+     * Only for boards of up to 32 cells, such as the default one.
+     *
+     * @return bit per cell holding value, or per empty cell for NONE
+     */
+    public int getMask(TileValue value) {
+        if (numCells > 32)
+            throw new IllegalStateException("A " + size + "x" + size + " board does not fit in a mask");
+
+        int x = (int) xBits[0];
+        int o = (int) oBits[0];
+
+        switch (value) {
+            case X:
+                return x;
+            case O:
+                return o;
+            default:
+                return ~(x | o) & (int) ((1L << numCells) - 1);
+        }
+    }
+
+    public TileValue getValue(int cell) {
+        if (isSet(xBits, cell))
+            return TileValue.X;
+
+        if (isSet(oBits, cell))
+            return TileValue.O;
+
+        return TileValue.NONE;
+    }
+
+    /**
+     * @return 0 if the cell is empty, 1 for X, 2 for O
+     */
+    public int getCode(int cell) {
+        int word = cell >>> 6;
+        return (int) (xBits[word] >>> cell & 1) | (int) (oBits[word] >>> cell & 1) << 1;
+    }
+
+    /**
+     * @param value X or O
+     * @return bits of cells 64 * word to 64 * word + 63 holding value
+     */
+    public long getWord(TileValue value, int word) {
+        return value == TileValue.X ? xBits[word] : oBits[word];
+    }
+
+    public boolean isEmpty(int cell) {
+        return !isSet(xBits, cell) && !isSet(oBits, cell);
+    }
+
+    /**
+     * @param cell cell index
+     * @param value X or O
+     * @return true if marking succeeded
+     */
+    public boolean mark(int cell, TileValue value) {
+        if (value == TileValue.NONE || cell < 0 || cell >= numCells || !isEmpty(cell))
+            return false;
+
+        long[] bits = value == TileValue.X ? xBits : oBits;
+        bits[cell >>> 6] |= 1L << cell;
+        numMarked++;
+
+        if (winner == TileValue.NONE) {
+            checkWin(cell, value);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if marking the empty cell with value would complete a line
+     */
+    public boolean wouldWin(int cell, TileValue value) {
+        int x = cell % size;
+        int y = cell / size;
+
+        for (int d = 0; d < DX.length; d++) {
+            int run = 1 + countRun(x, y, DX[d], DY[d], value) + countRun(x, y, -DX[d], -DY[d], value);
+            if (run >= winLength)
+                return true;
+        }
+
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(xBits, 0);
+        Arrays.fill(oBits, 0);
+        numMarked = 0;
+
+        winner = TileValue.NONE;
+        winStart = -1;
+        winEnd = -1;
+    }
+
+    /**
+     * @return winner symbol, or NONE if no line is complete
+     */
+    public TileValue getWinner() {
+        return winner;
+    }
+
+    public boolean hasWinner() {
+        return winner != TileValue.NONE;
+    }
+
+    /**
+     * @return first cell of the winning run, or -1 if there is none
+     */
+    public int getWinStart() {
+        return winStart;
+    }
+
+    /**
+     * @return last cell of the winning run, or -1 if there is none
+     */
+    public int getWinEnd() {
+        return winEnd;
+    }
+
+    public boolean isFull() {
+        return numMarked == numCells;
+    }
+
+    public boolean isFinished() {
+        return hasWinner() || isFull();
+    }
+
+    /**
+     * Writes the board as ASCII in the "GAME_DATA" format.
+     *
+     * @return offset after the last byte written
+     */
+    public int writeTo(byte[] out, int offset) {
+        for (int word = 0; word < xBits.length; word++) {
+            long x = xBits[word];
+            long o = oBits[word];
+
+            int cells = Math.min(64, numCells - word * 64);
+            for (int i = 0; i < cells; i++) {
+                out[offset++] = CHARS[(int) (x >>> i & 1) | (int) (o >>> i & 1) << 1];
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Appends the board in the "GAME_DATA" format: row by row, X, O or E for empty.
+     */
+    public void appendTo(StringBuilder sb) {
+        for (int word = 0; word < xBits.length; word++) {
+            long x = xBits[word];
+            long o = oBits[word];
+
+            int cells = Math.min(64, numCells - word * 64);
+            for (int i = 0; i < cells; i++) {
+                sb.append((char) CHARS[(int) (x >>> i & 1) | (int) (o >>> i & 1) << 1]);
+            }
+        }
+    }
+
+    private void checkWin(int cell, TileValue value) {
+        int x = cell % size;
+        int y = cell / size;
+
+        for (int d = 0; d < DX.length; d++) {
+            int forward = countRun(x, y, DX[d], DY[d], value);
+            int backward = countRun(x, y, -DX[d], -DY[d], value);
+
+            if (1 + forward + backward >= winLength) {
+                winner = value;
+                winStart = cellOf(x - DX[d] * backward, y - DY[d] * backward);
+                winEnd = cellOf(x + DX[d] * forward, y + DY[d] * forward);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of cells holding value next to (x, y) in direction (dx, dy), at most winLength - 1
+     */
+    private int countRun(int x, int y, int dx, int dy, TileValue value) {
+        long[] bits = value == TileValue.X ? xBits : oBits;
+
+        int run = 0;
+        while (run < winLength - 1) {
+            x += dx;
+            y += dy;
+
+            if (!isValidCell(x, y) || !isSet(bits, cellOf(x, y)))
+                break;
+
+            run++;
+        }
+
+        return run;
+    }
+
+    private static boolean isSet(long[] bits, int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+}
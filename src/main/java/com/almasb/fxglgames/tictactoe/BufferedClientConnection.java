@@ -0,0 +1,130 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers output in an {@link OutboundBuffer} until {@link #flush()}.
+ * Subclasses decide how the buffered bytes reach the socket, taking them with {@link #drain(ByteBuffer)}.
+ */
+public abstract class BufferedClientConnection implements ClientConnection {
+
+    protected final OutboundBuffer outbound = new OutboundBuffer();
+
+    private final ConnectionStats stats = new ConnectionStats();
+
+    private final int connectionNum;
+
+    protected volatile boolean connected = true;
+
+    private volatile boolean binary = false;
+
+    private volatile UdpStateChannel.Peer statePeer = null;
+
+    protected BufferedClientConnection(int connectionNum) {
+        this.connectionNum = connectionNum;
+    }
+
+    @Override
+    public int getConnectionNum() {
+        return connectionNum;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void send(String message) {
+        if (!connected)
+            return;
+
+        stats.onMessageOut();
+        if (!outbound.append(message)) {
+            onTooSlow();
+        }
+    }
+
+    @Override
+    public void sendBytes(byte[] packet, int length) {
+        if (!connected)
+            return;
+
+        stats.onMessageOut();
+        if (!outbound.append(packet, length)) {
+            onTooSlow();
+        }
+    }
+
+    @Override
+    public void sendState(byte[] shared, int sharedLength, byte[] own, int ownLength) {
+        if (!connected)
+            return;
+
+        stats.onMessageOut();
+
+        var peer = statePeer;
+        if (peer != null && peer.isReachable()) {
+            // an older state must not follow this one over TCP
+            outbound.clearState();
+            stats.onBytesOut(peer.send(shared, sharedLength, own, ownLength));
+        } else {
+            outbound.setState(shared, sharedLength, own, ownLength);
+        }
+    }
+
+    @Override
+    public void setStatePeer(UdpStateChannel.Peer peer) {
+        statePeer = peer;
+    }
+
+    @Override
+    public UdpStateChannel.Peer getStatePeer() {
+        return statePeer;
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public int getPendingBytes() {
+        return outbound.getLength();
+    }
+
+    /**
+     * Moves everything buffered into target and counts it as written.
+     *
+     * @return target, or a larger buffer if target was too small, ready to be read
+     */
+    protected ByteBuffer drain(ByteBuffer target) {
+        target = outbound.drain(target);
+        stats.onBytesOut(target.remaining());
+        return target;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+
+    @Override
+    public void setBinary(boolean binary) {
+        if (binary != this.binary) {
+            // a state in the old protocol would go out after the handshake reply
+            outbound.clearState();
+        }
+
+        this.binary = binary;
+    }
+
+    /**
+     * The client has not read its reliable messages for too long, so it is cut off.
+     */
+    protected void onTooSlow() {
+        Log.warn("Dropping connection {0}, it stopped reading with {1} bytes pending",
+                connectionNum, outbound.getLength());
+        close();
+    }
+}
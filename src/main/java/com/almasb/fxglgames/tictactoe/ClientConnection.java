@@ -0,0 +1,63 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * A connected client as seen by the game logic, independent of the {@link Transport} that accepted it.
+ *
+ * Sends are buffered and only reach the socket on {@link #flush()},
+ * so everything sent during one tick goes out in a single write.
+ */
+public interface ClientConnection {
+
+    int getConnectionNum();
+
+    boolean isConnected();
+
+    /**
+     * Queues a message that must be delivered in order.
+     */
+    void send(String message);
+
+    /**
+     * Queues a binary packet that must be delivered in order.
+     * The bytes are copied before this returns, so the caller may reuse the array.
+     */
+    void sendBytes(byte[] packet, int length);
+
+    /**
+     * Queues a state update, replacing any state that has not been written yet.
+     * The update is the shared bytes followed by the recipient's own bytes,
+     * both are copied before this returns.
+     */
+    void sendState(byte[] shared, int sharedLength, byte[] own, int ownLength);
+
+    /**
+     * Sends states through the peer instead of the connection while the peer is reachable, null to stop.
+     */
+    void setStatePeer(UdpStateChannel.Peer peer);
+
+    /**
+     * @return the peer set with {@link #setStatePeer(UdpStateChannel.Peer)}, or null
+     */
+    UdpStateChannel.Peer getStatePeer();
+
+    /**
+     * Hands everything queued so far to the socket without blocking the caller.
+     */
+    void flush();
+
+    /**
+     * @return true if the client negotiated {@link BinaryProtocol}
+     */
+    boolean isBinary();
+
+    void setBinary(boolean binary);
+
+    ConnectionStats getStats();
+
+    /**
+     * @return bytes queued but not yet handed to the socket
+     */
+    int getPendingBytes();
+
+    void close();
+}
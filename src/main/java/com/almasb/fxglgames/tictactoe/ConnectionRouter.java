@@ -0,0 +1,567 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Accepts clients on one port and proxies each to one of several backend servers,
+ * e.g. {@link HeadlessServer} processes on other ports or hosts, so a backend can be restarted
+ * while the others keep their games.
+ *
+ * A new client is held for up to {@link #PEEK_MILLIS} for its first message, text line or binary frame,
+ * and placed by what it asks for. A RESUME goes to the backend that issued its session token,
+ * see {@link RoomManager#SERVER_ID_PROPERTY}. BOT, SPECTATE and REPLAY go to any backend and take no part in pairing.
+ * Anything else, including a client that says nothing until it gets a state, is a player. Every two players make a match,
+ * and the backend for a match is picked from a {@link BackendRing} by its id, so both players land on the same backend
+ * and get paired there. A player whose first message later turns out to be BOT, SPECTATE, REPLAY or RESUME
+ * stops counting, and the player it was paired with waits for the next one. Once placed, a connection
+ * stays on its backend until it closes. Draining a backend only stops new matches going to it.
+ *
+ * All connections are proxied by a single selector thread. Bytes are read into and written from
+ * one direct buffer per direction, so they are never copied on the Java heap. Only the first
+ * {@link #FIRST_MESSAGE_SIZE} bytes a client sends are looked at.
+ *
+ * Usage: ConnectionRouter port host:port[:metricsPort]...
+ *
+ * The metrics port is that of the backend's {@link ServerMetrics} endpoint, which the router scrapes for its load.
+ * Commands on standard input: "status", "drain n", "undrain n".
+ */
+public final class ConnectionRouter {
+
+    public static final int BUFFER_SIZE = 4096;
+
+    /**
+     * How long a new client is held for its first message before it is placed as a player.
+     */
+    static final long PEEK_MILLIS = 50;
+
+    /**
+     * Bytes kept of a client's first message, enough for a text or binary RESUME.
+     */
+    static final int FIRST_MESSAGE_SIZE = 64;
+
+    private enum Kind {
+        PLAYER, RESUME, OTHER
+    }
+
+    /**
+     * A client and its backend connection.
+     */
+    private static final class Route {
+        final SocketChannel client;
+        SocketChannel backend = null;
+
+        SelectionKey clientKey;
+        SelectionKey backendKey = null;
+
+        BackendRing.Backend target = null;
+        long matchId = 0;
+
+        /**
+         * Placed before this time only if its first message comes in.
+         */
+        final long peekDeadline = System.nanoTime() + PEEK_MILLIS * 1_000_000;
+
+        /**
+         * The client's first bytes, until its first message is complete.
+         */
+        final byte[] first = new byte[FIRST_MESSAGE_SIZE];
+        int firstLength = 0;
+
+        /**
+         * What the first message asks for, null until it is complete.
+         */
+        Kind kind = null;
+        long token = 0;
+
+        /**
+         * Placed as a player, and the other player of its match if it has one.
+         */
+        boolean counted = false;
+        Route partner = null;
+
+        /**
+         * Both in fill mode: position is the number of bytes waiting to be written.
+         */
+        final ByteBuffer toBackend = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final ByteBuffer toClient = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        boolean connected = false;
+        boolean clientClosed = false;
+        boolean backendClosed = false;
+
+        /**
+         * Backends tried so far, a failed connect moves on to the next one.
+         */
+        int attempts = 0;
+
+        Route(SocketChannel client) {
+            this.client = client;
+        }
+    }
+
+    private final BackendRing ring;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    private volatile boolean running = false;
+
+    /**
+     * Only used on the selector thread: clients not placed yet, in the order they came,
+     * and players whose match waits for a second one.
+     */
+    private final ArrayDeque<Route> peeking = new ArrayDeque<>();
+    private final ArrayDeque<Route> waiting = new ArrayDeque<>();
+    private long nextMatchId = 1;
+
+    public ConnectionRouter(BackendRing.Backend[] backends) {
+        ring = new BackendRing(backends);
+    }
+
+    public void start(int port) throws IOException {
+        selector = Selector.open();
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        ring.startHealthChecks();
+
+        var t = new Thread(this::loop, "router");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    BackendRing getRing() {
+        return ring;
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                if (peeking.isEmpty()) {
+                    selector.select();
+                } else {
+                    long nanos = peeking.peek().peekDeadline - System.nanoTime();
+                    selector.select(Math.max(1, (nanos + 999_999) / 1_000_000));
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            onReady(key, (Route) key.attachment());
+                        }
+                    } catch (CancelledKeyException e) {
+                        // closed while processing
+                    }
+                }
+
+                placeSilent();
+            }
+        } catch (ClosedSelectorException e) {
+            // stopped
+        } catch (IOException e) {
+            Log.warn(e, "Router loop stopped");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            var route = new Route(channel);
+            route.clientKey = channel.register(selector, SelectionKey.OP_READ, route);
+            peeking.add(route);
+        }
+    }
+
+    /**
+     * Places the clients that sent no complete message in time, as players.
+     */
+    private void placeSilent() {
+        long now = System.nanoTime();
+        while (!peeking.isEmpty() && peeking.peek().peekDeadline - now <= 0) {
+            Route route = peeking.poll();
+            if (route.target != null || !route.client.isOpen())
+                continue;
+
+            // a client written before framing sends no delimiter
+            if (route.kind == null && route.firstLength > 0 && route.first[0] != BinaryProtocol.MAGIC) {
+                readFirstMessage(route, route.firstLength);
+            }
+
+            place(route, route.kind == null ? Kind.PLAYER : route.kind);
+        }
+    }
+
+    /**
+     * Picks the backend for what the client asked for and connects to it.
+     */
+    private void place(Route route, Kind kind) {
+        BackendRing.Backend backend = null;
+
+        if (kind == Kind.PLAYER) {
+            // the second player of a match follows the first, even to a backend draining since
+            Route first;
+            while ((first = waiting.poll()) != null) {
+                if (first.client.isOpen() && !first.target.down) {
+                    route.matchId = first.matchId;
+                    route.partner = first;
+                    first.partner = route;
+                    backend = first.target;
+                    break;
+                }
+            }
+
+            if (backend == null) {
+                route.matchId = nextMatchId++;
+                backend = ring.pick(route.matchId);
+                waiting.add(route);
+            }
+
+            route.counted = true;
+        } else {
+            route.matchId = nextMatchId++;
+            if (kind == Kind.RESUME) {
+                backend = ring.owner(route.token);
+            }
+            if (backend == null) {
+                backend = ring.pick(route.matchId);
+            }
+        }
+
+        if (backend == null) {
+            Log.warn("No backend available, closing a client");
+            close(route);
+            return;
+        }
+
+        connect(route, backend);
+    }
+
+    /**
+     * Takes a player out of pairing once it turns out not to be one. The player it was paired with,
+     * if any, waits for the next one, as its backend has not matched it with anyone yet.
+     */
+    private void uncount(Route route) {
+        if (!route.counted)
+            return;
+
+        route.counted = false;
+        if (!waiting.remove(route) && route.partner != null && route.partner.client.isOpen()) {
+            route.partner.partner = null;
+            waiting.addFirst(route.partner);
+        }
+        route.partner = null;
+    }
+
+    /**
+     * Keeps the bytes the client just read until its first message is complete,
+     * then places the client by it, or takes it out of pairing if it was placed as a player already.
+     */
+    private void peek(Route route, int read) {
+        int n = Math.min(read, route.first.length - route.firstLength);
+        route.toBackend.get(route.toBackend.position() - read, route.first, route.firstLength, n);
+        route.firstLength += n;
+
+        classify(route);
+        if (route.kind == null && route.firstLength == route.first.length) {
+            route.kind = Kind.PLAYER;
+        }
+
+        if (route.kind == null)
+            return;
+
+        if (route.target == null) {
+            place(route, route.kind);
+        } else if (route.kind != Kind.PLAYER) {
+            uncount(route);
+        }
+    }
+
+    /**
+     * Sets the kind of the first message, if it is complete: a text line, or the binary handshake
+     * followed by a frame, or by 8 RESUME frames.
+     */
+    private static void classify(Route route) {
+        byte[] first = route.first;
+        int length = route.firstLength;
+
+        if (length > 0 && first[0] != BinaryProtocol.MAGIC) {
+            for (int i = 0; i < length; i++) {
+                if (first[i] == MessageFramer.DELIMITER) {
+                    readFirstMessage(route, i);
+                    return;
+                }
+            }
+            return;
+        }
+
+        int frame = 2;
+        if (length < frame + BinaryProtocol.FRAME_SIZE)
+            return;
+
+        byte op = first[frame];
+        if (op == BinaryProtocol.RESUME) {
+            if (length < frame + 8 * BinaryProtocol.FRAME_SIZE)
+                return;
+
+            long token = 0;
+            for (int i = 0; i < 8; i++) {
+                token = token << 8 | (first[frame + i * BinaryProtocol.FRAME_SIZE + 1] & 0xFF);
+            }
+            route.token = token;
+            route.kind = Kind.RESUME;
+        } else if (op == BinaryProtocol.BOT || op == BinaryProtocol.SPECTATE || op == BinaryProtocol.REPLAY) {
+            route.kind = Kind.OTHER;
+        } else {
+            route.kind = Kind.PLAYER;
+        }
+    }
+
+    private static void readFirstMessage(Route route, int length) {
+        String message = new String(route.first, 0, length, StandardCharsets.US_ASCII);
+
+        if (TextFields.is(message, 1, "RESUME")) {
+            route.token = TextFields.parseHex(message, 2);
+            route.kind = Kind.RESUME;
+        } else if (TextFields.is(message, 1, "BOT") || TextFields.is(message, 1, "SPECTATE")
+                || TextFields.is(message, 1, "REPLAY")) {
+            route.kind = Kind.OTHER;
+        } else {
+            route.kind = Kind.PLAYER;
+        }
+    }
+
+    private void connect(Route route, BackendRing.Backend backend) {
+        route.target = backend;
+        route.attempts++;
+
+        try {
+            route.backend = SocketChannel.open();
+            route.backend.configureBlocking(false);
+            route.backend.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            route.backend.connect(backend.address);
+            route.backendKey = route.backend.register(selector, SelectionKey.OP_CONNECT, route);
+        } catch (IOException e) {
+            onConnectFailed(route);
+        }
+    }
+
+    /**
+     * Marks the backend down and tries the match's next backend, the client never knows.
+     * A player that was paired leaves its match and is placed again as a new player,
+     * as the other player stays wherever it went.
+     */
+    private void onConnectFailed(Route route) {
+        route.target.markDown();
+        closeQuietly(route.backend);
+        route.backend = null;
+        route.backendKey = null;
+
+        if (route.partner != null && route.attempts < ring.getBackends().length) {
+            uncount(route);
+            place(route, Kind.PLAYER);
+            return;
+        }
+
+        var next = ring.pick(route.matchId);
+        if (next == null || route.attempts >= ring.getBackends().length) {
+            Log.warn("No backend reachable for match {0}, closing a client", route.matchId);
+            close(route);
+            return;
+        }
+
+        connect(route, next);
+    }
+
+    private void onReady(SelectionKey key, Route route) {
+        try {
+            if (key == route.backendKey && key.isConnectable()) {
+                try {
+                    route.backend.finishConnect();
+                } catch (IOException e) {
+                    onConnectFailed(route);
+                    return;
+                }
+
+                route.connected = true;
+                route.target.markUp();
+                route.target.routed++;
+                route.target.totalRouted++;
+            }
+
+            if (key.isValid() && key.isReadable()) {
+                if (key == route.clientKey) {
+                    int read = route.client.read(route.toBackend);
+                    if (read < 0) {
+                        route.clientClosed = true;
+                    } else if (read > 0 && route.kind == null) {
+                        peek(route, read);
+                    }
+                } else if (route.backend.read(route.toClient) < 0) {
+                    route.backendClosed = true;
+                }
+            }
+
+            // write straight away rather than wait for the next select
+            if (route.connected) {
+                write(route.backend, route.toBackend);
+            }
+            write(route.client, route.toClient);
+
+            update(route);
+        } catch (IOException e) {
+            close(route);
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        if (buffer.position() == 0)
+            return;
+
+        buffer.flip();
+        channel.write(buffer);
+        buffer.compact();
+    }
+
+    /**
+     * Reads from a side only while there is room for what it sends, and waits for writability
+     * only while bytes are left over. A side that closed ends the route once its bytes are passed on.
+     */
+    private void update(Route route) {
+        if ((route.clientClosed && (route.toBackend.position() == 0 || !route.connected))
+                || (route.backendClosed && route.toClient.position() == 0)) {
+            close(route);
+            return;
+        }
+
+        route.clientKey.interestOps((route.clientClosed || !route.toBackend.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                | (route.toClient.position() > 0 ? SelectionKey.OP_WRITE : 0));
+
+        if (route.connected) {
+            route.backendKey.interestOps((route.backendClosed || !route.toClient.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                    | (route.toBackend.position() > 0 ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    private void close(Route route) {
+        uncount(route);
+
+        if (route.connected) {
+            route.connected = false;
+            route.target.routed--;
+        }
+
+        closeQuietly(route.client);
+        closeQuietly(route.backend);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * @param spec host:port[:metricsPort]
+     */
+    static BackendRing.Backend parseBackend(int index, String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length < 2 || parts.length > 3)
+            throw new IllegalArgumentException("Backend must be host:port[:metricsPort]: " + spec);
+
+        int metricsPort = parts.length == 3 ? Integer.parseInt(parts[2]) : 0;
+        return new BackendRing.Backend(index, new InetSocketAddress(parts[0], Integer.parseInt(parts[1])), metricsPort);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: ConnectionRouter port host:port[:metricsPort]...");
+            return;
+        }
+
+        int port = Integer.parseInt(args[0]);
+
+        var backends = new BackendRing.Backend[args.length - 1];
+        for (int i = 0; i < backends.length; i++) {
+            backends[i] = parseBackend(i, args[i + 1]);
+        }
+
+        var router = new ConnectionRouter(backends);
+        router.start(port);
+
+        System.out.println("Router listening on port " + port + " for " + backends.length + " backends");
+
+        var in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] command = line.trim().split("\\s+");
+
+            try {
+                switch (command[0]) {
+                    case "status":
+                        for (var backend : backends) {
+                            System.out.println(backend);
+                        }
+                        break;
+                    case "drain":
+                        backends[Integer.parseInt(command[1])].draining = true;
+                        break;
+                    case "undrain":
+                        backends[Integer.parseInt(command[1])].draining = false;
+                        break;
+                    case "":
+                        break;
+                    default:
+                        System.out.println("Commands: status, drain n, undrain n");
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Commands: status, drain n, undrain n");
+            }
+        }
+
+        // standard input closed, e.g. started in the background, keeps routing
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,50 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters of one connection, also added to the totals in {@link ServerMetrics}.
+ */
+public final class ConnectionStats {
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    void onBytesIn(int bytes) {
+        bytesIn.add(bytes);
+        ServerMetrics.INSTANCE.bytesIn.add(bytes);
+    }
+
+    void onMessageIn() {
+        messagesIn.increment();
+        ServerMetrics.INSTANCE.messagesIn.increment();
+    }
+
+    void onMessageOut() {
+        messagesOut.increment();
+        ServerMetrics.INSTANCE.messagesOut.increment();
+    }
+
+    void onBytesOut(int bytes) {
+        bytesOut.add(bytes);
+        ServerMetrics.INSTANCE.bytesOut.add(bytes);
+    }
+
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+}
@@ -0,0 +1,52 @@
+package com.almasb.fxglgames.tictactoe;
+
+import com.almasb.fxgl.net.Connection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts an FXGL {@link Connection} to {@link ClientConnection}.
+ * Each flush becomes a single message on FXGL's send queue, carried as raw bytes.
+ */
+public class FXGLClientConnection extends BufferedClientConnection {
+
+    private final Connection<String> connection;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    public FXGLClientConnection(Connection<String> connection) {
+        super(connection.getConnectionNum());
+
+        this.connection = connection;
+    }
+
+    public Connection<String> getConnection() {
+        return connection;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return super.isConnected() && connection.isConnected();
+    }
+
+    /**
+     * Synchronized because the tick thread and the {@link SpectatorFanout} may flush at once,
+     * and both reuse the same buffer.
+     */
+    @Override
+    public synchronized void flush() {
+        if (!isConnected() || outbound.isEmpty())
+            return;
+
+        buffer = drain(buffer);
+        connection.send(BinaryProtocol.toRaw(buffer.array(), buffer.limit()));
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        outbound.clear();
+
+        connection.terminate();
+    }
+}
@@ -0,0 +1,111 @@
+package com.almasb.fxglgames.tictactoe;
+
+import com.almasb.fxgl.net.*;
+import javafx.collections.ListChangeListener;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FXGL's own TCP server, with a reader and a writer thread per connection.
+ */
+public class FXGLTransport implements Transport, MessageHandler<String> {
+
+    private final NetService netService;
+
+    private final Map<Connection<String>, ClientConnection> clients = new ConcurrentHashMap<>();
+
+    private Server<String> server;
+    private Listener listener;
+
+    public FXGLTransport(NetService netService) {
+        this.netService = netService;
+    }
+
+    @Override
+    public void start(int port, Listener listener) {
+        this.listener = listener;
+
+        Writers.INSTANCE.addTCPWriter(String.class, outputStream -> new MessageWriterS(outputStream));
+        Readers.INSTANCE.addTCPReader(String.class, in -> new FramedMessageReader(in));
+
+        server = netService.newTCPServer(port, new ServerConfig<>(String.class));
+
+        server.setOnConnected(connection -> {
+            var client = new FXGLClientConnection(connection);
+            clients.put(connection, client);
+
+            connection.addMessageHandler(this);
+            listener.onConnected(client);
+        });
+
+        server.getConnections().addListener((ListChangeListener<Connection<String>>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) {
+                    for (Connection<String> connection : change.getRemoved()) {
+                        var client = clients.remove(connection);
+                        if (client != null) {
+                            listener.onDisconnected(client);
+                        }
+                    }
+                }
+            }
+        });
+
+        server.startAsync();
+    }
+
+    @Override
+    public void stop() {
+        server.stop();
+    }
+
+    @Override
+    public void onReceive(Connection<String> connection, String message) {
+        var client = clients.get(connection);
+        if (client == null)
+            return;
+
+        // what the message took on the wire: a 2 byte frame or the text and its delimiter
+        client.getStats().onBytesIn(BinaryProtocol.isCommand(message) ? BinaryProtocol.FRAME_SIZE : message.length() + 1);
+
+        if (BinaryProtocol.isCommand(message)) {
+            listener.onCommand(client, BinaryProtocol.opcodeOf(message), BinaryProtocol.argOf(message));
+        } else {
+            listener.onReceive(client, message);
+        }
+    }
+
+    /**
+     * Writes each message with a single write and flush.
+     * {@link FXGLClientConnection} already coalesces a whole tick into one message.
+     */
+    static class MessageWriterS implements TCPMessageWriter<String> {
+
+        private OutputStream os;
+
+        private byte[] bytes = new byte[512];
+
+        MessageWriterS(OutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(String s) throws Exception {
+            // raw messages carry one byte per char after the marker
+            int start = BinaryProtocol.isRaw(s) ? 1 : 0;
+            int length = s.length() - start;
+
+            if (bytes.length < length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) s.charAt(start + i);
+            }
+
+            os.write(bytes, 0, length);
+            os.flush();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.almasb.fxglgames.tictactoe;
+
+import javafx.application.Platform;
+
+/**
+ * Passes room events from the {@link ServerLoop} thread to a view on the JavaFX thread.
+ */
+final class FXRoomView implements RoomView {
+
+    private final RoomView view;
+
+    FXRoomView(RoomView view) {
+        this.view = view;
+    }
+
+    @Override
+    public void onAttached(GameRoom room) {
+        Platform.runLater(() -> view.onAttached(room));
+    }
+
+    @Override
+    public void onMark(int cell, TileValue value) {
+        Platform.runLater(() -> view.onMark(cell, value));
+    }
+
+    @Override
+    public void onWin(int fromCell, int toCell, TileValue winner) {
+        Platform.runLater(() -> view.onWin(fromCell, toCell, winner));
+    }
+
+    @Override
+    public void onDraw() {
+        Platform.runLater(view::onDraw);
+    }
+
+    @Override
+    public void onDetached() {
+        Platform.runLater(view::onDetached);
+    }
+}
@@ -0,0 +1,31 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+
+/**
+ * Passes frames from a connection's {@link MessageFramer} to a {@link Transport.Listener}.
+ */
+final class FrameDispatcher implements MessageFramer.FrameHandler {
+
+    private final MessageFramer framer;
+    private final ClientConnection connection;
+    private final Transport.Listener listener;
+
+    FrameDispatcher(MessageFramer framer, ClientConnection connection, Transport.Listener listener) {
+        this.framer = framer;
+        this.connection = connection;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onFrame(byte[] data, int offset, int length) throws IOException {
+        if (framer.isBinary()) {
+            if (!BinaryProtocol.isValidOpcode(data[offset]))
+                throw new IOException("Unknown opcode " + data[offset]);
+
+            listener.onCommand(connection, data[offset], data[offset + 1] & 0xFF);
+        } else {
+            listener.onReceive(connection, MessageFramer.decode(data, offset, length));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.almasb.fxglgames.tictactoe;
+
+import com.almasb.fxgl.net.TCPMessageReader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads framed messages on the connection's own reader thread,
+ * so there is no extra thread or queue between the socket and the message handlers.
+ * Binary frames are returned as the shared Strings from {@link BinaryProtocol#commandString(byte, byte)}.
+ */
+public class FramedMessageReader implements TCPMessageReader<String>, MessageFramer.FrameHandler {
+
+    private final InputStream in;
+    private final MessageFramer framer = new MessageFramer();
+
+    private String message;
+
+    public FramedMessageReader(InputStream is) {
+        in = is;
+    }
+
+    @Override
+    public String read() throws Exception {
+        while (!framer.nextFrame(this)) {
+            if (framer.readFrom(in) < 0)
+                throw new EOFException("Connection closed");
+        }
+
+        var result = message;
+        message = null;
+        return result;
+    }
+
+    @Override
+    public void onFrame(byte[] data, int offset, int length) throws IOException {
+        if (framer.isBinary()) {
+            if (!BinaryProtocol.isValidOpcode(data[offset]))
+                throw new IOException("Unknown opcode " + data[offset]);
+
+            message = BinaryProtocol.commandString(data[offset], data[offset + 1]);
+        } else {
+            message = MessageFramer.decode(data, offset, length);
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A single match between two connections, with its own board and turn state.
+ * Rooms are owned by {@link RoomManager} and are only touched from its tick thread.
+ *
+ * Each player has a seat, which decides its symbol. A player that drops with a session
+ * may be suspended, and its seat stays taken until it resumes or the room closes.
+ */
+public class GameRoom {
+
+    public static final int MAX_PLAYERS = 2;
+
+    private final int id;
+    private final RoomManager manager;
+
+    private final BoardState state;
+
+    /**
+     * Connection in each seat, null if the seat is free or suspended.
+     */
+    private final ClientConnection[] seats = new ClientConnection[MAX_PLAYERS];
+    private final boolean[] suspended = new boolean[MAX_PLAYERS];
+
+    /**
+     * Player id per seat for ratings, 0 if the player has not identified itself.
+     */
+    private final long[] playerIds = new long[MAX_PLAYERS];
+
+    /**
+     * Session token per seat as recorded in the journal, 0 if none.
+     */
+    private final long[] seatTokens = new long[MAX_PLAYERS];
+
+    /**
+     * Seat that plays X, known once a symbol has been chosen.
+     */
+    private int xSeat = 0;
+
+    /**
+     * Connections in the seats, in no particular order.
+     */
+    private final List<ClientConnection> players = new ArrayList<>(MAX_PLAYERS);
+
+    private boolean playerXTurn = true;
+
+    private boolean clientisX = true;
+
+    private boolean symbolChosen = false;
+
+    private boolean gameFinished = false;
+
+    private boolean closed = false;
+
+    /**
+     * Whether the second seat is taken by {@link PerfectPlay} instead of a connection.
+     */
+    private boolean botOpponent = false;
+
+    private Random botRandom;
+
+    private MoveJournal journal = null;
+
+    /**
+     * Cells marked so far in order, and which of them were O, for the replay.
+     */
+    private final byte[] moveCells;
+    private final long[] oMoves;
+    private int numMoves = 0;
+
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * Id in the replay archive once the match has finished and been archived, else 0.
+     */
+    private long matchId = 0;
+
+    /**
+     * Incremented every time a move or symbol choice changes the game state.
+     */
+    private int stateVersion = 0;
+
+    private int broadcastVersion = -1;
+
+    private double keepAliveDeadline = 0;
+
+    // bookkeeping for RoomManager scheduling
+    boolean dirtyQueued = false;
+    int queuedKeepAlives = 0;
+
+    private RoomView view;
+
+    private final StateSnapshot snapshot;
+    private int snapshotVersion = -1;
+
+    /**
+     * Created when the first spectator arrives.
+     */
+    private SpectatorFeed spectatorFeed = null;
+
+    GameRoom(int id, RoomManager manager, int boardSize, int winLength) {
+        this.id = id;
+        this.manager = manager;
+
+        state = new BoardState(boardSize, winLength);
+        snapshot = new StateSnapshot(state.getNumCells());
+
+        moveCells = new byte[state.getNumCells()];
+        oMoves = new long[(state.getNumCells() + 63) / 64];
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public BoardState getState() {
+        return state;
+    }
+
+    public List<ClientConnection> getPlayers() {
+        return players;
+    }
+
+    public boolean isFull() {
+        return players.size() + getNumSuspended() + (botOpponent ? 1 : 0) == MAX_PLAYERS;
+    }
+
+    public int getNumSuspended() {
+        int count = 0;
+        for (boolean seat : suspended) {
+            if (seat)
+                count++;
+        }
+        return count;
+    }
+
+    boolean hasBot() {
+        return botOpponent;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isGameFinished() {
+        return gameFinished;
+    }
+
+    double getKeepAliveDeadline() {
+        return keepAliveDeadline;
+    }
+
+    boolean hasUnsentChanges() {
+        return stateVersion != broadcastVersion;
+    }
+
+    void setView(RoomView view) {
+        this.view = view;
+
+        if (view != null) {
+            view.onAttached(this);
+        }
+    }
+
+    RoomView getView() {
+        return view;
+    }
+
+    /**
+     * Records what happens in the room from now on, the caller records the room opening.
+     */
+    void setJournal(MoveJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return true once a symbol has been chosen, i.e. the match has started
+     */
+    boolean isStarted() {
+        return symbolChosen;
+    }
+
+    /**
+     * Seats the connection in the first free seat.
+     */
+    void addPlayer(ClientConnection connection) {
+        for (int seat = 0; seat < MAX_PLAYERS; seat++) {
+            if (seats[seat] == null && !suspended[seat]) {
+                seats[seat] = connection;
+                players.add(connection);
+                sendSnapshot(connection);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return seat of the connection, or -1 if it has none here
+     */
+    int seatOf(ClientConnection connection) {
+        for (int seat = 0; seat < MAX_PLAYERS; seat++) {
+            if (seats[seat] == connection)
+                return seat;
+        }
+        return -1;
+    }
+
+    /**
+     * Takes the connection out but keeps its seat for it.
+     *
+     * @return the seat held
+     */
+    int suspendPlayer(ClientConnection connection) {
+        int seat = seatOf(connection);
+        if (seat >= 0) {
+            removePlayer(connection);
+            suspended[seat] = true;
+        }
+        return seat;
+    }
+
+    /**
+     * Holds a seat with no connection, e.g. for a session recovered from the journal.
+     */
+    void holdSeat(int seat) {
+        suspended[seat] = true;
+    }
+
+    /**
+     * Gives a suspended seat to a new connection and queues it the current state.
+     */
+    void resumePlayer(int seat, ClientConnection connection) {
+        suspended[seat] = false;
+        seats[seat] = connection;
+        players.add(connection);
+        sendSnapshot(connection);
+    }
+
+    void releaseSeat(int seat) {
+        suspended[seat] = false;
+    }
+
+    long getPlayerId(int seat) {
+        return playerIds[seat];
+    }
+
+    void setPlayerId(int seat, long playerId) {
+        playerIds[seat] = playerId;
+    }
+
+    /**
+     * Records which session token holds the seat, so the seat can be resumed after a restart.
+     */
+    void setSeatToken(int seat, long token) {
+        seatTokens[seat] = token;
+
+        if (journal != null) {
+            journal.seatToken(id, seat, token);
+        }
+    }
+
+    /**
+     * Records the room into a journal checkpoint as if it had just been played up to now.
+     */
+    void checkpoint(MoveJournal journal) {
+        journal.roomOpened(id, state.getSize(), state.getWinLength());
+
+        if (botOpponent) {
+            journal.botSeated(id);
+        }
+
+        if (symbolChosen) {
+            journal.symbolChosen(id, xSeat == 0);
+        }
+
+        for (int move = 0; move < numMoves; move++) {
+            boolean isO = (oMoves[move >>> 6] & (1L << move)) != 0;
+            journal.move(id, moveCells[move] & 0xFF, isO ? 2 : 1);
+        }
+
+        for (int seat = 0; seat < MAX_PLAYERS; seat++) {
+            if (seatTokens[seat] != 0) {
+                journal.seatToken(id, seat, seatTokens[seat]);
+            }
+        }
+    }
+
+    /**
+     * @return connection in the seat, or null if it is empty or held
+     */
+    ClientConnection getPlayer(int seat) {
+        return seats[seat];
+    }
+
+    /**
+     * Seats the bot after the connection already in the room.
+     */
+    void addBot(Random random) {
+        botOpponent = true;
+        botRandom = random;
+
+        if (journal != null) {
+            journal.botSeated(id);
+        }
+    }
+
+    /**
+     * Makes the bot's move if it is the bot's turn.
+     */
+    void playBot() {
+        if (!botOpponent || !symbolChosen || gameFinished || seats[0] == null || isX(0))
+            return;
+
+        int cell = PerfectPlay.bestMove(state, playerXTurn, botRandom);
+        if (cell != -1) {
+            onUserMove(cell % state.getSize(), cell / state.getSize());
+        }
+    }
+
+    void removePlayer(ClientConnection connection) {
+        int seat = seatOf(connection);
+        if (seat >= 0) {
+            seats[seat] = null;
+            players.remove(connection);
+        }
+    }
+
+    SpectatorFeed getSpectatorFeed() {
+        return spectatorFeed;
+    }
+
+    SpectatorFeed openSpectatorFeed() {
+        if (spectatorFeed == null) {
+            spectatorFeed = new SpectatorFeed(id, snapshot());
+            spectatorFeed.publish(snapshot());
+        }
+
+        return spectatorFeed;
+    }
+
+    void close() {
+        closed = true;
+        players.clear();
+        Arrays.fill(seats, null);
+        Arrays.fill(suspended, false);
+
+        if (spectatorFeed != null) {
+            spectatorFeed.close();
+        }
+
+        if (view != null) {
+            view.onDetached();
+            view = null;
+        }
+    }
+
+    /**
+     * Applies a text message from a player: "n,LEFT_DOWN,x,y" to move, or a field "X" or "O" to choose a symbol.
+     *
+     * @return false if the message was malformed or not allowed, which changes nothing
+     */
+    public boolean onMessage(ClientConnection connection, String message) {
+        if (TextFields.is(message, 1, "LEFT_DOWN")) {
+            int max = state.getSize() - 1;
+            int x = TextFields.parseInt(message, 2, max);
+            int y = TextFields.parseInt(message, 3, max);
+
+            return x >= 0 && y >= 0 && onPlayerMove(connection, state.cellOf(x, y));
+        }
+
+        // the symbol may follow other fields, e.g. "n,SYMBOL,X"
+        for (int start = message.indexOf(',') + 1; start > 0; start = message.indexOf(',', start) + 1) {
+            if (TextFields.end(message, start) - start == 1) {
+                char symbol = message.charAt(start);
+                if (symbol == 'X' || symbol == 'O')
+                    return onPlayerSymbol(connection, symbol == 'X');
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks the cell for the player, if it is the player's turn and the cell is free.
+     *
+     * @return false if the move was not allowed
+     */
+    boolean onPlayerMove(ClientConnection connection, int cell) {
+        int seat = seatOf(connection);
+        if (seat < 0 || !symbolChosen || !isX(seat) || cell < 0 || cell >= state.getNumCells())
+            return false;
+
+        return applyMove(cell);
+    }
+
+    /**
+     * Chooses the symbol of the player whose turn it is, before the match has started.
+     *
+     * @return false if the choice was not allowed
+     */
+    boolean onPlayerSymbol(ClientConnection connection, boolean isX) {
+        int seat = seatOf(connection);
+        if (seat < 0 || symbolChosen || !isX(seat))
+            return false;
+
+        // the symbol is stored as that of the first seat
+        onSymbolChosen(seat == 0 ? isX : !isX);
+        return true;
+    }
+
+    public void onSymbolChosen(boolean isX) {
+        if (!symbolChosen) {
+            manager.onGameStarted(this);
+        }
+
+        symbolChosen = true;
+        clientisX = isX;
+        xSeat = isX ? 0 : 1;
+
+        if (journal != null) {
+            journal.symbolChosen(id, isX);
+        }
+
+        onStateChanged();
+    }
+
+    /**
+     * Marks the cell for whoever's turn it is, e.g. a click in the window or the bot.
+     * A move outside the board, on a taken cell or after the game has finished is ignored.
+     */
+    public void onUserMove(int x, int y) {
+        if (state.isValidCell(x, y)) {
+            applyMove(state.cellOf(x, y));
+        }
+    }
+
+    /**
+     * Replays a journaled move.
+     *
+     * @param code 1 for X or 2 for O
+     * @return false if the move is not one this room could have made, which a journal never records
+     */
+    boolean replayMove(int cell, int code) {
+        if (cell < 0 || cell >= state.getNumCells() || (code == 1) != playerXTurn)
+            return false;
+
+        return applyMove(cell);
+    }
+
+    /**
+     * @return false if the cell is taken or the game has finished, which changes nothing
+     */
+    private boolean applyMove(int cell) {
+        if (gameFinished)
+            return false;
+
+        TileValue value = playerXTurn ? TileValue.X : TileValue.O;
+        if (!state.mark(cell, value))
+            return false;
+
+        if (value == TileValue.O) {
+            oMoves[numMoves >>> 6] |= 1L << numMoves;
+        }
+        moveCells[numMoves++] = (byte) cell;
+
+        if (view != null) {
+            view.onMark(cell, value);
+        }
+
+        playerXTurn = !playerXTurn;
+        clientisX = !clientisX;
+
+        gameFinished = checkGameFinished();
+
+        if (journal != null) {
+            journal.move(id, cell, state.getCode(cell));
+
+            if (gameFinished) {
+                journal.gameFinished(id, getWinnerCode());
+            }
+        }
+
+        if (gameFinished) {
+            manager.onGameFinished(this);
+        }
+
+        onStateChanged();
+        return true;
+    }
+
+    /**
+     * @return 0 for none, 1 for X, 2 for O
+     */
+    private int getWinnerCode() {
+        return state.hasWinner() ? state.getCode(state.getWinStart()) : 0;
+    }
+
+    /**
+     * @return seat of the winner, or -1 for a draw or a game still going
+     */
+    int getWinnerSeat() {
+        return switch (getWinnerCode()) {
+            case 1 -> xSeat;
+            case 2 -> 1 - xSeat;
+            default -> -1;
+        };
+    }
+
+    long getMatchId() {
+        return matchId;
+    }
+
+    /**
+     * @return the moves so far as a replay with the given id, which the room remembers
+     */
+    Replay toReplay(long matchId) {
+        this.matchId = matchId;
+        return new Replay(matchId, id, startMillis, state.getSize(), state.getWinLength(), getWinnerCode(), botOpponent,
+                Arrays.copyOf(moveCells, numMoves), oMoves.clone());
+    }
+
+    private boolean checkGameFinished() {
+        // the board already checked the lines through the last mark
+        if (state.hasWinner()) {
+            if (view != null)
+                view.onWin(state.getWinStart(), state.getWinEnd(), state.getWinner());
+            return true;
+        }
+
+        if (!state.isFull()) {
+            // at least 1 tile is empty
+            return false;
+        }
+
+        if (view != null)
+            view.onDraw();
+        return true;
+    }
+
+    private void onStateChanged() {
+        stateVersion++;
+        manager.markDirty(this);
+    }
+
+    /**
+     * @return the current state, serialized at most once per state version
+     */
+    private StateSnapshot snapshot() {
+        if (snapshotVersion != stateVersion) {
+            snapshot.encode(state, gameFinished, symbolChosen);
+            snapshotVersion = stateVersion;
+        }
+
+        return snapshot;
+    }
+
+    private boolean isX(int seat) {
+        return seat == 0 ? clientisX : !clientisX;
+    }
+
+    /**
+     * Queues the current state for both players, each in the protocol it negotiated,
+     * and publishes it to spectators. The caller flushes the players.
+     */
+    void broadcast(double now) {
+        broadcastVersion = stateVersion;
+        keepAliveDeadline = now + RoomManager.KEEP_ALIVE_INTERVAL;
+
+        var snapshot = snapshot();
+
+        for (int seat = 0; seat < MAX_PLAYERS; seat++) {
+            if (seats[seat] != null) {
+                snapshot.sendTo(seats[seat], isX(seat));
+            }
+        }
+
+        // constant cost however many spectators there are
+        if (spectatorFeed != null) {
+            spectatorFeed.publish(snapshot);
+        }
+    }
+
+    /**
+     * Queues the current state for a single player, e.g. one that just joined.
+     */
+    void sendSnapshot(ClientConnection connection) {
+        int seat = seatOf(connection);
+        if (seat < 0)
+            return;
+
+        snapshot().sendTo(connection, isX(seat));
+    }
+}
@@ -15,6 +15,9 @@ import javafx.util.Duration;
 import static com.almasb.fxgl.dsl.FXGL.*;
 
 /**
+ * View of a single cell. {@link BoardState} is the source of truth,
+ * this component only mirrors it and plays the animations.
+ *
  * @author Almas Baimagambetov (almaslvl@gmail.com)
  */
 
@@ -68,6 +71,23 @@ import static com.almasb.fxgl.dsl.FXGL.*;
         return true;
     }
 
+    /**
+     * Clears the cell so that it can show another room.
+     */
+    public void reset() {
+        value = TileValue.NONE;
+
+        arc.setLength(0);
+
+        line1.setEndX(0);
+        line1.setEndY(0);
+        line2.setEndX(75);
+        line2.setEndY(0);
+
+        line1.setVisible(false);
+        line2.setVisible(false);
+    }
+
     public void animate(TileValue value) {
         if (value == TileValue.O) {
             KeyFrame frame = new KeyFrame(Duration.seconds(0.5),
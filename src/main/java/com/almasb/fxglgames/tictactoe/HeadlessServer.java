@@ -0,0 +1,86 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+
+/**
+ * Runs the TicTacToe server without JavaFX: no window, no scene graph and no render thread.
+ * Clients see the same TCP protocol and rules as with {@link TicTacToeApp}.
+ *
+ * Usage: HeadlessServer [port] [nio|virtual|threads]
+ *
+ * The rooms run on a {@link ServerLoop}, at the rate set by {@link ServerLoop#TICK_RATE_PROPERTY}.
+ * Metrics are served on localhost, see {@link ServerMetrics#PORT_PROPERTY}.
+ * States are also offered over UDP if {@link UdpStateChannel#PORT_PROPERTY} is set.
+ * Connections and the rate of their messages are limited, see {@link AdmissionControl}.
+ */
+public final class HeadlessServer {
+
+    public static final int DEFAULT_PORT = 55555;
+
+    public static final String DEFAULT_TRANSPORT = "nio";
+
+    private final int port;
+    private final Transport transport;
+
+    private final RoomManager rooms = new RoomManager();
+    private final ServerLoop loop;
+
+    private long startNanos;
+    private long listeningNanos;
+
+    public HeadlessServer(int port, Transport transport) {
+        this(port, transport, ServerLoop.configuredTickRate());
+    }
+
+    public HeadlessServer(int port, Transport transport, int tickRate) {
+        this.port = port;
+        this.transport = transport;
+
+        loop = new ServerLoop(rooms, tickRate);
+    }
+
+    public RoomManager getRooms() {
+        return rooms;
+    }
+
+    public void start() throws IOException {
+        startNanos = System.nanoTime();
+
+        rooms.start();
+
+        int udpPort = UdpStateChannel.configuredPort();
+        if (udpPort > 0) {
+            rooms.setStateChannel(UdpStateChannel.open(udpPort));
+        }
+
+        loop.start();
+        transport.start(port, new AdmissionControl(loop));
+        listeningNanos = System.nanoTime();
+
+        ServerMetrics.expose();
+    }
+
+    public void stop() {
+        transport.stop();
+        loop.stop();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String transportName = args.length > 1 ? args[1] : DEFAULT_TRANSPORT;
+
+        var server = new HeadlessServer(port, Transport.create(transportName));
+        server.start();
+
+        // lets the journal and the replay archive finish writing
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "shutdown"));
+
+        var udp = server.rooms.getStateChannel();
+        System.out.println("Headless server listening on port " + port + " (" + transportName + ", "
+                + server.loop.getTickRate() + " Hz, " + server.rooms.getBoardSize() + "x" + server.rooms.getBoardSize()
+                + " board" + (udp != null ? ", states on UDP port " + udp.getPort() : "")
+                + "), started in " + (server.listeningNanos - server.startNanos) / 1_000_000 + " ms");
+
+        Thread.currentThread().join();
+    }
+}
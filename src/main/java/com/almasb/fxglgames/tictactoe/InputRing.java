@@ -0,0 +1,139 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer, single-consumer ring of client inputs.
+ *
+ * Any number of transport threads publish, one game thread drains. The slots are allocated
+ * up front, so publishing an input allocates nothing. Each slot has a sequence number:
+ * it equals the position a producer may claim, and position + 1 once the input in it is complete,
+ * so producers only contend on claiming a position and the consumer never waits on a lock.
+ *
+ * When the ring is full producers wait for the next drain rather than drop input.
+ */
+final class InputRing {
+
+    interface Handler {
+
+        void onMessage(ClientConnection connection, String message);
+
+        void onCommand(ClientConnection connection, byte op, int arg);
+    }
+
+    private final int mask;
+
+    private final AtomicLongArray sequences;
+
+    private final ClientConnection[] connections;
+    private final String[] messages;
+    private final byte[] ops;
+    private final int[] args;
+
+    /**
+     * Next position to claim, shared by producers.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position to drain, only used by the consumer.
+     */
+    private long head = 0;
+
+    /**
+     * @param capacity a power of two
+     */
+    InputRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+
+        mask = capacity - 1;
+
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+
+        connections = new ClientConnection[capacity];
+        messages = new String[capacity];
+        ops = new byte[capacity];
+        args = new int[capacity];
+    }
+
+    void publishMessage(ClientConnection connection, String message) {
+        publish(connection, message, (byte) 0, 0);
+    }
+
+    void publishCommand(ClientConnection connection, byte op, int arg) {
+        publish(connection, null, op, arg);
+    }
+
+    private void publish(ClientConnection connection, String message, byte op, int arg) {
+        long position;
+        int slot;
+
+        while (true) {
+            position = tail.get();
+            slot = (int) (position & mask);
+
+            long available = sequences.get(slot) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+            } else if (available < 0) {
+                // full, the consumer has not drained this slot yet
+                Log.warn("Input ring full with {0} inputs, waiting for the game thread", mask + 1);
+                LockSupport.parkNanos(100_000);
+            }
+            // otherwise another producer claimed the position first
+        }
+
+        connections[slot] = connection;
+        messages[slot] = message;
+        ops[slot] = op;
+        args[slot] = arg;
+
+        // publishes the writes above to the consumer
+        sequences.set(slot, position + 1);
+    }
+
+    /**
+     * Passes every complete input, in order, to the handler. Only one thread may drain.
+     *
+     * @return number of inputs drained
+     */
+    int drain(Handler handler) {
+        int count = 0;
+
+        while (true) {
+            int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1)
+                return count;
+
+            var connection = connections[slot];
+            var message = messages[slot];
+            byte op = ops[slot];
+            int arg = args[slot];
+
+            connections[slot] = null;
+            messages[slot] = null;
+
+            // hands the slot back to producers for the next lap
+            sequences.set(slot, head + mask + 1);
+            head++;
+            count++;
+
+            try {
+                if (message != null) {
+                    handler.onMessage(connection, message);
+                } else {
+                    handler.onCommand(connection, op, arg);
+                }
+            } catch (Exception e) {
+                Log.warn(e, "Input from connection {0} failed", connection.getConnectionNum());
+            }
+        }
+    }
+}
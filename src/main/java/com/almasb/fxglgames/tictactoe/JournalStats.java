@@ -0,0 +1,90 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads a {@link MoveJournal} offline and prints totals over every match in it.
+ *
+ * Usage: JournalStats journalDir
+ *
+ * Room ids are handed out in order, so per room counts live in arrays indexed by id
+ * and the pass over the journal allocates nothing per record.
+ */
+public final class JournalStats implements MoveJournal.Visitor {
+
+    private long records = 0;
+    private long rooms = 0;
+    private long botRooms = 0;
+    private long moves = 0;
+    private long finished = 0;
+    private long movesInFinished = 0;
+    private final long[] wins = new long[3];
+
+    private long firstMillis = Long.MAX_VALUE;
+    private long lastMillis = Long.MIN_VALUE;
+
+    private int[] movesOf = new int[1024];
+
+    @Override
+    public void onRecord(long timeMillis, int type, int roomId, int a, int b) {
+        records++;
+        firstMillis = Math.min(firstMillis, timeMillis);
+        lastMillis = Math.max(lastMillis, timeMillis);
+
+        if (roomId < 0)
+            return;
+
+        if (roomId >= movesOf.length) {
+            movesOf = Arrays.copyOf(movesOf, Math.max(roomId + 1, movesOf.length * 2));
+        }
+
+        switch (type) {
+            case MoveJournal.ROOM_OPENED -> {
+                rooms++;
+                movesOf[roomId] = 0;
+            }
+            case MoveJournal.BOT_SEATED -> botRooms++;
+            case MoveJournal.MOVE -> {
+                moves++;
+                movesOf[roomId]++;
+            }
+            case MoveJournal.GAME_FINISHED -> {
+                finished++;
+                wins[a < wins.length ? a : 0]++;
+                movesInFinished += movesOf[roomId];
+            }
+            default -> { }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: JournalStats journalDir");
+            return;
+        }
+
+        Path dir = Path.of(args[0]);
+        var stats = new JournalStats();
+
+        long start = System.nanoTime();
+        MoveJournal.read(dir, stats);
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("%d records in %d segments, read in %.1f ms (%.0f records/s)%n",
+                stats.records, MoveJournal.listSegments(dir).size(), nanos / 1e6, stats.records * 1e9 / Math.max(1, nanos));
+
+        if (stats.records == 0)
+            return;
+
+        System.out.printf("span:        %.1f s%n", (stats.lastMillis - stats.firstMillis) / 1000.0);
+        System.out.printf("rooms:       %d (%d against the bot)%n", stats.rooms, stats.botRooms);
+        System.out.printf("moves:       %d%n", stats.moves);
+        System.out.printf("finished:    %d (X %d, O %d, draw %d)%n", stats.finished, stats.wins[1], stats.wins[2], stats.wins[0]);
+        System.out.printf("unfinished:  %d%n", stats.rooms - stats.finished);
+
+        if (stats.finished > 0) {
+            System.out.printf("game length: %.2f moves on average%n", stats.movesInFinished / (double) stats.finished);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulates many game clients against a running server to measure its capacity.
+ *
+ * Every client runs on its own virtual thread with a blocking socket, plays random legal moves
+ * no faster than the given rate, and reconnects for a new match when a game ends.
+ * Reported are the time from connecting to the first state update, the time from sending
+ * a move or symbol choice to receiving the state that contains it, and the overall move and update throughput.
+ * With "bot" every client plays against the server's {@link PerfectPlay} bot instead of another client.
+ *
+ * Usage: LoadGenerator [host] [port] [clients] [moves per second per client] [seconds] [text|binary] [bot]
+ *
+ * The board size must match the server's, set with {@link RoomManager#BOARD_SIZE_PROPERTY}.
+ */
+public final class LoadGenerator {
+
+    /**
+     * A client that hears nothing for this long counts as an error and reconnects.
+     */
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress address;
+    private final int numClients;
+    private final double movesPerSecond;
+    private final int durationSeconds;
+    private final boolean binary;
+    private final boolean vsBot;
+
+    private final int boardSize = RoomManager.configuredBoardSize();
+    private final int numCells = boardSize * boardSize;
+
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+
+    private final AtomicInteger connected = new AtomicInteger();
+    private final LongAdder movesSent = new LongAdder();
+    private final LongAdder statesReceived = new LongAdder();
+    private final LongAdder gamesFinished = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private volatile boolean running = true;
+
+    public LoadGenerator(InetSocketAddress address, int numClients, double movesPerSecond,
+                         int durationSeconds, boolean binary, boolean vsBot) {
+        this.address = address;
+        this.numClients = numClients;
+        this.movesPerSecond = movesPerSecond;
+        this.durationSeconds = durationSeconds;
+        this.binary = binary;
+        this.vsBot = vsBot;
+    }
+
+    public void run() throws InterruptedException {
+        System.out.println("Starting " + numClients + " " + (binary ? "binary" : "text") + " clients against "
+                + address + (vsBot ? " bots" : "") + ", " + movesPerSecond + " moves/s each, for " + durationSeconds + " s");
+
+        long start = System.nanoTime();
+
+        ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < numClients; i++) {
+            clients.submit(this::runClient);
+        }
+
+        long lastMoves = 0;
+        long lastStates = 0;
+
+        for (int second = 1; second <= durationSeconds; second++) {
+            Thread.sleep(Math.max(0, TimeUnit.SECONDS.toMillis(second) - (System.nanoTime() - start) / 1_000_000));
+
+            long moves = moveLatency.getCount();
+            long states = statesReceived.sum();
+
+            System.out.printf("%3d s  connected %d  moves/s %d  updates/s %d  move p99 %.2f ms  errors %d%n",
+                    second, connected.get(), moves - lastMoves, states - lastStates,
+                    moveLatency.getValueAtPercentile(99) / 1e6, errors.sum());
+
+            lastMoves = moves;
+            lastStates = states;
+        }
+
+        running = false;
+        clients.shutdown();
+        clients.awaitTermination(READ_TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println();
+        System.out.println("connect       " + connectTime.summary());
+        System.out.println("move->update  " + moveLatency.summary());
+        System.out.printf("throughput    %.0f moves/s  %.0f updates/s%n",
+                moveLatency.getCount() / seconds, statesReceived.sum() / seconds);
+        System.out.println("moves sent " + movesSent.sum() + ", games finished " + gamesFinished.sum()
+                + ", errors " + errors.sum());
+    }
+
+    private void runClient() {
+        while (running) {
+            try (var socket = new Socket()) {
+                new SimulatedClient(socket).playMatch();
+            } catch (IOException e) {
+                errors.increment();
+
+                if (running) {
+                    // back off a little so a dead server is not hammered
+                    try {
+                        Thread.sleep(ThreadLocalRandom.current().nextInt(100, 500));
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * One connection playing one match.
+     */
+    private final class SimulatedClient {
+
+        private final Socket socket;
+
+        private InputStream in;
+        private OutputStream out;
+
+        private final byte[] buffer = new byte[4096];
+        private int start = 0;
+        private int end = 0;
+
+        // last state received, 0 empty, 1 X, 2 O per cell
+        private final byte[] cells = new byte[numCells];
+        private int numMarks;
+        private boolean finished;
+        private boolean symbolChosen;
+        private boolean myTurn;
+        private int connectionNum;
+
+        // the move in flight, if any
+        private long sentAt = 0;
+        private int numMarksAtSend;
+        private boolean symbolChosenAtSend;
+
+        private long nextMoveAt = 0;
+
+        SimulatedClient(Socket socket) {
+            this.socket = socket;
+        }
+
+        void playMatch() throws IOException {
+            long started = System.nanoTime();
+
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            socket.connect(address, READ_TIMEOUT_MILLIS);
+
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+
+            if (binary) {
+                out.write(new byte[] { BinaryProtocol.MAGIC, BinaryProtocol.VERSION });
+                readHandshake();
+            }
+
+            readState();
+            connectTime.record(System.nanoTime() - started);
+
+            if (vsBot) {
+                if (binary) {
+                    out.write(new byte[] { BinaryProtocol.BOT, 0 });
+                } else {
+                    out.write((connectionNum + ",BOT\n").getBytes(StandardCharsets.US_ASCII));
+                }
+
+                // the state of the bot's room
+                readState();
+            }
+
+            connected.incrementAndGet();
+
+            try {
+                while (running) {
+                    if (sentAt != 0 && (numMarks != numMarksAtSend || symbolChosen != symbolChosenAtSend)) {
+                        moveLatency.record(System.nanoTime() - sentAt);
+                        sentAt = 0;
+                    }
+
+                    if (finished) {
+                        gamesFinished.increment();
+                        return;
+                    }
+
+                    if (myTurn && sentAt == 0) {
+                        play();
+                    }
+
+                    readState();
+                }
+            } catch (SocketTimeoutException e) {
+                // the match stalled, e.g. the opponent is waiting for a new room
+                if (running)
+                    throw e;
+            } finally {
+                connected.decrementAndGet();
+            }
+        }
+
+        private void play() throws IOException {
+            var random = ThreadLocalRandom.current();
+
+            long now = System.nanoTime();
+            if (now < nextMoveAt) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(nextMoveAt - now);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            nextMoveAt = System.nanoTime() + (long) (1e9 / movesPerSecond);
+
+            numMarksAtSend = numMarks;
+            symbolChosenAtSend = symbolChosen;
+
+            if (!symbolChosen) {
+                char symbol = random.nextBoolean() ? 'X' : 'O';
+
+                if (binary) {
+                    out.write(new byte[] { BinaryProtocol.SYMBOL, (byte) symbol });
+                } else {
+                    out.write((connectionNum + "," + symbol + "\n").getBytes(StandardCharsets.US_ASCII));
+                }
+            } else {
+                int cell = randomEmptyCell(random);
+
+                if (binary) {
+                    out.write(new byte[] { BinaryProtocol.MOVE, (byte) cell });
+                } else {
+                    out.write((connectionNum + ",LEFT_DOWN," + cell % boardSize + "," + cell / boardSize + "\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                }
+
+                movesSent.increment();
+            }
+
+            sentAt = System.nanoTime();
+        }
+
+        private int randomEmptyCell(ThreadLocalRandom random) {
+            int pick = random.nextInt(numCells - numMarks);
+            for (int cell = 0; cell < numCells; cell++) {
+                if (cells[cell] == 0 && pick-- == 0)
+                    return cell;
+            }
+
+            throw new IllegalStateException("No empty cell on an unfinished board");
+        }
+
+        /**
+         * Skips any text sent before the reply, see {@link BinaryProtocol}.
+         */
+        private void readHandshake() throws IOException {
+            while (true) {
+                fill(2);
+                if (buffer[start] == BinaryProtocol.MAGIC) {
+                    if (buffer[start + 1] != BinaryProtocol.VERSION)
+                        throw new IOException("Server rejected protocol version " + BinaryProtocol.VERSION);
+
+                    start += 2;
+                    return;
+                }
+                start++;
+            }
+        }
+
+        private void readState() throws IOException {
+            if (binary) {
+                readBinaryState();
+            } else {
+                readTextState();
+            }
+
+            statesReceived.increment();
+        }
+
+        private void readBinaryState() throws IOException {
+            int sharedSize = BinaryProtocol.sharedStateSize(numCells);
+            fill(sharedSize + BinaryProtocol.STATE_OWN_SIZE);
+
+            if (buffer[start] != BinaryProtocol.STATE)
+                throw new IOException("Unexpected packet " + buffer[start]);
+
+            // big endian, bit n is in the n / 8th byte from the end of the shared part
+            int last = start + sharedSize - 1;
+
+            numMarks = 0;
+            for (int cell = 0; cell < numCells; cell++) {
+                cells[cell] = (byte) ((bitAt(last, cell * 2) ? 1 : 0) | (bitAt(last, cell * 2 + 1) ? 2 : 0));
+                if (cells[cell] != 0)
+                    numMarks++;
+            }
+
+            finished = bitAt(last, numCells * 2);
+            symbolChosen = bitAt(last, numCells * 2 + 1);
+
+            int own = start + sharedSize;
+            myTurn = buffer[own] == BinaryProtocol.ROLE_X;
+            connectionNum = (buffer[own + 1] & 0xFF) << 24 | (buffer[own + 2] & 0xFF) << 16
+                    | (buffer[own + 3] & 0xFF) << 8 | buffer[own + 4] & 0xFF;
+
+            start = own + BinaryProtocol.STATE_OWN_SIZE;
+        }
+
+        private boolean bitAt(int last, int bit) {
+            return (buffer[last - bit / 8] & (1 << (bit % 8))) != 0;
+        }
+
+        /**
+         * Reads "GAME_DATA,board,finished,symbolChosen,isX,connectionNum," where isX means it is our move.
+         * Updates are not delimited, so the fields are counted.
+         */
+        private void readTextState() throws IOException {
+            int fields = 0;
+            int fieldStart = start;
+            int i = start;
+
+            while (fields < 6) {
+                if (i == end) {
+                    int consumed = start;
+                    fill(end - start + 1);
+                    i -= consumed - start;
+                    fieldStart -= consumed - start;
+                }
+
+                if (buffer[i++] != ',')
+                    continue;
+
+                switch (fields) {
+                    case 0 -> {
+                        if (!MessageFramer.decode(buffer, fieldStart, i - 1 - fieldStart).equals("GAME_DATA"))
+                            throw new IOException("Unexpected message");
+                    }
+                    case 1 -> {
+                        numMarks = 0;
+                        for (int cell = 0; cell < numCells; cell++) {
+                            byte c = buffer[fieldStart + cell];
+                            cells[cell] = (byte) (c == 'X' ? 1 : c == 'O' ? 2 : 0);
+                            if (cells[cell] != 0)
+                                numMarks++;
+                        }
+                    }
+                    case 2 -> finished = buffer[fieldStart] == 't';
+                    case 3 -> symbolChosen = buffer[fieldStart] == 't';
+                    case 4 -> myTurn = buffer[fieldStart] == 't';
+                    case 5 -> connectionNum = Integer.parseInt(MessageFramer.decode(buffer, fieldStart, i - 1 - fieldStart));
+                }
+
+                fields++;
+                fieldStart = i;
+            }
+
+            start = i;
+        }
+
+        /**
+         * Blocks until at least n unread bytes are buffered, moving them to the front first.
+         */
+        private void fill(int n) throws IOException {
+            if (end - start >= n)
+                return;
+
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+
+            while (end < n) {
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0)
+                    throw new IOException("Server closed the connection");
+                end += read;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : HeadlessServer.DEFAULT_PORT;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        double movesPerSecond = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+        boolean binary = args.length > 5 && args[5].equals("binary");
+        boolean vsBot = args.length > 6 && args[6].equals("bot");
+
+        new LoadGenerator(new InetSocketAddress(host, port), clients, movesPerSecond, seconds, binary, vsBot).run();
+    }
+}
@@ -0,0 +1,95 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.lang.System.Logger.Level;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Level gated, rate limited logging through {@link System.Logger}.
+ *
+ * A message below the configured level costs one check. Each format string may be logged
+ * {@link #MAX_PER_WINDOW} times per {@link #WINDOW_MILLIS}, further messages with the same format
+ * are dropped and counted, and the next one that gets through says how many were dropped.
+ * Formats use {@link MessageFormat} placeholders, e.g. "Dropping connection {0}".
+ */
+final class Log {
+
+    static final int MAX_PER_WINDOW = 5;
+    static final long WINDOW_MILLIS = 10_000;
+
+    private static final System.Logger LOGGER = System.getLogger("com.almasb.fxglgames.tictactoe");
+
+    private static final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    private static final LongAdder suppressed = new LongAdder();
+
+    private static final class Window {
+        long start = 0;
+        int count = 0;
+        int suppressed = 0;
+    }
+
+    private Log() { }
+
+    static boolean isEnabled(Level level) {
+        return LOGGER.isLoggable(level);
+    }
+
+    static void debug(String format, Object... params) {
+        log(Level.DEBUG, null, format, params);
+    }
+
+    static void info(String format, Object... params) {
+        log(Level.INFO, null, format, params);
+    }
+
+    static void warn(String format, Object... params) {
+        log(Level.WARNING, null, format, params);
+    }
+
+    static void warn(Throwable error, String format, Object... params) {
+        log(Level.WARNING, error, format, params);
+    }
+
+    static long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    private static void log(Level level, Throwable error, String format, Object... params) {
+        if (!LOGGER.isLoggable(level))
+            return;
+
+        var window = windows.computeIfAbsent(format, f -> new Window());
+
+        int dropped;
+        synchronized (window) {
+            long now = System.currentTimeMillis();
+            if (now - window.start >= WINDOW_MILLIS) {
+                window.start = now;
+                window.count = 0;
+            }
+
+            if (window.count++ >= MAX_PER_WINDOW) {
+                window.suppressed++;
+                suppressed.increment();
+                return;
+            }
+
+            dropped = window.suppressed;
+            window.suppressed = 0;
+        }
+
+        String message = MessageFormat.format(format, params);
+        if (dropped > 0) {
+            message += " (" + dropped + " similar messages suppressed)";
+        }
+
+        if (error == null) {
+            LOGGER.log(level, message);
+        } else {
+            LOGGER.log(level, message, error);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Connections waiting for an opponent, owned by {@link RoomManager} and only used from its tick thread.
+ * Joins reach it through the manager's lock-free join queue, so transport threads never wait on it.
+ *
+ * Every {@link #BATCH_INTERVAL} seconds the waiting connections are sorted by rating and neighbours are paired
+ * if their ratings are within the window of either. The window starts at {@link #INITIAL_WINDOW} points and
+ * widens by {@link #WINDOW_GROWTH} points per second of waiting, and after {@link #MAX_WAIT} seconds it is unbounded,
+ * so nobody waits much longer than that while someone else is waiting too.
+ * Which of the two players takes the first seat, and with it the first choice of symbol, is random.
+ */
+final class Matchmaker {
+
+    static final double BATCH_INTERVAL = 0.1;
+
+    static final int INITIAL_WINDOW = 100;
+    static final int WINDOW_GROWTH = 100;
+
+    static final double MAX_WAIT = 5.0;
+
+    private static final class Waiting {
+        final ClientConnection connection;
+        final double since;
+        final long sinceNanos;
+
+        int rating;
+
+        Waiting(ClientConnection connection, int rating, double since) {
+            this.connection = connection;
+            this.rating = rating;
+            this.since = since;
+            this.sinceNanos = System.nanoTime();
+        }
+
+        double window(double now) {
+            double waited = now - since;
+            return waited >= MAX_WAIT ? Double.MAX_VALUE : INITIAL_WINDOW + WINDOW_GROWTH * waited;
+        }
+    }
+
+    private final List<Waiting> waiting = new ArrayList<>();
+    private final Map<ClientConnection, Waiting> byConnection = new HashMap<>();
+
+    /**
+     * Rating in the high bits and index in the low bits, so that sorting primitives sorts the waiting connections.
+     */
+    private long[] order = new long[64];
+
+    private final Random random = new Random();
+
+    private double nextBatch = 0;
+    private double nextKeepAlive = 0;
+
+    int size() {
+        return byConnection.size();
+    }
+
+    boolean contains(ClientConnection connection) {
+        return byConnection.containsKey(connection);
+    }
+
+    void add(ClientConnection connection, int rating, double now) {
+        var entry = new Waiting(connection, rating, now);
+        waiting.add(entry);
+        byConnection.put(connection, entry);
+    }
+
+    /**
+     * The connection identified itself while waiting.
+     */
+    void setRating(ClientConnection connection, int rating) {
+        var entry = byConnection.get(connection);
+        if (entry != null) {
+            entry.rating = rating;
+        }
+    }
+
+    /**
+     * Taken out lazily at the next batch.
+     */
+    void remove(ClientConnection connection) {
+        byConnection.remove(connection);
+    }
+
+    /**
+     * Runs a batch if one is due, handing each pair to onPaired with the player for the first seat first,
+     * and every {@link RoomManager#KEEP_ALIVE_INTERVAL} hands those still waiting to onKeepAlive.
+     */
+    void tick(double now, BiConsumer<ClientConnection, ClientConnection> onPaired, Consumer<ClientConnection> onKeepAlive) {
+        if (now < nextBatch)
+            return;
+
+        nextBatch = now + BATCH_INTERVAL;
+
+        // drop the removed ones
+        int n = 0;
+        for (int i = 0; i < waiting.size(); i++) {
+            var entry = waiting.get(i);
+            if (byConnection.get(entry.connection) == entry) {
+                waiting.set(n++, entry);
+            }
+        }
+        waiting.subList(n, waiting.size()).clear();
+
+        if (n >= 2) {
+            pair(now, n, onPaired);
+        }
+
+        if (now >= nextKeepAlive) {
+            nextKeepAlive = now + RoomManager.KEEP_ALIVE_INTERVAL;
+
+            for (var connection : byConnection.keySet()) {
+                onKeepAlive.accept(connection);
+            }
+        }
+    }
+
+    private void pair(double now, int n, BiConsumer<ClientConnection, ClientConnection> onPaired) {
+        if (order.length < n) {
+            order = new long[Math.max(n, order.length * 2)];
+        }
+
+        for (int i = 0; i < n; i++) {
+            order[i] = (long) waiting.get(i).rating << 32 | i;
+        }
+        Arrays.sort(order, 0, n);
+
+        long nowNanos = System.nanoTime();
+
+        int i = 0;
+        while (i + 1 < n) {
+            var a = waiting.get((int) order[i]);
+            var b = waiting.get((int) order[i + 1]);
+
+            if (b.rating - a.rating > Math.max(a.window(now), b.window(now))) {
+                // a has nobody close enough this time
+                i++;
+                continue;
+            }
+
+            byConnection.remove(a.connection);
+            byConnection.remove(b.connection);
+
+            ServerMetrics.INSTANCE.onMatched(nowNanos - a.sinceNanos);
+            ServerMetrics.INSTANCE.onMatched(nowNanos - b.sinceNanos);
+
+            if (random.nextBoolean()) {
+                onPaired.accept(a.connection, b.connection);
+            } else {
+                onPaired.accept(b.connection, a.connection);
+            }
+
+            i += 2;
+        }
+    }
+}
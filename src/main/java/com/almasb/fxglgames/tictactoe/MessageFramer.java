@@ -0,0 +1,194 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits an inbound byte stream into newline-delimited messages.
+ * A single buffer is reused for the lifetime of the connection and partial
+ * or batched reads are handled by keeping unconsumed bytes between reads.
+ *
+ * Clients written before framing send no delimiter at all. Until the first
+ * delimiter is seen, whatever is left after a read is treated as one message,
+ * which is how the old reader behaved.
+ *
+ * If the very first byte is {@link BinaryProtocol#MAGIC} the connection uses the
+ * binary protocol instead and every frame is {@link BinaryProtocol#FRAME_SIZE} bytes.
+ */
+public final class MessageFramer {
+
+    public static final byte DELIMITER = '\n';
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public interface FrameHandler {
+
+        /**
+         * The bytes are only valid for the duration of the call.
+         */
+        void onFrame(byte[] data, int offset, int length) throws Exception;
+    }
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+
+    /**
+     * Start of the first unconsumed byte.
+     */
+    private int start = 0;
+
+    /**
+     * Position up to which the unconsumed bytes have been scanned for a delimiter.
+     */
+    private int scanned = 0;
+
+    private boolean delimited = false;
+
+    private boolean negotiated = false;
+    private boolean binary = false;
+
+    public MessageFramer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity longest message that can be framed
+     */
+    public MessageFramer(int capacity) {
+        data = new byte[capacity];
+        buffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Reads once from the channel into the internal buffer.
+     *
+     * @return number of bytes read, or -1 at end of stream
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        makeRoom();
+
+        return channel.read(buffer);
+    }
+
+    /**
+     * Reads once from the stream straight into the internal buffer.
+     *
+     * @return number of bytes read, or -1 at end of stream
+     */
+    public int readFrom(InputStream in) throws IOException {
+        makeRoom();
+
+        int n = in.read(data, buffer.position(), buffer.remaining());
+        if (n > 0) {
+            buffer.position(buffer.position() + n);
+        }
+        return n;
+    }
+
+    private void makeRoom() throws IOException {
+        if (buffer.position() == data.length) {
+            if (start == 0)
+                throw new IOException("Message longer than " + data.length + " bytes");
+
+            compact();
+        }
+    }
+
+    /**
+     * Passes every complete message currently buffered to the handler.
+     *
+     * @return number of messages dispatched
+     */
+    public int dispatch(FrameHandler handler) throws Exception {
+        int count = 0;
+        while (nextFrame(handler)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Passes the next complete message, if any, to the handler.
+     *
+     * @return true if a message was dispatched
+     */
+    public boolean nextFrame(FrameHandler handler) throws Exception {
+        int end = buffer.position();
+
+        if (!negotiated && end > start) {
+            negotiated = true;
+            binary = data[start] == BinaryProtocol.MAGIC;
+        }
+
+        if (binary) {
+            if (end - start >= BinaryProtocol.FRAME_SIZE) {
+                int frameStart = start;
+                start += BinaryProtocol.FRAME_SIZE;
+                scanned = start;
+
+                handler.onFrame(data, frameStart, BinaryProtocol.FRAME_SIZE);
+                return true;
+            }
+        }
+
+        while (!binary && scanned < end) {
+            int i = scanned++;
+            if (data[i] != DELIMITER)
+                continue;
+
+            delimited = true;
+
+            int frameStart = start;
+            int frameEnd = i > frameStart && data[i - 1] == '\r' ? i - 1 : i;
+
+            start = scanned;
+
+            // empty lines are skipped
+            if (frameEnd > frameStart) {
+                handler.onFrame(data, frameStart, frameEnd - frameStart);
+                return true;
+            }
+        }
+
+        if (!binary && !delimited && end > start) {
+            int frameStart = start;
+            start = end;
+            scanned = end;
+
+            handler.onFrame(data, frameStart, end - frameStart);
+            return true;
+        }
+
+        if (start == end) {
+            // nothing left, rewind for free
+            start = 0;
+            scanned = 0;
+            buffer.clear();
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the client opened with the binary handshake
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    private void compact() {
+        int remaining = buffer.position() - start;
+        System.arraycopy(data, start, data, 0, remaining);
+
+        scanned -= start;
+        start = 0;
+        buffer.position(remaining);
+    }
+
+    public static String decode(byte[] data, int offset, int length) {
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,122 @@
+package com.almasb.fxglgames.tictactoe;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link ServerMetrics} as plain text in the Prometheus exposition format,
+ * on the loopback interface only: GET http://localhost:port/metrics
+ *
+ * Per connection counters are listed too, unless the query is "?connections=false".
+ */
+final class MetricsEndpoint {
+
+    private MetricsEndpoint() { }
+
+    static void start(int port, ServerMetrics metrics) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, metrics));
+        server.setExecutor(null);
+        server.start();
+    }
+
+    private static void respond(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        boolean perConnection = query == null || !query.contains("connections=false");
+
+        byte[] body = scrape(metrics, perConnection).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static String scrape(ServerMetrics metrics, boolean perConnection) {
+        var sb = new StringBuilder(1024);
+
+        gauge(sb, "tictactoe_connections", "Open client connections", metrics.getActiveConnections());
+        gauge(sb, "tictactoe_rooms", "Open rooms", metrics.getRooms());
+        gauge(sb, "tictactoe_games_active", "Matches started and not finished", metrics.getActiveGames());
+        gauge(sb, "tictactoe_spectators", "Connections watching a room", metrics.getSpectators());
+        gauge(sb, "tictactoe_join_queue_depth", "Connections waiting to be put in a room", metrics.getJoinQueueDepth());
+        gauge(sb, "tictactoe_server_id", "Top byte of the session tokens issued, 0 if none", metrics.getServerId());
+        gauge(sb, "tictactoe_outbound_pending_bytes", "Bytes queued but not yet written", metrics.getOutboundPendingBytes());
+
+        counter(sb, "tictactoe_messages_in_total", "Messages received", metrics.getMessagesIn());
+        counter(sb, "tictactoe_bytes_in_total", "Bytes received", metrics.getBytesIn());
+        counter(sb, "tictactoe_messages_out_total", "Messages queued for sending", metrics.getMessagesOut());
+        counter(sb, "tictactoe_bytes_out_total", "Bytes written", metrics.getBytesOut());
+        counter(sb, "tictactoe_connections_rejected_total", "Connections closed over the connection limit", metrics.getConnectionsRejected());
+        counter(sb, "tictactoe_messages_shed_total", "Messages dropped over a connection's rate limit", metrics.getMessagesShed());
+        counter(sb, "tictactoe_inputs_rejected_total", "Malformed, out of turn or illegal moves and commands", metrics.getInputsRejected());
+        counter(sb, "tictactoe_replay_write_failures_total", "Replay archive blocks that failed to write", metrics.getReplayWriteFailures());
+        counter(sb, "tictactoe_replays_dropped_total", "Finished matches left out of the replay archive after failed writes", metrics.getReplaysDropped());
+        counter(sb, "tictactoe_log_suppressed_total", "Log messages dropped by rate limiting", metrics.getLogMessagesSuppressed());
+
+        summary(sb, "tictactoe_tick_seconds", "Duration of a server tick", metrics.tickDuration);
+        summary(sb, "tictactoe_handler_seconds", "Time to handle one client message", metrics.handlerLatency);
+        summary(sb, "tictactoe_match_wait_seconds", "Time a player waited to be paired", metrics.matchWait);
+
+        if (perConnection) {
+            sb.append("# HELP tictactoe_connection_messages_in_total Messages received per connection\n");
+            sb.append("# TYPE tictactoe_connection_messages_in_total counter\n");
+            sb.append("# HELP tictactoe_connection_bytes_in_total Bytes received per connection\n");
+            sb.append("# TYPE tictactoe_connection_bytes_in_total counter\n");
+            sb.append("# HELP tictactoe_connection_messages_out_total Messages queued per connection\n");
+            sb.append("# TYPE tictactoe_connection_messages_out_total counter\n");
+            sb.append("# HELP tictactoe_connection_bytes_out_total Bytes written per connection\n");
+            sb.append("# TYPE tictactoe_connection_bytes_out_total counter\n");
+            sb.append("# HELP tictactoe_connection_pending_bytes Bytes queued but not yet written per connection\n");
+            sb.append("# TYPE tictactoe_connection_pending_bytes gauge\n");
+
+            for (ClientConnection connection : metrics.getConnections()) {
+                var stats = connection.getStats();
+                var label = "{connection=\"" + connection.getConnectionNum() + "\"} ";
+
+                sb.append("tictactoe_connection_messages_in_total").append(label).append(stats.getMessagesIn()).append('\n');
+                sb.append("tictactoe_connection_bytes_in_total").append(label).append(stats.getBytesIn()).append('\n');
+                sb.append("tictactoe_connection_messages_out_total").append(label).append(stats.getMessagesOut()).append('\n');
+                sb.append("tictactoe_connection_bytes_out_total").append(label).append(stats.getBytesOut()).append('\n');
+                sb.append("tictactoe_connection_pending_bytes").append(label).append(connection.getPendingBytes()).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String help, LatencyHistogram histogram) {
+        header(sb, name, help, "summary");
+
+        for (String quantile : new String[] { "0.5", "0.99", "0.999" }) {
+            double seconds = histogram.getValueAtPercentile(Double.parseDouble(quantile) * 100) / 1e9;
+            sb.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(seconds).append('\n');
+        }
+
+        sb.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+        sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
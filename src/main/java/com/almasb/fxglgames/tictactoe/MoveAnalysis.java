@@ -0,0 +1,319 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scores moves of finished 3 x 3 matches against perfect play, in bulk and in parallel.
+ *
+ * A move is packed into an int as the X and O masks of the position it was made in and the cell marked,
+ * see {@link #pack(int, int, int)}, so millions of moves fit in one primitive array. The result with best play
+ * of every one of the 3^9 boards is looked up once, when the class loads, from {@link PerfectPlay}
+ * into a byte per pair of masks, which leaves scoring a move as two array reads.
+ * The moves are split in halves with fork-join down to {@link #LEAF_MOVES} moves, each leaf counting into
+ * one array of its own that is summed on the way back, so nothing is allocated per move and nothing is shared.
+ *
+ * A move that keeps the best result of the position is optimal, one that gives up a step of it,
+ * a win for a draw or a draw for a loss, is a mistake and one that turns a win into a loss is a blunder.
+ * A move on a finished or impossible position, or on a taken cell, is invalid and not scored.
+ */
+public final class MoveAnalysis {
+
+    /**
+     * Moves below which a task counts them itself rather than splitting.
+     */
+    static final int LEAF_MOVES = 1 << 14;
+
+    private static final int NUM_CELLS = 9;
+    private static final int MASK = (1 << NUM_CELLS) - 1;
+
+    /**
+     * Per position: result with best play for the player to move plus one, with {@link #FINISHED} set
+     * if the game is over, or {@link #UNREACHABLE} if no game gets there.
+     */
+    private static final byte[] RESULTS = new byte[1 << 2 * NUM_CELLS];
+
+    private static final int FINISHED = 4;
+    private static final int UNREACHABLE = 8;
+
+    private static final int OPTIMAL = 0;
+    private static final int MISTAKES = 1;
+    private static final int BLUNDERS = 2;
+    private static final int INVALID = 3;
+    private static final int FIELDS = 4;
+
+    static {
+        for (int position = 0; position < RESULTS.length; position++) {
+            int x = position & MASK;
+            int o = position >>> NUM_CELLS;
+
+            int result = PerfectPlay.evaluate(x, o);
+            if (result == PerfectPlay.UNREACHABLE) {
+                RESULTS[position] = UNREACHABLE;
+            } else {
+                RESULTS[position] = (byte) (result + 1 | (PerfectPlay.isOver(x, o) ? FINISHED : 0));
+            }
+        }
+    }
+
+    private MoveAnalysis() { }
+
+    /**
+     * @return the move of marking cell on the position with the given X and O masks
+     */
+    public static int pack(int x, int o, int cell) {
+        return x | o << NUM_CELLS | cell << 2 * NUM_CELLS;
+    }
+
+    /**
+     * @param board 9 chars of E, X and O as written by {@link BoardState#appendTo(StringBuilder)}
+     * @return the move of marking cell on the board
+     */
+    public static int pack(CharSequence board, int cell) {
+        if (board.length() != NUM_CELLS)
+            throw new IllegalArgumentException("Not a 3x3 board: " + board);
+
+        int x = 0;
+        int o = 0;
+        for (int i = 0; i < NUM_CELLS; i++) {
+            switch (board.charAt(i)) {
+                case 'X' -> x |= 1 << i;
+                case 'O' -> o |= 1 << i;
+                case 'E' -> { }
+                default -> throw new IllegalArgumentException("Not a 3x3 board: " + board);
+            }
+        }
+        return pack(x, o, cell);
+    }
+
+    /**
+     * Packs the moves of a 3 x 3 match into moves from offset on.
+     *
+     * @return number of moves packed, 0 if the match was on another board or its turns got out of step
+     */
+    public static int pack(Replay replay, int[] moves, int offset) {
+        if (replay.getBoardSize() != 3 || replay.getWinLength() != 3)
+            return 0;
+
+        int x = 0;
+        int o = 0;
+        for (int move = 0; move < replay.getNumMoves(); move++) {
+            // X moves first, a match recovered from an old journal may have skipped a turn
+            boolean isX = replay.getSymbol(move) == TileValue.X;
+            if (isX != (move % 2 == 0))
+                return 0;
+
+            int cell = replay.getCell(move);
+            moves[offset + move] = pack(x, o, cell);
+
+            if (isX) {
+                x |= 1 << cell;
+            } else {
+                o |= 1 << cell;
+            }
+        }
+        return replay.getNumMoves();
+    }
+
+    /**
+     * Scores the moves in the common pool.
+     *
+     * @param players who made each move, from 0 to numPlayers - 1
+     */
+    public static Stats analyze(int[] moves, int[] players, int numMoves, int numPlayers) {
+        return analyze(moves, players, numMoves, numPlayers, ForkJoinPool.commonPool());
+    }
+
+    public static Stats analyze(int[] moves, int[] players, int numMoves, int numPlayers, ForkJoinPool pool) {
+        if (numMoves > moves.length || numMoves > players.length)
+            throw new IllegalArgumentException("Fewer than " + numMoves + " moves given");
+
+        return new Stats(pool.invoke(new Task(moves, players, 0, numMoves, numPlayers)));
+    }
+
+    /**
+     * @return the counts of moves from to to, laid out as in {@link Stats}
+     */
+    private static long[] count(int[] moves, int[] players, int from, int to, int numPlayers) {
+        long[] counts = new long[numPlayers * FIELDS];
+
+        for (int i = from; i < to; i++) {
+            int move = moves[i];
+            int position = move & (1 << 2 * NUM_CELLS) - 1;
+            int cell = move >>> 2 * NUM_CELLS;
+            int bit = 1 << cell;
+
+            int before = RESULTS[position];
+            int field;
+            if (before >= FINISHED || cell >= NUM_CELLS || ((position | position >>> NUM_CELLS) & bit) != 0) {
+                field = INVALID;
+            } else {
+                boolean xToMove = Integer.bitCount(position & MASK) == Integer.bitCount(position >>> NUM_CELLS);
+                int after = RESULTS[position | (xToMove ? bit : bit << NUM_CELLS)];
+
+                // the result for the mover is minus the opponent's after the move
+                field = before + (after & 3) - 2;
+            }
+
+            counts[players[i] * FIELDS + field]++;
+        }
+
+        return counts;
+    }
+
+    private static final class Task extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] moves;
+        private final int[] players;
+        private final int from;
+        private final int to;
+        private final int numPlayers;
+
+        Task(int[] moves, int[] players, int from, int to, int numPlayers) {
+            this.moves = moves;
+            this.players = players;
+            this.from = from;
+            this.to = to;
+            this.numPlayers = numPlayers;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= LEAF_MOVES)
+                return count(moves, players, from, to, numPlayers);
+
+            int middle = (from + to) >>> 1;
+            var left = new Task(moves, players, from, middle, numPlayers);
+            left.fork();
+
+            long[] counts = new Task(moves, players, middle, to, numPlayers).compute();
+            long[] other = left.join();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other[i];
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Counts of scored moves per player.
+     */
+    public static final class Stats {
+        private final long[] counts;
+
+        private Stats(long[] counts) {
+            this.counts = counts;
+        }
+
+        public int getNumPlayers() {
+            return counts.length / FIELDS;
+        }
+
+        /**
+         * @return moves scored, i.e. all but the invalid ones
+         */
+        public long getMoves(int player) {
+            return getOptimal(player) + getMistakes(player) + getBlunders(player);
+        }
+
+        public long getOptimal(int player) {
+            return counts[player * FIELDS + OPTIMAL];
+        }
+
+        public long getMistakes(int player) {
+            return counts[player * FIELDS + MISTAKES];
+        }
+
+        public long getBlunders(int player) {
+            return counts[player * FIELDS + BLUNDERS];
+        }
+
+        public long getInvalid(int player) {
+            return counts[player * FIELDS + INVALID];
+        }
+
+        /**
+         * @return share of the scored moves that were optimal, 1 if there were none
+         */
+        public double getAccuracy(int player) {
+            long moves = getMoves(player);
+            return moves == 0 ? 1 : getOptimal(player) / (double) moves;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(counts);
+        }
+    }
+
+    /**
+     * Scores every 3 x 3 match in a replay archive and prints the accuracy of X and O, apart for matches against the bot.
+     * The archive keeps no player ids, so the sides stand in for players.
+     *
+     * Usage: MoveAnalysis archiveDir [threads]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: MoveAnalysis archiveDir [threads]");
+            return;
+        }
+
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        int[][] moves = { new int[1 << 16] };
+        int[][] players = { new int[1 << 16] };
+        int[] numMoves = { 0 };
+        int[] numSkipped = { 0 };
+
+        long start = System.nanoTime();
+
+        try (var archive = ReplayArchive.openReadOnly(Path.of(args[0]))) {
+            archive.forEach(replay -> {
+                int n = numMoves[0];
+                if (moves[0].length - n < replay.getNumMoves()) {
+                    moves[0] = Arrays.copyOf(moves[0], Math.max(moves[0].length * 2, n + replay.getNumMoves()));
+                    players[0] = Arrays.copyOf(players[0], moves[0].length);
+                }
+
+                int packed = pack(replay, moves[0], n);
+                if (packed == 0) {
+                    numSkipped[0]++;
+                    return;
+                }
+
+                // X, O, X against the bot, O against the bot
+                int first = replay.isAgainstBot() ? 2 : 0;
+                for (int i = 0; i < packed; i++) {
+                    players[0][n + i] = first + i % 2;
+                }
+                numMoves[0] += packed;
+            });
+        }
+
+        long read = System.nanoTime();
+
+        var pool = new ForkJoinPool(threads);
+        Stats stats;
+        try {
+            stats = analyze(moves[0], players[0], numMoves[0], 4, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        long end = System.nanoTime();
+
+        System.out.printf("%d moves read in %.1f ms, %d matches skipped, analyzed in %.1f ms on %d threads, %.0f moves/s%n",
+                numMoves[0], (read - start) / 1e6, numSkipped[0], (end - read) / 1e6, threads,
+                numMoves[0] / ((end - read) / 1e9));
+
+        String[] names = { "X", "O", "X vs bot", "O vs bot" };
+        for (int player = 0; player < names.length; player++) {
+            System.out.printf("%-9s %9d moves, %6.2f%% optimal, %d mistakes, %d blunders, %d invalid%n", names[player],
+                    stats.getMoves(player), stats.getAccuracy(player) * 100, stats.getMistakes(player),
+                    stats.getBlunders(player), stats.getInvalid(player));
+        }
+    }
+}
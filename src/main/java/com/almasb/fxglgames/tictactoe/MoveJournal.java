@@ -0,0 +1,551 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of what happens in the rooms, enough to replay every match.
+ *
+ * Records are {@link #RECORD_SIZE} bytes, little endian:
+ * int room id, byte type, byte a, short b, int milliseconds since the segment started, int checksum of the rest.
+ * A record that fails its checksum, such as the zeroes past the end or one torn by a crash, ends the segment.
+ *
+ * Records go to pre-sized segment files mapped into memory, so an append is a few stores with no system call,
+ * and they survive the process dying as soon as they are written. Only the loop thread appends.
+ * At the end of each tick it publishes what it wrote with {@link #commit()}, and a sync thread
+ * forces the new records to disk every {@link #SYNC_MILLIS_PROPERTY} milliseconds,
+ * so a machine crash loses at most that much.
+ *
+ * Each run starts a new segment rather than appending after a possibly torn record,
+ * and a segment rolls over when it is full. A segment rolled over is forced and closed by the sync thread.
+ *
+ * The journal is kept short with checkpoints. Once half a segment has been written since the last one,
+ * {@link #isCheckpointDue()} asks the owner to start a fresh segment with {@link #startCheckpoint()},
+ * record every match still open from its opening on, and call {@link #finishCheckpoint()}.
+ * When the checkpoint is on disk the sync thread deletes the segments before it, so a restart
+ * never reads more than about a segment and a half.
+ */
+public final class MoveJournal implements AutoCloseable {
+
+    /**
+     * System property with the journal directory, no journal if unset.
+     */
+    public static final String DIR_PROPERTY = "tictactoe.journal";
+
+    /**
+     * System property with the milliseconds between syncs to disk.
+     */
+    public static final String SYNC_MILLIS_PROPERTY = "tictactoe.journal.syncMillis";
+
+    public static final int DEFAULT_SYNC_MILLIS = 100;
+
+    /**
+     * System property with the records per segment file.
+     */
+    public static final String SEGMENT_RECORDS_PROPERTY = "tictactoe.journal.segmentRecords";
+
+    public static final int RECORD_SIZE = 16;
+
+    /**
+     * 16 MB segments.
+     */
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+    /**
+     * First record of a segment, room id and time hold the high and low half of the start time, a the version.
+     */
+    public static final int HEADER = 1;
+
+    /**
+     * a is the board size, b the win length.
+     */
+    public static final int ROOM_OPENED = 2;
+
+    public static final int BOT_SEATED = 3;
+
+    /**
+     * a is 'X' or 'O'.
+     */
+    public static final int SYMBOL_CHOSEN = 4;
+
+    /**
+     * a is 1 for X or 2 for O and b the cell.
+     */
+    public static final int MOVE = 5;
+
+    /**
+     * a is the winner, 1 for X, 2 for O or 0 for a draw.
+     */
+    public static final int GAME_FINISHED = 6;
+
+    public static final int ROOM_CLOSED = 7;
+
+    /**
+     * One of 4 records with the session token holding a seat: a is the seat + 2 * part,
+     * b bits 16 * part to 16 * part + 15 of the token.
+     */
+    public static final int SEAT_TOKEN = 8;
+
+    private static final int VERSION = 1;
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Mixed into every checksum, so a record of zeroes is never valid.
+     */
+    private static final int SALT = 0x5EED_7AC5;
+
+    /**
+     * Called for every record, in the order written.
+     */
+    public interface Visitor {
+
+        /**
+         * @param a unsigned
+         * @param b signed
+         */
+        void onRecord(long timeMillis, int type, int roomId, int a, int b);
+    }
+
+    private static final class Segment {
+        final long sequence;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final long startMillis;
+
+        /**
+         * End of the records the sync thread may force.
+         */
+        volatile int committed = 0;
+
+        /**
+         * Only used by the thread that forces.
+         */
+        int synced = 0;
+
+        Segment(long sequence, FileChannel channel, MappedByteBuffer buffer, long startMillis) {
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.startMillis = startMillis;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long syncNanos;
+
+    private long nextSequence;
+
+    private volatile Segment current;
+    private int position = 0;
+
+    /**
+     * Segments rolled over, for the sync thread to force and close.
+     */
+    private final ConcurrentLinkedQueue<Segment> retired = new ConcurrentLinkedQueue<>();
+
+    private final Thread syncThread;
+    private volatile boolean running = true;
+
+    private long records = 0;
+
+    /**
+     * Records appended since the last checkpoint finished.
+     */
+    private long sinceCheckpoint = 0;
+
+    /**
+     * Segment the checkpoint being written started in.
+     */
+    private long checkpointSequence = 0;
+
+    /**
+     * Segments before this one are no longer needed once everything committed is on disk.
+     */
+    private volatile long trimBefore = 0;
+
+    /**
+     * Only used by the sync thread.
+     */
+    private long trimmed = 0;
+
+    private MoveJournal(Path dir, int segmentRecords, long syncMillis) throws IOException {
+        if (segmentRecords < 2)
+            throw new IllegalArgumentException("A segment needs room for its header and a record: " + segmentRecords);
+
+        this.dir = dir;
+        segmentSize = segmentRecords * RECORD_SIZE;
+        syncNanos = syncMillis * 1_000_000;
+
+        Files.createDirectories(dir);
+
+        List<Path> segments = listSegments(dir);
+        nextSequence = segments.isEmpty() ? 1 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+
+        current = newSegment();
+
+        syncThread = new Thread(this::syncLoop, "journal-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Starts a new segment after any already in dir.
+     */
+    public static MoveJournal open(Path dir, int segmentRecords, long syncMillis) throws IOException {
+        return new MoveJournal(dir, segmentRecords, syncMillis);
+    }
+
+    /**
+     * @return journal in the directory from {@link #DIR_PROPERTY}, or null if it is not set
+     */
+    public static Path configuredDir() {
+        String dir = System.getProperty(DIR_PROPERTY);
+        return dir == null || dir.isBlank() ? null : Path.of(dir);
+    }
+
+    public static long configuredSyncMillis() {
+        return Long.getLong(SYNC_MILLIS_PROPERTY, DEFAULT_SYNC_MILLIS);
+    }
+
+    public static int configuredSegmentRecords() {
+        return Integer.getInteger(SEGMENT_RECORDS_PROPERTY, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @return records appended since the journal was opened, headers included
+     */
+    public long getNumRecords() {
+        return records;
+    }
+
+    public void roomOpened(int roomId, int boardSize, int winLength) {
+        append(ROOM_OPENED, roomId, boardSize, winLength);
+    }
+
+    public void botSeated(int roomId) {
+        append(BOT_SEATED, roomId, 0, 0);
+    }
+
+    public void symbolChosen(int roomId, boolean isX) {
+        append(SYMBOL_CHOSEN, roomId, isX ? 'X' : 'O', 0);
+    }
+
+    /**
+     * @param code 1 for X or 2 for O
+     */
+    public void move(int roomId, int cell, int code) {
+        append(MOVE, roomId, code, cell);
+    }
+
+    /**
+     * @param winner 1 for X, 2 for O, 0 for a draw
+     */
+    public void gameFinished(int roomId, int winner) {
+        append(GAME_FINISHED, roomId, winner, 0);
+    }
+
+    public void roomClosed(int roomId) {
+        append(ROOM_CLOSED, roomId, 0, 0);
+    }
+
+    public void seatToken(int roomId, int seat, long token) {
+        for (int part = 0; part < 4; part++) {
+            append(SEAT_TOKEN, roomId, seat + 2 * part, (short) (token >>> (16 * part)));
+        }
+    }
+
+    /**
+     * Puts the part of a token from a {@link #SEAT_TOKEN} record into its seat's slot of tokens.
+     */
+    public static void mergeTokenPart(long[] tokens, int a, int b) {
+        int seat = a & 1;
+        int shift = 16 * (a >>> 1);
+        tokens[seat] = tokens[seat] & ~(0xFFFFL << shift) | (b & 0xFFFFL) << shift;
+    }
+
+    /**
+     * Hands the records appended so far to the sync thread.
+     */
+    public void commit() {
+        current.committed = position;
+    }
+
+    /**
+     * @return true if half a segment has been written since the last checkpoint
+     */
+    public boolean isCheckpointDue() {
+        return sinceCheckpoint >= segmentSize / RECORD_SIZE / 2;
+    }
+
+    /**
+     * Starts a new segment, unless the current one is still empty, for the owner to record
+     * every match still open into. Nothing before it is read on recovery once the checkpoint is finished.
+     */
+    public void startCheckpoint() {
+        if (position > RECORD_SIZE) {
+            rollOver();
+        }
+        checkpointSequence = current.sequence;
+    }
+
+    /**
+     * Commits the checkpoint, the sync thread deletes the segments before it once it is on disk.
+     */
+    public void finishCheckpoint() {
+        commit();
+        sinceCheckpoint = 0;
+        trimBefore = checkpointSequence;
+        LockSupport.unpark(syncThread);
+    }
+
+    /**
+     * Forces everything appended so far to disk and stops the sync thread.
+     */
+    @Override
+    public void close() {
+        commit();
+        running = false;
+        LockSupport.unpark(syncThread);
+
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeRetired();
+
+        Segment segment = current;
+        segment.buffer.force();
+        closeQuietly(segment.channel);
+    }
+
+    private void append(int type, int roomId, int a, int b) {
+        long now = System.currentTimeMillis();
+
+        Segment segment = current;
+        long elapsed = now - segment.startMillis;
+
+        if (position == segmentSize || elapsed > Integer.MAX_VALUE || elapsed < 0) {
+            segment = rollOver();
+            elapsed = now - segment.startMillis;
+        }
+
+        put(segment.buffer, position, roomId, type, a, b, (int) elapsed);
+        position += RECORD_SIZE;
+        records++;
+        sinceCheckpoint++;
+    }
+
+    private Segment rollOver() {
+        Segment old = current;
+        old.committed = position;
+
+        // forced and closed by the sync thread, off the tick
+        retired.add(old);
+        LockSupport.unpark(syncThread);
+
+        current = newSegment();
+        return current;
+    }
+
+    private Segment newSegment() {
+        long sequence = nextSequence++;
+        Path path = segmentPath(sequence);
+
+        try {
+            var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            long start = System.currentTimeMillis();
+            put(buffer, 0, (int) (start >>> 32), HEADER, VERSION, 0, (int) start);
+            position = RECORD_SIZE;
+            records++;
+
+            Log.info("Journal segment {0} started", path);
+            return new Segment(sequence, channel, buffer, start);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal segment " + path, e);
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return dir.resolve(String.format("%s%08d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    private void syncLoop() {
+        while (running) {
+            LockSupport.parkNanos(syncNanos);
+
+            // read before forcing, so that every record of the checkpoint is forced below
+            long trim = trimBefore;
+            Segment segment = current;
+
+            closeRetired();
+            sync(segment);
+
+            if (trim > trimmed) {
+                trim(trim);
+            }
+        }
+    }
+
+    /**
+     * Forces and closes the segments rolled over.
+     */
+    private void closeRetired() {
+        Segment segment;
+        while ((segment = retired.poll()) != null) {
+            segment.buffer.force();
+            closeQuietly(segment.channel);
+        }
+    }
+
+    /**
+     * Deletes the segments before sequence, all of them closed by now.
+     */
+    private void trim(long sequence) {
+        try {
+            for (Path path : listSegments(dir)) {
+                if (sequenceOf(path) >= sequence)
+                    break;
+
+                Files.delete(path);
+                Log.debug("Journal segment {0} deleted", path);
+            }
+            trimmed = sequence;
+        } catch (IOException e) {
+            // tried again after the next checkpoint
+            Log.warn(e, "Cannot delete journal segments before {0}", segmentPath(sequence));
+        }
+    }
+
+    private static void sync(Segment segment) {
+        int end = segment.committed;
+        if (end > segment.synced) {
+            segment.buffer.force(segment.synced, end - segment.synced);
+            segment.synced = end;
+        }
+    }
+
+    private static void put(MappedByteBuffer buffer, int offset, int roomId, int type, int a, int b, int time) {
+        int word = (type & 0xFF) | (a & 0xFF) << 8 | b << 16;
+
+        buffer.putInt(offset, roomId);
+        buffer.putInt(offset + 4, word);
+        buffer.putInt(offset + 8, time);
+        buffer.putInt(offset + 12, checksum(roomId, word, time));
+    }
+
+    private static int checksum(int w0, int w1, int w2) {
+        int h = ((w0 * 0x9E3779B1 + w1) * 0x85EBCA6B + w2) ^ SALT;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * Reads every segment in dir, oldest first, each up to its first invalid record.
+     * Segments are mapped rather than read into the heap and nothing is allocated per record.
+     *
+     * @return number of records visited, headers excluded
+     */
+    public static long read(Path dir, Visitor visitor) throws IOException {
+        long count = 0;
+
+        for (Path path : listSegments(dir)) {
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = Math.min(channel.size(), Integer.MAX_VALUE);
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                count += readSegment(buffer, (int) size, visitor);
+            }
+        }
+
+        return count;
+    }
+
+    private static long readSegment(MappedByteBuffer buffer, int size, Visitor visitor) {
+        long startMillis = 0;
+        long count = 0;
+
+        for (int offset = 0; offset + RECORD_SIZE <= size; offset += RECORD_SIZE) {
+            int roomId = buffer.getInt(offset);
+            int word = buffer.getInt(offset + 4);
+            int time = buffer.getInt(offset + 8);
+
+            if (buffer.getInt(offset + 12) != checksum(roomId, word, time))
+                break;
+
+            int type = word & 0xFF;
+
+            if (offset == 0) {
+                if (type != HEADER)
+                    break;
+
+                startMillis = (long) roomId << 32 | (time & 0xFFFF_FFFFL);
+                continue;
+            }
+
+            visitor.onRecord(startMillis + time, type, roomId, word >>> 8 & 0xFF, word >> 16);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return segment files in the order written
+     */
+    static List<Path> listSegments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return List.of();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = new ArrayList<>();
+            files.filter(MoveJournal::isSegment).sorted().forEach(segments::add);
+            return segments;
+        }
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX) && sequenceOf(path) > 0;
+    }
+
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn(e, "Cannot close journal segment");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client accepted by {@link NioTransport}.
+ * A flush only wakes the selector thread, which writes when the socket is ready.
+ * While a write is still in progress newer states replace older ones in the buffer.
+ */
+public class NioClientConnection extends BufferedClientConnection {
+
+    private final NioTransport transport;
+    private final SocketChannel channel;
+
+    final MessageFramer framer = new MessageFramer();
+    final FrameDispatcher dispatcher;
+
+    SelectionKey key;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * Bytes handed to the socket but not yet accepted by it, only touched on the selector thread.
+     */
+    private ByteBuffer writing = ByteBuffer.allocate(512).flip();
+
+    NioClientConnection(NioTransport transport, SocketChannel channel, int connectionNum, Transport.Listener listener) {
+        super(connectionNum);
+
+        this.transport = transport;
+        this.channel = channel;
+
+        dispatcher = new FrameDispatcher(framer, this, listener);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void flush() {
+        if (connected && !outbound.isEmpty()) {
+            transport.requestWrite(this);
+        }
+    }
+
+    /**
+     * Called on the selector thread.
+     *
+     * @return true if everything buffered has been written
+     */
+    boolean write() throws IOException {
+        if (!writing.hasRemaining()) {
+            if (outbound.isEmpty())
+                return true;
+
+            writing = drain(writing);
+        }
+
+        channel.write(writing);
+
+        return !writing.hasRemaining() && outbound.isEmpty();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        connected = false;
+        outbound.clear();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+
+        // a closed channel is never selected again, so report it here
+        transport.onClosed(this);
+    }
+}
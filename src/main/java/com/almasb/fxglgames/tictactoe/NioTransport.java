@@ -0,0 +1,162 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * All connections are served by a single selector thread, so a connection costs
+ * a socket and a small buffer rather than a thread.
+ */
+public class NioTransport implements Transport {
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    private Listener listener;
+
+    private int nextConnectionNum = 1;
+
+    /**
+     * Connections with newly queued output, the selector thread picks them up after a wakeup.
+     */
+    private final ConcurrentLinkedQueue<NioClientConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = false;
+
+    @Override
+    public void start(int port, Listener listener) throws IOException {
+        this.listener = listener;
+
+        selector = Selector.open();
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+
+        var t = new Thread(this::loop, "nio-selector");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    void requestWrite(NioClientConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+
+                NioClientConnection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    write(pending);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            var connection = (NioClientConnection) key.attachment();
+
+                            if (key.isReadable())
+                                read(connection);
+
+                            if (key.isValid() && key.isWritable())
+                                write(connection);
+                        }
+                    } catch (CancelledKeyException e) {
+                        // closed while processing
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // stopped
+        } catch (IOException e) {
+            Log.warn(e, "Selector loop stopped");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            var connection = new NioClientConnection(this, channel, nextConnectionNum++, listener);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+
+            listener.onConnected(connection);
+        }
+    }
+
+    private void read(NioClientConnection connection) {
+        try {
+            int n;
+            while ((n = connection.framer.readFrom(connection.getChannel())) > 0) {
+                connection.getStats().onBytesIn(n);
+                connection.framer.dispatch(connection.dispatcher);
+            }
+
+            if (n < 0) {
+                disconnect(connection);
+            }
+        } catch (Exception e) {
+            Log.debug("Connection {0} dropped: {1}", connection.getConnectionNum(), e);
+            disconnect(connection);
+        }
+    }
+
+    private void write(NioClientConnection connection) {
+        if (!connection.key.isValid())
+            return;
+
+        try {
+            if (connection.write()) {
+                connection.key.interestOps(SelectionKey.OP_READ);
+            } else {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    private void disconnect(NioClientConnection connection) {
+        connection.key.cancel();
+        connection.close();
+    }
+
+    void onClosed(NioClientConnection connection) {
+        listener.onDisconnected(connection);
+    }
+}
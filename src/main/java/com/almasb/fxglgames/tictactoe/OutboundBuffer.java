@@ -0,0 +1,133 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collects everything sent to one connection until the next flush, so that a whole tick goes out in one write.
+ *
+ * Reliable messages are kept in order. State updates are latest-wins: a state that has not been
+ * written yet is replaced by a newer one, so a slow client skips intermediate states instead of
+ * building up a backlog. If reliable messages pile up beyond {@link #MAX_PENDING} bytes the
+ * client cannot keep up at all and {@link #append(String)} reports it.
+ */
+final class OutboundBuffer {
+
+    static final int MAX_PENDING = 64 * 1024;
+
+    private byte[] pending = new byte[256];
+    private int pendingLength = 0;
+
+    private byte[] state = new byte[64];
+    private int stateLength = 0;
+
+    /**
+     * @return false if the client is too far behind and should be dropped
+     */
+    synchronized boolean append(String message) {
+        int length = message.length();
+        if (!ensurePending(length))
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (c >= 0x80) {
+                // rare, only the ASCII path avoids allocating
+                byte[] bytes = message.substring(i).getBytes(StandardCharsets.UTF_8);
+                pendingLength += i;
+                return appendBytes(bytes, bytes.length);
+            }
+
+            pending[pendingLength + i] = (byte) c;
+        }
+
+        pendingLength += length;
+        return true;
+    }
+
+    /**
+     * @return false if the client is too far behind and should be dropped
+     */
+    synchronized boolean append(byte[] bytes, int length) {
+        return appendBytes(bytes, length);
+    }
+
+    private boolean appendBytes(byte[] bytes, int length) {
+        if (!ensurePending(length))
+            return false;
+
+        System.arraycopy(bytes, 0, pending, pendingLength, length);
+        pendingLength += length;
+        return true;
+    }
+
+    /**
+     * Replaces any state that has not been drained yet with shared followed by own.
+     */
+    synchronized void setState(byte[] shared, int sharedLength, byte[] own, int ownLength) {
+        int length = sharedLength + ownLength;
+        if (state.length < length)
+            state = new byte[length];
+
+        System.arraycopy(shared, 0, state, 0, sharedLength);
+        System.arraycopy(own, 0, state, sharedLength, ownLength);
+        stateLength = length;
+    }
+
+    /**
+     * Drops a state that has not been drained yet.
+     */
+    synchronized void clearState() {
+        stateLength = 0;
+    }
+
+    synchronized int getLength() {
+        return pendingLength + stateLength;
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingLength == 0 && stateLength == 0;
+    }
+
+    /**
+     * Moves everything buffered into target, reliable messages first.
+     *
+     * @return target, or a larger buffer if target was too small, ready to be read
+     */
+    synchronized ByteBuffer drain(ByteBuffer target) {
+        int length = pendingLength + stateLength;
+
+        if (target.capacity() < length) {
+            target = ByteBuffer.allocate(Math.max(length, target.capacity() * 2));
+        }
+
+        target.clear();
+        target.put(pending, 0, pendingLength);
+        target.put(state, 0, stateLength);
+        target.flip();
+
+        pendingLength = 0;
+        stateLength = 0;
+
+        return target;
+    }
+
+    synchronized void clear() {
+        pendingLength = 0;
+        stateLength = 0;
+    }
+
+    private boolean ensurePending(int extra) {
+        int required = pendingLength + extra;
+        if (required > MAX_PENDING)
+            return false;
+
+        if (pending.length < required) {
+            byte[] bigger = new byte[Math.min(MAX_PENDING, Math.max(required, pending.length * 2))];
+            System.arraycopy(pending, 0, bigger, 0, pendingLength);
+            pending = bigger;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,356 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.Random;
+
+/**
+ * Perfect play for a server side opponent, solved once when the class loads.
+ *
+ * Every position reachable from the empty board with X moving first is solved with negamax
+ * and stored under its canonical form, the smallest key among its 8 rotations and reflections.
+ * Of the 765 positions that leaves, the 627 with a move to make are kept, each with the set
+ * of optimal moves and the result with best play, in a table of a few kilobytes. A move is then a table lookup: canonicalize, look up,
+ * and map the moves back to the board's orientation.
+ *
+ * Only the default 3 x 3 board is solved. On other boards, such as gomoku, the bot completes
+ * or blocks a line when it can and otherwise plays next to the marks already on the board.
+ */
+public final class PerfectPlay {
+
+    public static final int WIN = 1;
+    public static final int DRAW = 0;
+    public static final int LOSS = -1;
+
+    /**
+     * Not a result: the position cannot come up in a game, e.g. both players have a line.
+     */
+    static final int UNREACHABLE = -2;
+
+    private static final int SIZE = BoardState.DEFAULT_SIZE;
+    private static final int NUM_CELLS = SIZE * SIZE;
+    private static final int FULL_MASK = (1 << NUM_CELLS) - 1;
+
+    /**
+     * Rows, columns and both diagonals.
+     */
+    private static final int[] LINE_MASKS = {
+            0b000_000_111, 0b000_111_000, 0b111_000_000,
+            0b001_001_001, 0b010_010_010, 0b100_100_100,
+            0b100_010_001, 0b001_010_100
+    };
+
+    /**
+     * Cell permutations of the 8 symmetries of the board, the identity first.
+     */
+    private static final int[][] SYMMETRIES = {
+            {0, 1, 2, 3, 4, 5, 6, 7, 8},
+            {6, 3, 0, 7, 4, 1, 8, 5, 2},
+            {8, 7, 6, 5, 4, 3, 2, 1, 0},
+            {2, 5, 8, 1, 4, 7, 0, 3, 6},
+            {2, 1, 0, 5, 4, 3, 8, 7, 6},
+            {6, 7, 8, 3, 4, 5, 0, 1, 2},
+            {0, 3, 6, 1, 4, 7, 2, 5, 8},
+            {8, 5, 2, 7, 4, 1, 6, 3, 0}
+    };
+
+    /**
+     * PERMUTED[s][mask] is the 9 bit mask with symmetry s applied, INVERSE[s] undoes s.
+     */
+    private static final short[][] PERMUTED = new short[SYMMETRIES.length][1 << NUM_CELLS];
+    private static final int[] INVERSE = new int[SYMMETRIES.length];
+
+    /**
+     * Open addressing: canonical key + 1 (0 marks an empty slot), and the entry for it.
+     */
+    private static final int TABLE_CAPACITY = 2048;
+    private static final int[] keys = new int[TABLE_CAPACITY];
+    private static final short[] entries = new short[TABLE_CAPACITY];
+
+    private static int size = 0;
+
+    static {
+        for (int s = 0; s < SYMMETRIES.length; s++) {
+            for (int mask = 0; mask < 1 << NUM_CELLS; mask++) {
+                int permuted = 0;
+                for (int cell = 0; cell < NUM_CELLS; cell++) {
+                    if ((mask & (1 << cell)) != 0) {
+                        permuted |= 1 << SYMMETRIES[s][cell];
+                    }
+                }
+                PERMUTED[s][mask] = (short) permuted;
+            }
+        }
+
+        for (int s = 0; s < SYMMETRIES.length; s++) {
+            for (int t = 0; t < SYMMETRIES.length; t++) {
+                if (PERMUTED[t][PERMUTED[s][1]] == 1 && PERMUTED[t][PERMUTED[s][2]] == 2
+                        && PERMUTED[t][PERMUTED[s][8]] == 8) {
+                    INVERSE[s] = t;
+                }
+            }
+        }
+
+        solve(0, 0);
+    }
+
+    private PerfectPlay() { }
+
+    /**
+     * @return number of canonical positions in the table
+     */
+    public static int getNumPositions() {
+        return size;
+    }
+
+    /**
+     * @param xToMove whose turn it is
+     * @return a random optimal cell for the player to move, or -1 if the game is over
+     */
+    public static int bestMove(BoardState state, boolean xToMove, Random random) {
+        if (state.isFinished())
+            return -1;
+
+        if (isSolved(state)) {
+            int x = state.getMask(TileValue.X);
+            int o = state.getMask(TileValue.O);
+
+            // otherwise turns got out of step, so the position is not in the table
+            int moves = xToMove == (Integer.bitCount(x) == Integer.bitCount(o)) ? optimalMoves(x, o) : 0;
+            if (moves != 0) {
+                int pick = random.nextInt(Integer.bitCount(moves));
+                for (int cell = 0; cell < NUM_CELLS; cell++) {
+                    if ((moves & (1 << cell)) != 0 && pick-- == 0)
+                        return cell;
+                }
+            }
+        }
+
+        return heuristicMove(state, xToMove, random);
+    }
+
+    /**
+     * @return true if the table covers the board's size and win length
+     */
+    public static boolean isSolved(BoardState state) {
+        return state.getSize() == SIZE && state.getWinLength() == SIZE;
+    }
+
+    /**
+     * @return result with best play for the player to move: {@link #WIN}, {@link #DRAW} or {@link #LOSS}
+     */
+    public static int evaluate(BoardState state) {
+        if (!isSolved(state))
+            throw new IllegalArgumentException("Only the " + SIZE + "x" + SIZE + " board is solved");
+
+        if (state.hasWinner())
+            return LOSS;
+
+        if (state.isFull())
+            return DRAW;
+
+        int entry = lookup(state.getMask(TileValue.X), state.getMask(TileValue.O));
+        return entry < 0 ? DRAW : scoreOf(entry);
+    }
+
+    /**
+     * Same as {@link #evaluate(BoardState)} for a 3 x 3 position given as the masks of its X and O cells.
+     *
+     * @return result with best play for the player to move, or {@link #UNREACHABLE} if no game gets there
+     */
+    static int evaluate(int x, int o) {
+        int numX = Integer.bitCount(x);
+        int numO = Integer.bitCount(o);
+        if ((x & o) != 0 || ((x | o) & ~FULL_MASK) != 0 || numX - numO < 0 || numX - numO > 1)
+            return UNREACHABLE;
+
+        boolean xToMove = numX == numO;
+        if (hasLine(xToMove ? x : o))
+            return UNREACHABLE;
+
+        if (hasLine(xToMove ? o : x))
+            return LOSS;
+
+        if ((x | o) == FULL_MASK)
+            return DRAW;
+
+        int entry = lookup(x, o);
+        return entry < 0 ? UNREACHABLE : scoreOf(entry);
+    }
+
+    /**
+     * @return true if a player has a line or the board is full, for masks as in {@link #evaluate(int, int)}
+     */
+    static boolean isOver(int x, int o) {
+        return hasLine(x) || hasLine(o) || (x | o) == FULL_MASK;
+    }
+
+    private static boolean hasLine(int marks) {
+        for (int line : LINE_MASKS) {
+            if ((marks & line) == line)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return mask of the optimal cells in the board's orientation, 0 if the position is not in the table
+     */
+    private static int optimalMoves(int x, int o) {
+        int symmetry = canonicalSymmetry(x, o);
+        int entry = find(keyOf(symmetry, x, o));
+        if (entry < 0)
+            return 0;
+
+        return PERMUTED[INVERSE[symmetry]][entry & 0x1FF];
+    }
+
+    private static int lookup(int x, int o) {
+        return find(keyOf(canonicalSymmetry(x, o), x, o));
+    }
+
+    /**
+     * Negamax over canonical positions, filling the table.
+     *
+     * @return result with best play for the player to move
+     */
+    private static int solve(int x, int o) {
+        boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+        int last = xToMove ? o : x;
+
+        for (int line : LINE_MASKS) {
+            if ((last & line) == line)
+                return LOSS;
+        }
+
+        int empty = ~(x | o) & FULL_MASK;
+        if (empty == 0)
+            return DRAW;
+
+        int symmetry = canonicalSymmetry(x, o);
+        int key = keyOf(symmetry, x, o);
+
+        int entry = find(key);
+        if (entry >= 0)
+            return scoreOf(entry);
+
+        int best = LOSS - 1;
+        int bestMoves = 0;
+
+        for (int cell = 0; cell < NUM_CELLS; cell++) {
+            int bit = 1 << cell;
+            if ((empty & bit) == 0)
+                continue;
+
+            int score = xToMove ? -solve(x | bit, o) : -solve(x, o | bit);
+            if (score > best) {
+                best = score;
+                bestMoves = bit;
+            } else if (score == best) {
+                bestMoves |= bit;
+            }
+        }
+
+        // stored in the canonical orientation
+        insert(key, PERMUTED[symmetry][bestMoves] | (best + 1) << NUM_CELLS);
+        return best;
+    }
+
+    /**
+     * Win if possible, else block, else a random empty cell next to a mark, or the centre on an empty board.
+     */
+    private static int heuristicMove(BoardState state, boolean xToMove, Random random) {
+        TileValue own = xToMove ? TileValue.X : TileValue.O;
+        TileValue other = xToMove ? TileValue.O : TileValue.X;
+
+        for (TileValue value : new TileValue[] { own, other }) {
+            for (int cell = 0; cell < state.getNumCells(); cell++) {
+                if (state.isEmpty(cell) && state.wouldWin(cell, value))
+                    return cell;
+            }
+        }
+
+        int size = state.getSize();
+        int choice = -1;
+        int numChoices = 0;
+
+        for (int cell = 0; cell < state.getNumCells(); cell++) {
+            if (state.isEmpty(cell) && hasMarkedNeighbour(state, cell % size, cell / size)
+                    && random.nextInt(++numChoices) == 0) {
+                choice = cell;
+            }
+        }
+
+        if (choice != -1)
+            return choice;
+
+        int centre = state.cellOf(size / 2, size / 2);
+        if (state.isEmpty(centre))
+            return centre;
+
+        for (int cell = 0; cell < state.getNumCells(); cell++) {
+            if (state.isEmpty(cell))
+                return cell;
+        }
+
+        return -1;
+    }
+
+    private static boolean hasMarkedNeighbour(BoardState state, int x, int y) {
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (state.isValidCell(x + dx, y + dy) && !state.isEmpty(state.cellOf(x + dx, y + dy)))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int canonicalSymmetry(int x, int o) {
+        int best = 0;
+        int bestKey = keyOf(0, x, o);
+
+        for (int s = 1; s < SYMMETRIES.length; s++) {
+            int key = keyOf(s, x, o);
+            if (key < bestKey) {
+                bestKey = key;
+                best = s;
+            }
+        }
+
+        return best;
+    }
+
+    private static int keyOf(int symmetry, int x, int o) {
+        return PERMUTED[symmetry][x] | PERMUTED[symmetry][o] << NUM_CELLS;
+    }
+
+    private static int scoreOf(int entry) {
+        return (entry >> NUM_CELLS) - 1;
+    }
+
+    private static int find(int key) {
+        int i = slotOf(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key + 1)
+                return entries[i];
+
+            i = (i + 1) & (TABLE_CAPACITY - 1);
+        }
+        return -1;
+    }
+
+    private static void insert(int key, int entry) {
+        int i = slotOf(key);
+        while (keys[i] != 0) {
+            i = (i + 1) & (TABLE_CAPACITY - 1);
+        }
+
+        keys[i] = key + 1;
+        entries[i] = (short) entry;
+        size++;
+    }
+
+    private static int slotOf(int key) {
+        return (key * 0x9E3779B1 >>> 21) & (TABLE_CAPACITY - 1);
+    }
+}
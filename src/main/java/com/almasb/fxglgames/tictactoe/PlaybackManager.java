@@ -0,0 +1,104 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Plays archived matches back to the connections of a {@link RoomManager}, only used from its tick thread.
+ *
+ * A connection that sends "REPLAY" (text, optionally followed by a match id and the number of moves to skip)
+ * or the match id in {@link BinaryProtocol#REPLAY} frames leaves whatever it was doing and is sent the match
+ * as a spectator would see it, see {@link ReplayPlayback}, 0 meaning its last match or else the latest.
+ * Matches are loaded on the {@link ReplayArchive}'s thread and handed back to be started on the next tick.
+ */
+final class PlaybackManager {
+
+    private final RoomManager manager;
+
+    private final Map<ClientConnection, ReplayPlayback> playbacks = new HashMap<>();
+
+    /**
+     * Playbacks whose match the archive thread has loaded, or found missing.
+     */
+    private final ConcurrentLinkedQueue<ReplayPlayback> loadedPlaybacks = new ConcurrentLinkedQueue<>();
+
+    PlaybackManager(RoomManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Plays an archived match back to the connection, which leaves whatever it was doing.
+     *
+     * @param matchId match to play, 0 for the connection's last match or else the latest
+     * @param fromMove number of moves already made in the first state sent
+     */
+    void replay(ClientConnection connection, long matchId, int fromMove) {
+        var archive = manager.getReplayArchive();
+        if (archive == null)
+            return;
+
+        manager.processJoins();
+
+        if (matchId == 0) {
+            GameRoom room = manager.getRoom(connection);
+            matchId = room != null && room.getMatchId() != 0 ? room.getMatchId() : archive.getLastMatchId();
+        }
+
+        manager.leaveRoom(connection);
+        manager.stopSpectating(connection);
+
+        var playback = new ReplayPlayback(connection, fromMove);
+        playbacks.put(connection, playback);
+
+        archive.load(matchId, replay -> {
+            playback.replay = replay;
+            loadedPlaybacks.add(playback);
+        });
+    }
+
+    /**
+     * Stops the playback to the connection, if there is one.
+     */
+    void remove(ClientConnection connection) {
+        playbacks.remove(connection);
+    }
+
+    /**
+     * Starts the playbacks loaded since the last tick and steps those that are due.
+     */
+    void tick(double now) {
+        if (playbacks.isEmpty() && loadedPlaybacks.isEmpty())
+            return;
+
+        ReplayPlayback playback;
+        while ((playback = loadedPlaybacks.poll()) != null) {
+            // superseded by another request, or there is no such match
+            if (playbacks.get(playback.connection) != playback)
+                continue;
+
+            if (playback.replay == null) {
+                playbacks.remove(playback.connection);
+                continue;
+            }
+
+            playback.start(now);
+            manager.queueFlush(playback.connection);
+        }
+
+        var it = playbacks.values().iterator();
+        while (it.hasNext()) {
+            playback = it.next();
+            if (playback.replay == null)
+                continue;
+
+            if (playback.step(now)) {
+                manager.queueFlush(playback.connection);
+            }
+
+            if (playback.isDone()) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Elo ratings of players who identified themselves, owned by {@link RoomManager} and only used from its tick thread.
+ * Ratings live as long as the server, a player that has not played yet is rated {@link #INITIAL_RATING}.
+ */
+final class RatingTable {
+
+    static final int INITIAL_RATING = 1500;
+
+    /**
+     * Most a rating moves after one game.
+     */
+    static final double K_FACTOR = 32;
+
+    private static final class Rating {
+        double value = INITIAL_RATING;
+        int games = 0;
+    }
+
+    private final Map<Long, Rating> ratings = new HashMap<>();
+
+    int size() {
+        return ratings.size();
+    }
+
+    private Rating get(long playerId) {
+        return ratings.computeIfAbsent(playerId, id -> new Rating());
+    }
+
+    /**
+     * @return rounded rating of the player, {@link #INITIAL_RATING} for 0, i.e. an anonymous player
+     */
+    int ratingOf(long playerId) {
+        if (playerId == 0)
+            return INITIAL_RATING;
+
+        var rating = ratings.get(playerId);
+        return rating == null ? INITIAL_RATING : (int) Math.round(rating.value);
+    }
+
+    int gamesOf(long playerId) {
+        var rating = ratings.get(playerId);
+        return rating == null ? 0 : rating.games;
+    }
+
+    /**
+     * Moves both ratings by the difference between the result and the expected result.
+     *
+     * @param score result of the first player: 1 won, 0.5 draw, 0 lost
+     */
+    void record(long first, long second, double score) {
+        var a = get(first);
+        var b = get(second);
+
+        double expected = expectedScore(a.value, b.value);
+        double change = K_FACTOR * (score - expected);
+
+        a.value += change;
+        b.value -= change;
+        a.games++;
+        b.games++;
+    }
+
+    /**
+     * @return chance of a player rated a scoring against one rated b, counting a draw as half
+     */
+    static double expectedScore(double a, double b) {
+        return 1 / (1 + Math.pow(10, (b - a) / 400));
+    }
+}
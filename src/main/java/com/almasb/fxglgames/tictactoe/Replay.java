@@ -0,0 +1,97 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * The moves of one finished match, as kept in a {@link ReplayArchive}.
+ * Only moves that marked a cell are kept, each as its cell and whether it was O.
+ */
+public final class Replay {
+
+    private final long matchId;
+    private final int roomId;
+    private final long startMillis;
+    private final int boardSize;
+    private final int winLength;
+
+    /**
+     * 0 for a draw, 1 for X, 2 for O.
+     */
+    private final int winner;
+    private final boolean bot;
+
+    private final byte[] cells;
+    private final long[] oMoves;
+
+    Replay(long matchId, int roomId, long startMillis, int boardSize, int winLength, int winner, boolean bot,
+           byte[] cells, long[] oMoves) {
+        this.matchId = matchId;
+        this.roomId = roomId;
+        this.startMillis = startMillis;
+        this.boardSize = boardSize;
+        this.winLength = winLength;
+        this.winner = winner;
+        this.bot = bot;
+        this.cells = cells;
+        this.oMoves = oMoves;
+    }
+
+    public long getMatchId() {
+        return matchId;
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * @return 0 for a draw, 1 for X, 2 for O
+     */
+    public int getWinner() {
+        return winner;
+    }
+
+    public boolean isAgainstBot() {
+        return bot;
+    }
+
+    public int getNumMoves() {
+        return cells.length;
+    }
+
+    public int getCell(int move) {
+        return cells[move] & 0xFF;
+    }
+
+    public TileValue getSymbol(int move) {
+        return (oMoves[move >>> 6] & (1L << move)) != 0 ? TileValue.O : TileValue.X;
+    }
+
+    /**
+     * Clears the board and plays the first numMoves moves on it.
+     */
+    public void playTo(BoardState board, int numMoves) {
+        board.clear();
+        for (int move = 0; move < numMoves; move++) {
+            board.mark(getCell(move), getSymbol(move));
+        }
+    }
+
+    byte[] getCells() {
+        return cells;
+    }
+
+    long[] getOMoves() {
+        return oMoves;
+    }
+}
@@ -0,0 +1,640 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Finished matches in a compact, compressed archive with random access by match id.
+ *
+ * Matches are numbered from 1 in the order they are added, and written in blocks of up to
+ * {@link #MATCHES_PER_BLOCK}. A block is stored column by column, so that similar values sit together
+ * and deflate well: room ids, start times, board sizes, win lengths, results, move counts,
+ * then every match's cells as one byte per move and its symbols as one bit per move.
+ * On disk each block is an int with its uncompressed size followed by the deflated bytes, in replays.dat.
+ *
+ * replays.idx has a fixed {@link #INDEX_ENTRY_SIZE} byte entry per block: long id of its first match,
+ * long offset, int length and int number of matches. Ids only grow, so reading a match is a binary search
+ * over the index with positional reads, one block read and one inflate, and nothing else is loaded.
+ *
+ * Writing, and loading for the server, happens on an archive thread of its own. A partial block
+ * is written after {@link #FLUSH_MILLIS}, and matches not written yet are served from memory.
+ * A block is forced to disk before its index entries are written, and a torn block or entry
+ * at the end of either file is dropped when the archive opens. Matches whose block fails to write stay
+ * in memory and are written again after {@link #FLUSH_MILLIS}, up to {@link #MAX_PENDING} of them,
+ * beyond which the oldest are dropped and counted in {@link ServerMetrics}.
+ */
+public final class ReplayArchive implements AutoCloseable {
+
+    /**
+     * System property with the archive directory, no archive if unset.
+     */
+    public static final String DIR_PROPERTY = "tictactoe.replays";
+
+    public static final int MATCHES_PER_BLOCK = 256;
+
+    public static final long FLUSH_MILLIS = 5_000;
+
+    /**
+     * Matches kept in memory while writes fail.
+     */
+    public static final int MAX_PENDING = 16 * MATCHES_PER_BLOCK;
+
+    static final int INDEX_ENTRY_SIZE = 24;
+
+    private static final String DATA_FILE = "replays.dat";
+    private static final String INDEX_FILE = "replays.idx";
+
+    private final Path dir;
+    private final FileChannel data;
+    private final FileChannel index;
+
+    /**
+     * Next id handed out, only used by the thread that adds matches.
+     */
+    private long nextMatchId;
+
+    /**
+     * Matches and blocks on disk, and the id of the last match on disk, only changed on the archive thread.
+     * Matches dropped while writes failed leave gaps in the ids, so the count can be below the last id.
+     */
+    private volatile long numWritten;
+    private volatile long numBlocks;
+    private volatile long lastWrittenId;
+
+    /**
+     * The index mapped for {@link #read(long)}, so the binary search does not need a read per step.
+     */
+    private volatile MappedByteBuffer indexView = null;
+
+    private final List<Replay> pending = new ArrayList<>(MATCHES_PER_BLOCK);
+    private long pendingSince = 0;
+
+    /**
+     * No write is tried before this time after one failed.
+     */
+    private long retryMillis = 0;
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Semaphore signal = new Semaphore(0);
+
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    private ReplayArchive(Path dir, boolean writable) throws IOException {
+        this.dir = dir;
+
+        if (writable) {
+            Files.createDirectories(dir);
+            data = FileChannel.open(dir.resolve(DATA_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            dropTornTail();
+        } else {
+            data = FileChannel.open(dir.resolve(DATA_FILE), StandardOpenOption.READ);
+            index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.READ);
+        }
+
+        numBlocks = index.size() / INDEX_ENTRY_SIZE;
+        if (numBlocks > 0) {
+            var entries = indexView(numBlocks);
+            long matches = 0;
+            for (int entry = 0; entry < numBlocks * INDEX_ENTRY_SIZE; entry += INDEX_ENTRY_SIZE) {
+                matches += entries.getInt(entry + 20);
+            }
+            numWritten = matches;
+
+            int last = (int) (numBlocks - 1) * INDEX_ENTRY_SIZE;
+            lastWrittenId = entries.getLong(last) + entries.getInt(last + 20) - 1;
+        }
+        nextMatchId = lastWrittenId + 1;
+
+        if (writable) {
+            thread = new Thread(this::loop, "replay-archive");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    /**
+     * Opens the archive in dir for adding matches, creating it if needed.
+     */
+    public static ReplayArchive open(Path dir) throws IOException {
+        return new ReplayArchive(dir, true);
+    }
+
+    /**
+     * Opens an existing archive for {@link #read(long)} only, e.g. from another process.
+     */
+    public static ReplayArchive openReadOnly(Path dir) throws IOException {
+        return new ReplayArchive(dir, false);
+    }
+
+    /**
+     * @return archive in the directory from {@link #DIR_PROPERTY}, or null if it is not set
+     */
+    public static Path configuredDir() {
+        String dir = System.getProperty(DIR_PROPERTY);
+        return dir == null || dir.isBlank() ? null : Path.of(dir);
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @return number of matches written to disk
+     */
+    public long getNumWritten() {
+        return numWritten;
+    }
+
+    /**
+     * @return id of the last match added, call from the thread that adds matches
+     */
+    public long getLastMatchId() {
+        return nextMatchId - 1;
+    }
+
+    /**
+     * Hands out the id of the next match, call from the thread that adds matches.
+     */
+    public long reserveMatchId() {
+        return nextMatchId++;
+    }
+
+    /**
+     * Queues a match with an id from {@link #reserveMatchId()} to be written, in the order of the ids.
+     */
+    public void add(Replay replay) {
+        execute(() -> {
+            if (pending.isEmpty()) {
+                pendingSince = System.currentTimeMillis();
+            }
+
+            pending.add(replay);
+
+            if (pending.size() > MAX_PENDING) {
+                drop(pending.size() - MAX_PENDING);
+            }
+
+            if (pending.size() >= MATCHES_PER_BLOCK && System.currentTimeMillis() >= retryMillis) {
+                flush(false);
+            }
+        });
+    }
+
+    /**
+     * Loads a match on the archive thread and passes it to callback there, or null if there is no such match.
+     */
+    public void load(long matchId, Consumer<Replay> callback) {
+        execute(() -> {
+            Replay replay = null;
+            try {
+                replay = findPending(matchId);
+                if (replay == null) {
+                    replay = read(matchId);
+                }
+            } catch (IOException e) {
+                Log.warn(e, "Cannot read replay {0}", matchId);
+            }
+
+            callback.accept(replay);
+        });
+    }
+
+    /**
+     * Writes any partial block and closes the files.
+     */
+    @Override
+    public void close() {
+        if (thread != null) {
+            running = false;
+            signal.release();
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            data.close();
+            index.close();
+        } catch (IOException e) {
+            Log.warn(e, "Cannot close replay archive {0}", dir);
+        }
+    }
+
+    /**
+     * Reads a match from disk with positional reads, safe from any thread.
+     *
+     * @return the match, or null if it has not been written
+     */
+    public Replay read(long matchId) throws IOException {
+        long blocks = numBlocks;
+        if (matchId < 1 || matchId > lastWrittenId || blocks == 0)
+            return null;
+
+        var entries = indexView(blocks);
+
+        // last block starting at or before the match
+        int lo = 0;
+        int hi = (int) blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (entries.getLong(mid * INDEX_ENTRY_SIZE) <= matchId) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        int entry = lo * INDEX_ENTRY_SIZE;
+        int position = (int) (matchId - entries.getLong(entry));
+
+        if (position >= entries.getInt(entry + 20))
+            return null;
+
+        return decode(readBlock(entries.getLong(entry + 8), entries.getInt(entry + 16)), position);
+    }
+
+    /**
+     * Reads every match written so far in the order of their ids, inflating each block once, safe from any thread.
+     */
+    public void forEach(Consumer<Replay> action) throws IOException {
+        long blocks = numBlocks;
+        if (blocks == 0)
+            return;
+
+        var entries = indexView(blocks);
+
+        for (int i = 0; i < blocks; i++) {
+            int entry = i * INDEX_ENTRY_SIZE;
+            var block = readBlock(entries.getLong(entry + 8), entries.getInt(entry + 16));
+
+            int count = entries.getInt(entry + 20);
+            for (int position = 0; position < count; position++) {
+                action.accept(decode(block, position));
+            }
+        }
+    }
+
+    /**
+     * @return the block at offset inflated, laid out as by {@link #encode(List)}
+     */
+    private ByteBuffer readBlock(long offset, int length) throws IOException {
+        var block = ByteBuffer.allocate(length);
+        readFully(data, block, offset);
+
+        int size = block.getInt(0);
+        byte[] bytes = new byte[size];
+
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(block.array(), 4, length - 4);
+            if (inflater.inflate(bytes) != size)
+                throw new IOException("Block at " + offset + " is shorter than " + size + " bytes");
+        } catch (DataFormatException e) {
+            throw new IOException("Block at " + offset + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        signal.release();
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                signal.tryAcquire(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                runTasks();
+
+                long now = System.currentTimeMillis();
+                if (!pending.isEmpty() && now - pendingSince >= FLUSH_MILLIS && now >= retryMillis) {
+                    flush(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+
+        runTasks();
+        flush(true);
+        if (!pending.isEmpty()) {
+            drop(pending.size());
+        }
+        deflater.end();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                Log.warn(e, "Replay archive task failed");
+            }
+        }
+    }
+
+    private Replay findPending(long matchId) {
+        for (Replay replay : pending) {
+            if (replay.getMatchId() == matchId)
+                return replay;
+        }
+        return null;
+    }
+
+    /**
+     * Writes the pending matches in full blocks, and the rest as a partial block if partial is set.
+     * If a write fails, the matches stay pending until {@link #FLUSH_MILLIS} from now.
+     */
+    private void flush(boolean partial) {
+        while (pending.size() >= (partial ? 1 : MATCHES_PER_BLOCK)) {
+            var block = pending.subList(0, Math.min(pending.size(), MATCHES_PER_BLOCK));
+            if (!writeBlock(block)) {
+                retryMillis = System.currentTimeMillis() + FLUSH_MILLIS;
+                return;
+            }
+            block.clear();
+        }
+
+        // the rest were added since the first of them
+        pendingSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Gives up on the oldest pending matches, their ids are left out of the archive.
+     */
+    private void drop(int count) {
+        Log.warn("Dropping {0} matches that could not be written to replay archive {1}", count, dir);
+        ServerMetrics.INSTANCE.replaysDropped.add(count);
+        pending.subList(0, count).clear();
+    }
+
+    /**
+     * @return false if the block could not be written
+     */
+    private boolean writeBlock(List<Replay> block) {
+        try {
+            byte[] bytes = encode(block);
+
+            deflater.reset();
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            var out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            out.write(new byte[4]);
+
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+
+            var buffer = ByteBuffer.wrap(out.toByteArray());
+            buffer.putInt(0, bytes.length);
+
+            // after anything a failed write left, which no index entry points to
+            long offset = data.size();
+            writeFully(data, buffer, offset);
+            data.force(false);
+
+            var entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(block.get(0).getMatchId()).putLong(offset).putInt(buffer.capacity()).putInt(block.size());
+            entry.flip();
+            writeFully(index, entry, numBlocks * INDEX_ENTRY_SIZE);
+            index.force(false);
+
+            numWritten += block.size();
+            lastWrittenId = block.get(block.size() - 1).getMatchId();
+            numBlocks++;
+            return true;
+        } catch (IOException e) {
+            ServerMetrics.INSTANCE.replayWriteFailures.increment();
+            Log.warn(e, "Cannot write {0} matches to replay archive {1}, {2} are waiting", block.size(), dir, pending.size());
+            return false;
+        }
+    }
+
+    /**
+     * Drops index entries whose block did not make it to disk, and data after the last indexed block.
+     */
+    private void dropTornTail() throws IOException {
+        long numEntries = index.size() / INDEX_ENTRY_SIZE;
+        long dataEnd = 0;
+
+        while (numEntries > 0) {
+            var entry = readEntry(numEntries - 1);
+
+            long end = entry.getLong(8) + entry.getInt(16);
+            if (end <= data.size()) {
+                dataEnd = end;
+                break;
+            }
+
+            numEntries--;
+        }
+
+        if (index.size() != numEntries * INDEX_ENTRY_SIZE || data.size() != dataEnd) {
+            Log.warn("Dropping the torn end of replay archive {0}", dir);
+            index.truncate(numEntries * INDEX_ENTRY_SIZE);
+            data.truncate(dataEnd);
+        }
+    }
+
+    /**
+     * Lays out the block column by column.
+     */
+    static byte[] encode(List<Replay> replays) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+
+        out.writeInt(replays.size());
+        out.writeLong(replays.get(0).getMatchId());
+
+        for (Replay replay : replays)
+            out.writeInt(replay.getRoomId());
+        for (Replay replay : replays)
+            out.writeLong(replay.getStartMillis());
+        for (Replay replay : replays)
+            out.writeByte(replay.getBoardSize());
+        for (Replay replay : replays)
+            out.writeByte(replay.getWinLength());
+        for (Replay replay : replays)
+            out.writeByte(replay.getWinner() | (replay.isAgainstBot() ? 4 : 0));
+        for (Replay replay : replays)
+            out.writeShort(replay.getNumMoves());
+
+        for (Replay replay : replays)
+            out.write(replay.getCells());
+
+        for (Replay replay : replays) {
+            long[] oMoves = replay.getOMoves();
+            for (int i = 0; i < symbolBytes(replay.getNumMoves()); i++) {
+                out.writeByte((int) (oMoves[i >>> 3] >>> ((i & 7) * 8)));
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Picks one match out of a block laid out by {@link #encode(List)}.
+     */
+    static Replay decode(ByteBuffer block, int position) {
+        int count = block.getInt(0);
+        long firstMatchId = block.getLong(4);
+
+        int roomIds = 12;
+        int startTimes = roomIds + 4 * count;
+        int sizes = startTimes + 8 * count;
+        int winLengths = sizes + count;
+        int results = winLengths + count;
+        int moveCounts = results + count;
+        int cells = moveCounts + 2 * count;
+
+        int cellOffset = cells;
+        int totalMoves = 0;
+        int symbolOffset = 0;
+        for (int i = 0; i < count; i++) {
+            int n = block.getShort(moveCounts + 2 * i);
+            if (i < position) {
+                cellOffset += n;
+                symbolOffset += symbolBytes(n);
+            }
+            totalMoves += n;
+        }
+        symbolOffset += cells + totalMoves;
+
+        int numMoves = block.getShort(moveCounts + 2 * position);
+
+        byte[] moveCells = new byte[numMoves];
+        block.get(cellOffset, moveCells);
+
+        long[] oMoves = new long[(numMoves + 63) / 64];
+        for (int i = 0; i < symbolBytes(numMoves); i++) {
+            oMoves[i >>> 3] |= (block.get(symbolOffset + i) & 0xFFL) << ((i & 7) * 8);
+        }
+
+        int result = block.get(results + position);
+
+        return new Replay(firstMatchId + position,
+                block.getInt(roomIds + 4 * position),
+                block.getLong(startTimes + 8 * position),
+                block.get(sizes + position),
+                block.get(winLengths + position),
+                result & 3,
+                (result & 4) != 0,
+                moveCells,
+                oMoves);
+    }
+
+    /**
+     * @return the index mapped read only, mapped again if it has fewer than numBlocks entries
+     */
+    private ByteBuffer indexView(long numBlocks) throws IOException {
+        var view = indexView;
+        if (view != null && view.capacity() >= numBlocks * INDEX_ENTRY_SIZE)
+            return view;
+
+        synchronized (this) {
+            view = indexView;
+            if (view == null || view.capacity() < numBlocks * INDEX_ENTRY_SIZE) {
+                view = index.map(FileChannel.MapMode.READ_ONLY, 0, numBlocks * INDEX_ENTRY_SIZE);
+                indexView = view;
+            }
+            return view;
+        }
+    }
+
+    private ByteBuffer readEntry(long block) throws IOException {
+        var entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        readFully(index, entry, block * INDEX_ENTRY_SIZE);
+        return entry;
+    }
+
+    private static int symbolBytes(int numMoves) {
+        return (numMoves + 7) / 8;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0)
+                throw new IOException("Unexpected end of " + channel);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Prints the number of matches, or the moves of one match.
+     *
+     * Usage: ReplayArchive archiveDir [matchId]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: ReplayArchive archiveDir [matchId]");
+            return;
+        }
+
+        try (var archive = openReadOnly(Path.of(args[0]))) {
+            System.out.println(archive.getNumWritten() + " matches in " + archive.numBlocks + " blocks, "
+                    + archive.data.size() + " bytes of data, " + archive.index.size() + " bytes of index");
+
+            if (args.length < 2)
+                return;
+
+            long start = System.nanoTime();
+            Replay replay = archive.read(Long.parseLong(args[1]));
+            long nanos = System.nanoTime() - start;
+
+            if (replay == null) {
+                System.out.println("No match " + args[1]);
+                return;
+            }
+
+            System.out.printf("match %d, room %d, %dx%d board, %d in a row%s, read in %.2f ms%n", replay.getMatchId(),
+                    replay.getRoomId(), replay.getBoardSize(), replay.getBoardSize(), replay.getWinLength(),
+                    replay.isAgainstBot() ? ", against the bot" : "", nanos / 1e6);
+
+            for (int move = 0; move < replay.getNumMoves(); move++) {
+                int cell = replay.getCell(move);
+                System.out.println((move + 1) + ". " + replay.getSymbol(move) + " at " + cell % replay.getBoardSize()
+                        + "," + cell / replay.getBoardSize());
+            }
+
+            System.out.println(replay.getWinner() == 0 ? "draw" : (replay.getWinner() == 1 ? "X" : "O") + " wins");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * Plays a {@link Replay} back to one connection as a spectator, a move every {@link #STEP_SECONDS},
+ * in the same state messages as a live match. Created on the tick thread, loaded on the archive thread,
+ * then stepped by the tick thread.
+ */
+final class ReplayPlayback {
+
+    static final double STEP_SECONDS = 0.5;
+
+    final ClientConnection connection;
+
+    /**
+     * Number of moves shown in the first state.
+     */
+    private final int fromMove;
+
+    /**
+     * Null until loaded, and if there is no such match.
+     */
+    Replay replay;
+
+    private BoardState board;
+    private StateSnapshot snapshot;
+
+    private int shown = 0;
+    private double nextStep = 0;
+
+    ReplayPlayback(ClientConnection connection, int fromMove) {
+        this.connection = connection;
+        this.fromMove = fromMove;
+    }
+
+    /**
+     * Queues the state after fromMove moves, the moves before it are skipped.
+     */
+    void start(double now) {
+        board = new BoardState(replay.getBoardSize(), replay.getWinLength());
+        snapshot = new StateSnapshot(board.getNumCells());
+
+        shown = Math.max(0, Math.min(fromMove, replay.getNumMoves()));
+        replay.playTo(board, shown);
+
+        send();
+        nextStep = now + STEP_SECONDS;
+    }
+
+    /**
+     * Queues the next state if it is due.
+     *
+     * @return true if a state was queued
+     */
+    boolean step(double now) {
+        if (now < nextStep || isDone())
+            return false;
+
+        board.mark(replay.getCell(shown), replay.getSymbol(shown));
+        shown++;
+
+        send();
+        nextStep += STEP_SECONDS;
+        return true;
+    }
+
+    boolean isDone() {
+        return shown == replay.getNumMoves();
+    }
+
+    private void send() {
+        snapshot.encode(board, isDone(), true);
+        snapshot.sendToSpectator(connection);
+    }
+}
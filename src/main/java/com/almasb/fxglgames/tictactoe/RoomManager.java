@@ -0,0 +1,1038 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pairs connections into independent {@link GameRoom}s.
+ *
+ * New connections wait in a {@link Matchmaker}, which pairs players of similar rating in batches.
+ * While waiting a connection gets the state of an empty board every keepalive, with its turn never up.
+ * A connection may identify itself with "PLAYER" followed by a numeric id (text) or the id in
+ * {@link BinaryProtocol#PLAYER} frames and gets its rating back, "RATING,rating,games," or a
+ * {@link BinaryProtocol#RATING} packet. Matches between two identified players update both ratings,
+ * see {@link RatingTable}, and send both players their new ratings.
+ *
+ * Joins and leaves may be reported from any thread, everything else must be called
+ * from the single thread that calls {@link #tick(double)}.
+ * Each tick only visits rooms that changed or whose keepalive is due,
+ * so an idle room costs nothing between keepalives.
+ *
+ * A connection may instead watch a room as a spectator, see {@link SpectatorManager}.
+ *
+ * Sending "BOT" (text) or {@link BinaryProtocol#BOT} instead starts a match against
+ * {@link PerfectPlay} in a room of its own. The bot answers in the same tick as the move.
+ *
+ * A connection may ask for a session and resume its seat from another connection if it drops,
+ * within {@link #RESUME_GRACE_PROPERTY} seconds, see {@link SessionManager}.
+ *
+ * With a {@link ReplayArchive} every finished match is archived and may be played back, see {@link PlaybackManager}.
+ *
+ * With a {@link UdpStateChannel} a connection that sends "UDP" (text) or {@link BinaryProtocol#UDP} gets a key
+ * to send from its UDP socket, and its states then go over UDP while moves and everything else stay on TCP.
+ *
+ * With a {@link MoveJournal} every room records its moves and session tokens, and on startup the matches
+ * that were in progress when the journal was last written are rebuilt under their old ids,
+ * with their seats held for the players to resume.
+ *
+ * The manager parses every message and passes it to the room or to the collaborator that handles it.
+ */
+public final class RoomManager implements InputRing.Handler {
+
+    /**
+     * Seconds between state broadcasts when nothing has changed,
+     * so that clients can tell the server is still alive.
+     */
+    public static final double KEEP_ALIVE_INTERVAL = 1.0;
+
+    /**
+     * System properties with the board size and the number of marks in a row that wins, e.g. 15 and 5 for gomoku.
+     */
+    public static final String BOARD_SIZE_PROPERTY = "tictactoe.boardSize";
+    public static final String WIN_LENGTH_PROPERTY = "tictactoe.winLength";
+
+    /**
+     * System property with the seconds a dropped player's seat is held for it to resume.
+     */
+    public static final String RESUME_GRACE_PROPERTY = "tictactoe.resumeGrace";
+
+    public static final int DEFAULT_RESUME_GRACE = 30;
+
+    /**
+     * System property with an id from 1 to 255 for this server, put in the top byte of its session tokens
+     * so a {@link ConnectionRouter} can send a resume back to it. Unset or 0 leaves tokens fully random.
+     */
+    public static final String SERVER_ID_PROPERTY = "tictactoe.serverId";
+
+    private final ConcurrentLinkedQueue<ClientConnection> joiners = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ClientConnection> leavers = new ConcurrentLinkedQueue<>();
+
+    private final Map<Integer, GameRoom> rooms = new HashMap<>();
+    private final Map<ClientConnection, GameRoom> roomOf = new HashMap<>();
+
+    private final SpectatorManager spectators = new SpectatorManager(this);
+
+    /**
+     * Rooms with state that has not been broadcast yet.
+     */
+    private final ArrayDeque<GameRoom> dirtyRooms = new ArrayDeque<>();
+
+    /**
+     * Rooms in the order they were last broadcast, which is also the order their keepalives are due.
+     * A room may appear more than once, only its last entry is live.
+     */
+    private final ArrayDeque<GameRoom> keepAlives = new ArrayDeque<>();
+
+    /**
+     * Connections with output queued during the current tick.
+     */
+    private final ArrayDeque<ClientConnection> toFlush = new ArrayDeque<>();
+
+    private final Matchmaker matchmaker = new Matchmaker();
+
+    private final RatingTable ratings = new RatingTable();
+
+    /**
+     * Ids of the connections that identified themselves.
+     */
+    private final Map<ClientConnection, Long> playerIds = new HashMap<>();
+
+    /**
+     * An empty board, what waiting connections are sent.
+     */
+    private final StateSnapshot lobbySnapshot;
+
+    private final byte[] ratingPacket = new byte[BinaryProtocol.RATING_PACKET_SIZE];
+
+    private int nextRoomId = 1;
+
+    /**
+     * Rooms with a symbol chosen and no result yet.
+     */
+    private int activeGames = 0;
+
+    private RoomView view = null;
+    private GameRoom viewedRoom = null;
+
+    private double now = 0;
+
+    private final byte[] handshake = new byte[BinaryProtocol.FRAME_SIZE];
+
+    /**
+     * Shared by the bots, only used from the tick thread.
+     */
+    private final Random botRandom = new Random();
+
+    private final int boardSize;
+    private final int winLength;
+
+    private final Path journalDir;
+    private final Path replayDir;
+
+    /**
+     * Opened by {@link #start()}, null until then or if there is none.
+     */
+    private MoveJournal journal = null;
+
+    private final SessionManager sessions = new SessionManager(this, configuredServerId(),
+            Integer.getInteger(RESUME_GRACE_PROPERTY, DEFAULT_RESUME_GRACE));
+
+    private final WideArguments wideArguments = new WideArguments();
+
+    private ReplayArchive archive = null;
+
+    private UdpStateChannel stateChannel = null;
+
+    private final byte[] udpKeyPacket = new byte[BinaryProtocol.UDP_KEY_PACKET_SIZE];
+
+    private final PlaybackManager playbacks = new PlaybackManager(this);
+
+    /**
+     * Rooms use the board from {@link #BOARD_SIZE_PROPERTY} and {@link #WIN_LENGTH_PROPERTY}, 3 x 3 by default,
+     * are journaled to {@link MoveJournal#DIR_PROPERTY} and archived to {@link ReplayArchive#DIR_PROPERTY} if set.
+     */
+    public RoomManager() {
+        this(configuredBoardSize(), configuredWinLength(), MoveJournal.configuredDir(), ReplayArchive.configuredDir());
+    }
+
+    public RoomManager(int boardSize, int winLength) {
+        this(boardSize, winLength, null, null);
+    }
+
+    /**
+     * @param journalDir directory of the journal to recover from and append to, or null for none
+     * @param replayDir directory of the archive of finished matches, or null for none
+     * @see #start()
+     */
+    public RoomManager(int boardSize, int winLength, Path journalDir, Path replayDir) {
+        if (boardSize < BoardState.DEFAULT_SIZE || boardSize > BinaryProtocol.MAX_BOARD_SIZE)
+            throw new IllegalArgumentException("Board size must be between " + BoardState.DEFAULT_SIZE
+                    + " and " + BinaryProtocol.MAX_BOARD_SIZE + ": " + boardSize);
+
+        if (winLength < BoardState.DEFAULT_WIN_LENGTH || winLength > boardSize)
+            throw new IllegalArgumentException("Win length must be between " + BoardState.DEFAULT_WIN_LENGTH
+                    + " and the board size: " + winLength);
+
+        this.boardSize = boardSize;
+        this.winLength = winLength;
+
+        lobbySnapshot = new StateSnapshot(boardSize * boardSize);
+        lobbySnapshot.encode(new BoardState(boardSize, winLength), false, false);
+
+        this.journalDir = journalDir;
+        this.replayDir = replayDir;
+
+        ServerMetrics.INSTANCE.setServerId(configuredServerId());
+
+        // solves the game now rather than when the first bot match starts
+        Log.info("Perfect play table ready with {0} positions", PerfectPlay.getNumPositions());
+    }
+
+    /**
+     * Opens the journal, rebuilding the matches it has in progress, and the replay archive.
+     * Called once before the first tick, a manager that is never started journals and archives nothing.
+     */
+    public void start() {
+        if (journalDir != null) {
+            try {
+                journal = MoveJournal.open(journalDir, MoveJournal.configuredSegmentRecords(), MoveJournal.configuredSyncMillis());
+                recover(journalDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open the journal in " + journalDir, e);
+            }
+        }
+
+        // opened after recovery, matches that finished before the restart were archived then
+        if (replayDir != null) {
+            try {
+                archive = ReplayArchive.open(replayDir);
+                Log.info("Replay archive {0} has {1} matches", replayDir, archive.getNumWritten());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open the replay archive in " + replayDir, e);
+            }
+        }
+    }
+
+    public static int configuredServerId() {
+        return Integer.getInteger(SERVER_ID_PROPERTY, 0);
+    }
+
+    public static int configuredBoardSize() {
+        return Integer.getInteger(BOARD_SIZE_PROPERTY, BoardState.DEFAULT_SIZE);
+    }
+
+    /**
+     * @return win length from {@link #WIN_LENGTH_PROPERTY}, or the board size up to 5
+     */
+    public static int configuredWinLength() {
+        return Integer.getInteger(WIN_LENGTH_PROPERTY, Math.min(configuredBoardSize(), 5));
+    }
+
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    public int getWinLength() {
+        return winLength;
+    }
+
+    public void onConnected(ClientConnection connection) {
+        ServerMetrics.INSTANCE.onConnected(connection);
+        joiners.add(connection);
+    }
+
+    public void onDisconnected(ClientConnection connection) {
+        ServerMetrics.INSTANCE.onDisconnected(connection);
+        leavers.add(connection);
+    }
+
+    /**
+     * The view follows one room at a time, starting with the next room to open.
+     */
+    public void setView(RoomView view) {
+        this.view = view;
+    }
+
+    public GameRoom getViewedRoom() {
+        return viewedRoom;
+    }
+
+    public Collection<GameRoom> getRooms() {
+        return rooms.values();
+    }
+
+    public int getNumRooms() {
+        return rooms.size();
+    }
+
+    public int getNumSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * @return connections waiting for an opponent
+     */
+    public int getNumWaiting() {
+        return matchmaker.size();
+    }
+
+    public GameRoom getRoom(ClientConnection connection) {
+        return roomOf.get(connection);
+    }
+
+    /**
+     * @return the open room with the id, or null
+     */
+    GameRoom findRoom(int roomId) {
+        return rooms.get(roomId);
+    }
+
+    /**
+     * @return the journal, or null if rooms are not journaled
+     */
+    public MoveJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return the archive of finished matches, or null if there is none
+     */
+    public ReplayArchive getReplayArchive() {
+        return archive;
+    }
+
+    /**
+     * Offers states over UDP to connections that ask for it, set before the first tick.
+     */
+    public void setStateChannel(UdpStateChannel stateChannel) {
+        this.stateChannel = stateChannel;
+    }
+
+    /**
+     * @return the channel for states over UDP, or null if there is none
+     */
+    public UdpStateChannel getStateChannel() {
+        return stateChannel;
+    }
+
+    /**
+     * Forces the journal to disk, writes pending replays and closes them and the UDP channel,
+     * called once the tick thread has stopped.
+     */
+    public void close() {
+        if (stateChannel != null) {
+            stateChannel.close();
+        }
+
+        if (journal != null) {
+            journal.close();
+        }
+
+        if (archive != null) {
+            archive.close();
+        }
+    }
+
+    @Override
+    public void onMessage(ClientConnection connection, String message) {
+        long start = System.nanoTime();
+        connection.getStats().onMessageIn();
+
+        handleMessage(connection, message);
+
+        ServerMetrics.INSTANCE.onMessageHandled(System.nanoTime() - start);
+    }
+
+    private void handleMessage(ClientConnection connection, String message) {
+        if (message.contains("SPECTATE")) {
+            int roomId = parseSpectate(message);
+            if (roomId >= 0) {
+                spectators.spectate(connection, roomId);
+                return;
+            }
+        }
+
+        if (message.contains("BOT") && isRequest(message, "BOT")) {
+            playBot(connection);
+            return;
+        }
+
+        if (message.contains("SESSION") && isRequest(message, "SESSION")) {
+            sessions.open(connection);
+            return;
+        }
+
+        if (message.contains("UDP") && isRequest(message, "UDP")) {
+            openStatePeer(connection);
+            return;
+        }
+
+        if (message.contains("REPLAY")) {
+            long[] request = parseReplay(message);
+            if (request != null) {
+                playbacks.replay(connection, request[0], (int) request[1]);
+                return;
+            }
+        }
+
+        if (message.contains("PLAYER")) {
+            long playerId = parsePlayer(message);
+            if (playerId > 0) {
+                identify(connection, playerId);
+                return;
+            }
+        }
+
+        if (message.contains("RESUME")) {
+            long token = parseResume(message);
+            if (token != 0) {
+                sessions.resume(connection, token, now);
+                return;
+            }
+        }
+
+        GameRoom room = roomOf.get(connection);
+        if (room == null) {
+            // the message may have overtaken the join
+            processJoins();
+            room = roomOf.get(connection);
+        }
+
+        if (room == null || !room.onMessage(connection, message)) {
+            ServerMetrics.INSTANCE.inputsRejected.increment();
+        }
+    }
+
+    /**
+     * Handles a {@link BinaryProtocol} frame.
+     */
+    @Override
+    public void onCommand(ClientConnection connection, byte op, int arg) {
+        long start = System.nanoTime();
+        connection.getStats().onMessageIn();
+
+        handleCommand(connection, op, arg);
+
+        ServerMetrics.INSTANCE.onMessageHandled(System.nanoTime() - start);
+    }
+
+    private void handleCommand(ClientConnection connection, byte op, int arg) {
+        if (op == BinaryProtocol.MAGIC) {
+            // answered straight away, the client skips anything sent before the reply
+            boolean accepted = arg == BinaryProtocol.VERSION;
+            connection.setBinary(accepted);
+
+            BinaryProtocol.encodeHandshake(handshake, accepted ? BinaryProtocol.VERSION : 0);
+            connection.sendBytes(handshake, handshake.length);
+
+            if (!accepted) {
+                connection.flush();
+                connection.close();
+                return;
+            }
+
+            // replaces a text state that may still be waiting behind the reply
+            GameRoom room = roomOf.get(connection);
+            if (room != null) {
+                room.sendSnapshot(connection);
+            } else if (matchmaker.contains(connection)) {
+                sendLobby(connection);
+            }
+
+            connection.flush();
+            return;
+        }
+
+        if (op == BinaryProtocol.SPECTATE) {
+            spectators.spectate(connection, arg);
+            return;
+        }
+
+        if (op == BinaryProtocol.BOT) {
+            playBot(connection);
+            return;
+        }
+
+        if (op == BinaryProtocol.SESSION) {
+            sessions.open(connection);
+            return;
+        }
+
+        if (op == BinaryProtocol.UDP) {
+            openStatePeer(connection);
+            return;
+        }
+
+        if (op == BinaryProtocol.REPLAY) {
+            if (wideArguments.append(connection, op, arg, Integer.BYTES)) {
+                playbacks.replay(connection, wideArguments.value(), 0);
+            }
+            return;
+        }
+
+        if (op == BinaryProtocol.RESUME) {
+            if (wideArguments.append(connection, op, arg, Long.BYTES)) {
+                sessions.resume(connection, wideArguments.value(), now);
+            }
+            return;
+        }
+
+        if (op == BinaryProtocol.PLAYER) {
+            if (wideArguments.append(connection, op, arg, Long.BYTES) && wideArguments.value() > 0) {
+                identify(connection, wideArguments.value());
+            }
+            return;
+        }
+
+        GameRoom room = roomOf.get(connection);
+        if (room == null) {
+            processJoins();
+            room = roomOf.get(connection);
+        }
+
+        boolean accepted = false;
+        if (room != null) {
+            if (op == BinaryProtocol.MOVE) {
+                accepted = room.onPlayerMove(connection, arg);
+            } else if (op == BinaryProtocol.SYMBOL) {
+                accepted = (arg == 'X' || arg == 'O') && room.onPlayerSymbol(connection, arg == 'X');
+            }
+        }
+
+        if (!accepted) {
+            ServerMetrics.INSTANCE.inputsRejected.increment();
+        }
+    }
+
+    /**
+     * @param now current time in seconds
+     */
+    public void tick(double now) {
+        long start = System.nanoTime();
+        this.now = now;
+
+        processJoins();
+
+        matchmaker.tick(now, this::startMatch, this::sendLobby);
+
+        GameRoom room;
+        while ((room = dirtyRooms.poll()) != null) {
+            // still queued, so the bot's reply goes out in the same broadcast
+            room.playBot();
+
+            room.dirtyQueued = false;
+            if (!room.isClosed() && room.hasUnsentChanges()) {
+                broadcast(room);
+            }
+        }
+
+        while ((room = keepAlives.peek()) != null) {
+            if (room.queuedKeepAlives > 1 || room.isClosed()) {
+                // superseded by a later broadcast
+                keepAlives.poll();
+                room.queuedKeepAlives--;
+                continue;
+            }
+
+            if (room.getKeepAliveDeadline() > now)
+                break;
+
+            keepAlives.poll();
+            room.queuedKeepAlives--;
+            broadcast(room);
+        }
+
+        playbacks.tick(now);
+        sessions.expire(now);
+
+        // everything queued this tick goes out in one write per connection
+        ClientConnection connection;
+        while ((connection = toFlush.poll()) != null) {
+            connection.flush();
+        }
+
+        if (journal != null) {
+            if (journal.isCheckpointDue()) {
+                checkpoint();
+            }
+            journal.commit();
+        }
+
+        // every room has its players, those waiting are in the matchmaker
+        ServerMetrics.INSTANCE.onTick(System.nanoTime() - start, rooms.size(), activeGames, spectators.size(),
+                joiners.size() + matchmaker.size());
+    }
+
+    void processJoins() {
+        ClientConnection connection;
+        while ((connection = leavers.poll()) != null) {
+            leave(connection);
+        }
+
+        while ((connection = joiners.poll()) != null) {
+            join(connection);
+        }
+    }
+
+    /**
+     * Counts the match as active, called by the room once its symbol has been chosen.
+     */
+    void onGameStarted(GameRoom room) {
+        activeGames++;
+    }
+
+    /**
+     * Archives the match and rates it, called by the room once its game has finished.
+     */
+    void onGameFinished(GameRoom room) {
+        activeGames--;
+
+        if (archive != null) {
+            archive.add(room.toReplay(archive.reserveMatchId()));
+        }
+
+        long first = room.getPlayerId(0);
+        long second = room.getPlayerId(1);
+
+        // only matches between two different players who identified themselves count
+        if (room.hasBot() || first == 0 || second == 0 || first == second)
+            return;
+
+        int winner = room.getWinnerSeat();
+        ratings.record(first, second, winner == 0 ? 1 : winner == 1 ? 0 : 0.5);
+
+        for (int seat = 0; seat < GameRoom.MAX_PLAYERS; seat++) {
+            var player = room.getPlayer(seat);
+            if (player != null) {
+                sendRating(player, room.getPlayerId(seat));
+                toFlush.add(player);
+            }
+        }
+    }
+
+    void markDirty(GameRoom room) {
+        if (!room.dirtyQueued) {
+            room.dirtyQueued = true;
+            dirtyRooms.add(room);
+        }
+    }
+
+    private void broadcast(GameRoom room) {
+        room.broadcast(now);
+        toFlush.addAll(room.getPlayers());
+        spectators.onBroadcast(room);
+
+        room.queuedKeepAlives++;
+        keepAlives.add(room);
+    }
+
+    private void join(ClientConnection connection) {
+        // a player sent back by a closed match may have dropped too, its leave has already been handled
+        if (roomOf.containsKey(connection) || matchmaker.contains(connection) || !connection.isConnected())
+            return;
+
+        matchmaker.add(connection, ratings.ratingOf(playerIds.getOrDefault(connection, 0L)), now);
+        sendLobby(connection);
+    }
+
+    /**
+     * Seats a pair from the matchmaker in a new room.
+     */
+    private void startMatch(ClientConnection first, ClientConnection second) {
+        GameRoom room = openRoom();
+
+        for (ClientConnection connection : new ClientConnection[] { first, second }) {
+            roomOf.put(connection, room);
+            room.addPlayer(connection);
+            room.setPlayerId(room.seatOf(connection), playerIds.getOrDefault(connection, 0L));
+            toFlush.add(connection);
+            journalSeat(connection);
+        }
+
+        spectators.onMatchStarted(room);
+    }
+
+    /**
+     * Queues the empty board for a waiting connection, never its turn so it does not choose a symbol yet.
+     */
+    private void sendLobby(ClientConnection connection) {
+        lobbySnapshot.sendTo(connection, false);
+        toFlush.add(connection);
+    }
+
+    /**
+     * Remembers the connection's player id and answers with its rating.
+     * A waiting connection is matched by that rating from the next batch on.
+     */
+    private void identify(ClientConnection connection, long playerId) {
+        processJoins();
+
+        playerIds.put(connection, playerId);
+        matchmaker.setRating(connection, ratings.ratingOf(playerId));
+
+        GameRoom room = roomOf.get(connection);
+        if (room != null) {
+            room.setPlayerId(room.seatOf(connection), playerId);
+        }
+
+        sendRating(connection, playerId);
+        toFlush.add(connection);
+    }
+
+    private void sendRating(ClientConnection connection, long playerId) {
+        int rating = ratings.ratingOf(playerId);
+        int games = ratings.gamesOf(playerId);
+
+        if (connection.isBinary()) {
+            BinaryProtocol.encodeRating(ratingPacket, rating, games);
+            connection.sendBytes(ratingPacket, ratingPacket.length);
+        } else {
+            connection.send("RATING," + rating + "," + games + ",");
+        }
+    }
+
+    private void leave(ClientConnection connection) {
+        stopSpectating(connection);
+
+        wideArguments.remove(connection);
+        playerIds.remove(connection);
+
+        var peer = connection.getStatePeer();
+        if (peer != null) {
+            stateChannel.remove(peer);
+            connection.setStatePeer(null);
+        }
+
+        if (!sessions.holdSeat(connection, now)) {
+            leaveRoom(connection);
+        }
+    }
+
+    /**
+     * Answers with the UDP port and the connection's key, port 0 if there is no UDP channel.
+     * States keep going over TCP until the client sends the key from its UDP socket.
+     */
+    private void openStatePeer(ClientConnection connection) {
+        int port = 0;
+        long key = 0;
+
+        if (stateChannel != null) {
+            var peer = connection.getStatePeer();
+            if (peer == null) {
+                peer = stateChannel.register();
+                connection.setStatePeer(peer);
+            }
+
+            port = stateChannel.getPort();
+            key = peer.getKey();
+        }
+
+        if (connection.isBinary()) {
+            BinaryProtocol.encodeUdpKey(udpKeyPacket, port, key);
+            connection.sendBytes(udpKeyPacket, udpKeyPacket.length);
+        } else {
+            connection.send("UDP," + port + "," + Long.toHexString(key) + ",");
+        }
+
+        toFlush.add(connection);
+    }
+
+    /**
+     * Records which seat the connection's session token holds, so the seat can be resumed after a restart.
+     */
+    void journalSeat(ClientConnection connection) {
+        if (journal == null)
+            return;
+
+        long token = sessions.getToken(connection);
+        GameRoom room = roomOf.get(connection);
+        if (token != 0 && room != null) {
+            room.setSeatToken(room.seatOf(connection), token);
+        }
+    }
+
+    /**
+     * Starts a match against the bot, the connection leaves whatever it was doing.
+     */
+    private void playBot(ClientConnection connection) {
+        processJoins();
+
+        leaveRoom(connection);
+        stopSpectating(connection);
+
+        GameRoom room = openRoom();
+        roomOf.put(connection, room);
+        room.addPlayer(connection);
+        room.addBot(botRandom);
+        toFlush.add(connection);
+        journalSeat(connection);
+
+        spectators.onMatchStarted(room);
+    }
+
+    /**
+     * Stops watching a room or a replay.
+     */
+    void stopSpectating(ClientConnection connection) {
+        playbacks.remove(connection);
+        spectators.remove(connection);
+    }
+
+    /**
+     * Takes the connection out of the room it plays in, if any, or out of the matchmaker.
+     */
+    void leaveRoom(ClientConnection connection) {
+        matchmaker.remove(connection);
+
+        GameRoom room = roomOf.remove(connection);
+        if (room == null)
+            return;
+
+        room.removePlayer(connection);
+        closeAbandoned(room);
+    }
+
+    /**
+     * The match cannot continue, so the remaining player goes back to the pool.
+     */
+    void closeAbandoned(GameRoom room) {
+        for (ClientConnection other : room.getPlayers()) {
+            roomOf.remove(other);
+            joiners.add(other);
+        }
+
+        closeRoom(room);
+    }
+
+    /**
+     * Records the connection as playing in the room, which it has just been seated in.
+     */
+    void seat(ClientConnection connection, GameRoom room) {
+        roomOf.put(connection, room);
+    }
+
+    /**
+     * Forgets the room the connection plays in, leaving its seat to the room.
+     */
+    void unseat(ClientConnection connection) {
+        roomOf.remove(connection);
+    }
+
+    /**
+     * Sends the connection back to the matchmaker from the next tick.
+     */
+    void requeue(ClientConnection connection) {
+        joiners.add(connection);
+    }
+
+    /**
+     * Flushes the connection at the end of the tick.
+     */
+    void queueFlush(ClientConnection connection) {
+        toFlush.add(connection);
+    }
+
+    private GameRoom openRoom() {
+        GameRoom room = new GameRoom(nextRoomId++, this, boardSize, winLength);
+        rooms.put(room.getId(), room);
+
+        if (journal != null) {
+            journal.roomOpened(room.getId(), boardSize, winLength);
+            room.setJournal(journal);
+        }
+
+        if (viewedRoom == null && view != null) {
+            viewedRoom = room;
+            room.setView(view);
+        }
+
+        broadcast(room);
+
+        return room;
+    }
+
+    private void closeRoom(GameRoom room) {
+        rooms.remove(room.getId());
+
+        if (room.isStarted() && !room.isGameFinished()) {
+            activeGames--;
+        }
+
+        if (journal != null) {
+            journal.roomClosed(room.getId());
+        }
+
+        spectators.onRoomClosed(room);
+
+        room.close();
+
+        if (room == viewedRoom) {
+            viewedRoom = null;
+        }
+    }
+
+    /**
+     * Records every room with a match not finished yet into a fresh journal segment,
+     * after which the journal drops the segments before it.
+     */
+    private void checkpoint() {
+        long start = System.nanoTime();
+        journal.startCheckpoint();
+
+        int numRooms = 0;
+        for (GameRoom room : rooms.values()) {
+            if (!room.isGameFinished()) {
+                room.checkpoint(journal);
+                numRooms++;
+            }
+        }
+
+        journal.finishCheckpoint();
+        Log.info("Journal checkpoint of {0} rooms took {1} ms", numRooms, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Replays the journal into rooms and keeps those with a match still in progress,
+     * then checkpoints them so the segments read are dropped.
+     */
+    private void recover(Path dir) throws IOException {
+        Map<Integer, GameRoom> found = new LinkedHashMap<>();
+        Map<Integer, long[]> seatTokens = new HashMap<>();
+
+        long numRecords = MoveJournal.read(dir, (timeMillis, type, roomId, a, b) -> {
+            nextRoomId = Math.max(nextRoomId, roomId + 1);
+
+            if (type == MoveJournal.ROOM_OPENED) {
+                // a checkpoint records the room again from the start
+                found.put(roomId, new GameRoom(roomId, this, a, b));
+                seatTokens.remove(roomId);
+                return;
+            }
+
+            GameRoom room = found.get(roomId);
+            if (room == null)
+                return;
+
+            switch (type) {
+                case MoveJournal.BOT_SEATED -> room.addBot(botRandom);
+                case MoveJournal.SYMBOL_CHOSEN -> room.onSymbolChosen(a == 'X');
+                case MoveJournal.MOVE -> {
+                    // only moves that marked are journaled, anything else is corrupt
+                    if (!room.replayMove(b, a)) {
+                        Log.warn("Journal move {0} in room {1} does not mark, not recovering the room", b, roomId);
+                        found.remove(roomId);
+                    }
+                }
+                case MoveJournal.SEAT_TOKEN -> {
+                    long[] tokens = seatTokens.computeIfAbsent(roomId, id -> new long[GameRoom.MAX_PLAYERS]);
+                    MoveJournal.mergeTokenPart(tokens, a, b);
+                }
+                case MoveJournal.ROOM_CLOSED -> found.remove(roomId);
+                default -> { }
+            }
+        });
+
+        // replaying marked the rooms dirty, the live ones are broadcast below
+        dirtyRooms.clear();
+        activeGames = 0;
+
+        int recovered = 0;
+        for (GameRoom room : found.values()) {
+            room.dirtyQueued = false;
+
+            long[] tokens = seatTokens.get(room.getId());
+            boolean resumable = tokens != null && tokens[0] != 0 && (room.hasBot() || tokens[1] != 0);
+
+            // a match nobody can return to is over, and left out of the checkpoint
+            if (!room.isStarted() || room.isGameFinished() || !resumable)
+                continue;
+
+            rooms.put(room.getId(), room);
+            activeGames++;
+
+            for (int seat = 0; seat < GameRoom.MAX_PLAYERS; seat++) {
+                if (tokens[seat] != 0 && !(seat == 1 && room.hasBot())) {
+                    room.holdSeat(seat);
+                    room.setSeatToken(seat, tokens[seat]);
+                    sessions.restore(tokens[seat], room, seat);
+                }
+            }
+
+            room.setJournal(journal);
+
+            broadcast(room);
+            recovered++;
+        }
+
+        Log.info("Read {0} journal records from {1}, recovered {2} matches in progress",
+                numRecords, dir, recovered);
+
+        checkpoint();
+    }
+
+    /**
+     * @return true if the message is the request with no arguments
+     */
+    private static boolean isRequest(String message, String request) {
+        return TextFields.is(message, 1, request) && TextFields.isLast(message, 1);
+    }
+
+    /**
+     * @return match id and moves to skip, or null if this is not a replay request
+     */
+    private static long[] parseReplay(String message) {
+        if (!TextFields.is(message, 1, "REPLAY"))
+            return null;
+
+        long[] request = new long[2];
+        for (int i = 0; i < request.length; i++) {
+            if (TextFields.isBlank(message, i + 2))
+                continue;
+
+            request[i] = TextFields.parseLong(message, i + 2);
+            if (request[i] < 0)
+                return null;
+        }
+
+        request[1] = Math.min(request[1], Integer.MAX_VALUE);
+        return request;
+    }
+
+    /**
+     * @return player id, or 0 if this is not a valid player request
+     */
+    private static long parsePlayer(String message) {
+        if (!TextFields.is(message, 1, "PLAYER"))
+            return 0;
+
+        return Math.max(0, TextFields.parseLong(message, 2));
+    }
+
+    /**
+     * @return token to resume, or 0 if this is not a valid resume request
+     */
+    private static long parseResume(String message) {
+        if (!TextFields.is(message, 1, "RESUME"))
+            return 0;
+
+        return TextFields.parseHex(message, 2);
+    }
+
+    /**
+     * @return room id to watch, 0 for any, or -1 if this is not a spectate request
+     */
+    private static int parseSpectate(String message) {
+        if (!TextFields.is(message, 1, "SPECTATE"))
+            return -1;
+
+        return Math.max(0, TextFields.parseInt(message, 2, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,25 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * Something that displays a single {@link GameRoom}, e.g. the server window.
+ * All callbacks happen on the thread that ticks the rooms.
+ */
+public interface RoomView {
+
+    void onAttached(GameRoom room);
+
+    void onMark(int cell, TileValue value);
+
+    /**
+     * @param fromCell first cell of the winning run
+     * @param toCell last cell of the winning run
+     */
+    void onWin(int fromCell, int toCell, TileValue winner);
+
+    void onDraw();
+
+    /**
+     * Called when the room closes, the view should reset itself.
+     */
+    void onDetached();
+}
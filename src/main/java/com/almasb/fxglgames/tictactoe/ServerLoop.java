@@ -0,0 +1,161 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the rooms at a fixed tick rate on a thread of its own, independent of rendering.
+ *
+ * Transport threads never touch the rooms: messages are published to an {@link InputRing}
+ * and applied at the start of the next tick, then the tick broadcasts whatever changed.
+ * So the loop thread is the only writer of game state, and the update rate, CPU and bandwidth
+ * depend on the tick rate alone.
+ */
+public final class ServerLoop implements Transport.Listener {
+
+    /**
+     * System property with the tick rate in Hz.
+     */
+    public static final String TICK_RATE_PROPERTY = "tictactoe.tickRate";
+
+    public static final int DEFAULT_TICK_RATE = 30;
+
+    /**
+     * When the loop falls further behind than this many ticks it stops catching up,
+     * rather than running a burst of back to back ticks.
+     */
+    private static final int MAX_LAG_TICKS = 5;
+
+    /**
+     * Inputs that fit in the ring between two ticks, producers wait beyond that.
+     */
+    private static final int INPUT_CAPACITY = 1 << 16;
+
+    private final RoomManager rooms;
+    private final int tickRate;
+    private final long periodNanos;
+
+    private final InputRing inputs = new InputRing(INPUT_CAPACITY);
+
+    /**
+     * Rare work from other threads, such as a click in the window.
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    private long startNanos;
+
+    public ServerLoop(RoomManager rooms, int tickRate) {
+        if (tickRate <= 0)
+            throw new IllegalArgumentException("Tick rate must be positive: " + tickRate);
+
+        this.rooms = rooms;
+        this.tickRate = tickRate;
+        periodNanos = 1_000_000_000L / tickRate;
+    }
+
+    /**
+     * @return tick rate from {@link #TICK_RATE_PROPERTY}, or the default
+     */
+    public static int configuredTickRate() {
+        return Integer.getInteger(TICK_RATE_PROPERTY, DEFAULT_TICK_RATE);
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        running = true;
+
+        thread = new Thread(this::loop, "server-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the current tick to finish and the rooms to close, unless called from the loop itself.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the task on the loop thread at the start of the next tick, e.g. a move made in the window.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    private void loop() {
+        long next = System.nanoTime();
+
+        while (running) {
+            inputs.drain(rooms);
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    Log.warn(e, "Task failed");
+                }
+            }
+
+            rooms.tick((System.nanoTime() - startNanos) / 1_000_000_000.0);
+
+            next += periodNanos;
+
+            long now = System.nanoTime();
+            if (now - next > periodNanos * MAX_LAG_TICKS) {
+                Log.warn("Server loop is more than {0} ticks behind, skipping ahead", MAX_LAG_TICKS);
+                next = now;
+            }
+
+            // parkNanos may return early, so wait until the deadline has really passed
+            while (running && (now = System.nanoTime()) < next) {
+                LockSupport.parkNanos(next - now);
+            }
+        }
+
+        rooms.close();
+    }
+
+    @Override
+    public void onConnected(ClientConnection connection) {
+        rooms.onConnected(connection);
+    }
+
+    /**
+     * Called on a transport thread.
+     */
+    @Override
+    public void onReceive(ClientConnection connection, String message) {
+        inputs.publishMessage(connection, message);
+    }
+
+    /**
+     * Called on a transport thread.
+     */
+    @Override
+    public void onCommand(ClientConnection connection, byte op, int arg) {
+        inputs.publishCommand(connection, op, arg);
+    }
+
+    @Override
+    public void onDisconnected(ClientConnection connection) {
+        rooms.onDisconnected(connection);
+    }
+}
@@ -0,0 +1,259 @@
+package com.almasb.fxglgames.tictactoe;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms for the game loop and the network, one set per JVM.
+ *
+ * Recording is a few atomic adds, reading happens on the JMX or scrape thread.
+ * Room gauges are published by {@link RoomManager} at the end of each tick,
+ * so the scrape never touches the rooms themselves.
+ */
+public final class ServerMetrics implements ServerMetricsMXBean {
+
+    public static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    public static final String OBJECT_NAME = "com.almasb.fxglgames.tictactoe:type=ServerMetrics";
+
+    /**
+     * System property with the local port of the scrape endpoint, 0 turns it off.
+     */
+    public static final String PORT_PROPERTY = "tictactoe.metrics.port";
+
+    public static final int DEFAULT_PORT = 55556;
+
+    final LatencyHistogram tickDuration = new LatencyHistogram();
+    final LatencyHistogram handlerLatency = new LatencyHistogram();
+    final LatencyHistogram matchWait = new LatencyHistogram();
+
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+
+    final LongAdder connectionsRejected = new LongAdder();
+    final LongAdder messagesShed = new LongAdder();
+    final LongAdder inputsRejected = new LongAdder();
+
+    final LongAdder replayWriteFailures = new LongAdder();
+    final LongAdder replaysDropped = new LongAdder();
+
+    private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+
+    private volatile int rooms = 0;
+    private volatile int activeGames = 0;
+    private volatile int spectators = 0;
+    private volatile int joinQueueDepth = 0;
+    private volatile int serverId = 0;
+
+    private final AtomicBoolean exposed = new AtomicBoolean(false);
+
+    private ServerMetrics() { }
+
+    /**
+     * Registers the JMX bean and starts the scrape endpoint, see {@link #PORT_PROPERTY}.
+     * Only the first call does anything.
+     */
+    public static void expose() {
+        if (!INSTANCE.exposed.compareAndSet(false, true))
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            Log.warn(e, "Could not register metrics with JMX");
+        }
+
+        int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        if (port > 0) {
+            try {
+                MetricsEndpoint.start(port, INSTANCE);
+            } catch (IOException e) {
+                Log.warn(e, "Could not start metrics endpoint on port {0}", port);
+            }
+        }
+    }
+
+    void onConnected(ClientConnection connection) {
+        connections.add(connection);
+    }
+
+    void onDisconnected(ClientConnection connection) {
+        connections.remove(connection);
+    }
+
+    void onMessageHandled(long nanos) {
+        handlerLatency.record(nanos);
+    }
+
+    void onMatched(long waitedNanos) {
+        matchWait.record(waitedNanos);
+    }
+
+    void onTick(long nanos, int rooms, int activeGames, int spectators, int joinQueueDepth) {
+        tickDuration.record(nanos);
+
+        this.rooms = rooms;
+        this.activeGames = activeGames;
+        this.spectators = spectators;
+        this.joinQueueDepth = joinQueueDepth;
+    }
+
+    void setServerId(int serverId) {
+        this.serverId = serverId;
+    }
+
+    Set<ClientConnection> getConnections() {
+        return connections;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public int getRooms() {
+        return rooms;
+    }
+
+    @Override
+    public int getActiveGames() {
+        return activeGames;
+    }
+
+    @Override
+    public int getSpectators() {
+        return spectators;
+    }
+
+    @Override
+    public int getJoinQueueDepth() {
+        return joinQueueDepth;
+    }
+
+    @Override
+    public int getServerId() {
+        return serverId;
+    }
+
+    @Override
+    public long getOutboundPendingBytes() {
+        long total = 0;
+        for (ClientConnection connection : connections) {
+            total += connection.getPendingBytes();
+        }
+        return total;
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getConnectionsRejected() {
+        return connectionsRejected.sum();
+    }
+
+    @Override
+    public long getMessagesShed() {
+        return messagesShed.sum();
+    }
+
+    @Override
+    public long getInputsRejected() {
+        return inputsRejected.sum();
+    }
+
+    @Override
+    public long getReplayWriteFailures() {
+        return replayWriteFailures.sum();
+    }
+
+    @Override
+    public long getReplaysDropped() {
+        return replaysDropped.sum();
+    }
+
+    @Override
+    public long getTicks() {
+        return tickDuration.getCount();
+    }
+
+    @Override
+    public double getTickMeanMicros() {
+        return tickDuration.getMean() / 1000;
+    }
+
+    @Override
+    public double getTickP99Micros() {
+        return tickDuration.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getTickMaxMicros() {
+        return tickDuration.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getMessagesHandled() {
+        return handlerLatency.getCount();
+    }
+
+    @Override
+    public double getHandlerMeanMicros() {
+        return handlerLatency.getMean() / 1000;
+    }
+
+    @Override
+    public double getHandlerP99Micros() {
+        return handlerLatency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getHandlerMaxMicros() {
+        return handlerLatency.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getPlayersMatched() {
+        return matchWait.getCount();
+    }
+
+    @Override
+    public double getMatchWaitP99Millis() {
+        return matchWait.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getMatchWaitMaxMillis() {
+        return matchWait.getMax() / 1e6;
+    }
+
+    @Override
+    public long getLogMessagesSuppressed() {
+        return Log.getSuppressed();
+    }
+}
@@ -0,0 +1,76 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * What {@link ServerMetrics} shows in JMX, under {@link ServerMetrics#OBJECT_NAME}.
+ * Durations are in microseconds.
+ */
+public interface ServerMetricsMXBean {
+
+    int getActiveConnections();
+
+    int getRooms();
+
+    int getActiveGames();
+
+    int getSpectators();
+
+    int getJoinQueueDepth();
+
+    /**
+     * Top byte of the session tokens this server issues, 0 if it has no id.
+     */
+    int getServerId();
+
+    long getOutboundPendingBytes();
+
+    long getMessagesIn();
+
+    long getBytesIn();
+
+    long getMessagesOut();
+
+    long getBytesOut();
+
+    /**
+     * Connections closed on arrival, messages dropped by rate limiting, and moves or commands the rooms refused.
+     */
+    long getConnectionsRejected();
+
+    long getMessagesShed();
+
+    long getInputsRejected();
+
+    /**
+     * Replay archive blocks that failed to write, and finished matches given up on after failed writes.
+     */
+    long getReplayWriteFailures();
+
+    long getReplaysDropped();
+
+    long getTicks();
+
+    double getTickMeanMicros();
+
+    double getTickP99Micros();
+
+    double getTickMaxMicros();
+
+    long getMessagesHandled();
+
+    double getHandlerMeanMicros();
+
+    double getHandlerP99Micros();
+
+    double getHandlerMaxMicros();
+
+    /**
+     * Players paired by the matchmaker, and how long they waited in milliseconds.
+     */
+    long getPlayersMatched();
+
+    double getMatchWaitP99Millis();
+
+    double getMatchWaitMaxMillis();
+
+    long getLogMessagesSuppressed();
+}
@@ -0,0 +1,161 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * Sessions of the players of a {@link RoomManager}, only used from its tick thread.
+ *
+ * A connection may ask for a session with "SESSION" (text) or {@link BinaryProtocol#SESSION} and gets
+ * a token back. If it drops during a match its seat is held for the grace period,
+ * the opponent keeps waiting, and a new connection that sends "RESUME" with the token
+ * (or the token in {@link BinaryProtocol#RESUME} frames) takes the seat back and gets the current state.
+ * Without a session, or when the grace period ends, a player leaving closes the match.
+ */
+final class SessionManager {
+
+    private final RoomManager manager;
+
+    private final SessionTable sessions;
+
+    /**
+     * Seconds a seat is held for its session to resume.
+     */
+    private final double resumeGrace;
+
+    private final byte[] tokenPacket = new byte[BinaryProtocol.TOKEN_PACKET_SIZE];
+
+    SessionManager(RoomManager manager, int serverId, double resumeGrace) {
+        this.manager = manager;
+        this.sessions = new SessionTable(serverId);
+        this.resumeGrace = resumeGrace;
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return token of the connection's session, or 0 if it has none
+     */
+    long getToken(ClientConnection connection) {
+        var session = sessions.get(connection);
+        return session == null ? 0 : session.token;
+    }
+
+    /**
+     * Hands out a token, the same one if the connection already has a session.
+     */
+    void open(ClientConnection connection) {
+        manager.processJoins();
+
+        var session = sessions.open(connection);
+        sendToken(connection, session.token);
+        manager.journalSeat(connection);
+        manager.queueFlush(connection);
+    }
+
+    /**
+     * Moves the session to the connection. If it holds a seat in a match still open,
+     * the connection leaves whatever it was doing and takes the seat back.
+     */
+    void resume(ClientConnection connection, long token, double now) {
+        manager.processJoins();
+
+        var session = sessions.find(token);
+        if (session == null) {
+            sendToken(connection, 0);
+            manager.queueFlush(connection);
+            return;
+        }
+
+        if (session.connection != null && session.connection != connection) {
+            // the old connection has not been noticed dropping yet
+            var old = session.connection;
+            GameRoom room = manager.getRoom(old);
+            if (room != null && room.isStarted() && !room.isGameFinished()) {
+                suspend(session, room, now);
+            }
+
+            old.close();
+        }
+
+        GameRoom room = session.room;
+        int seat = session.seat;
+        sessions.attach(session, connection);
+        sendToken(connection, token);
+        manager.queueFlush(connection);
+
+        if (room == null || room.isClosed())
+            return;
+
+        manager.leaveRoom(connection);
+        manager.stopSpectating(connection);
+
+        // leaving closes the room if the connection was the other player in it
+        if (room.isClosed()) {
+            manager.requeue(connection);
+            return;
+        }
+
+        manager.seat(connection, room);
+        room.resumePlayer(seat, connection);
+    }
+
+    /**
+     * Holds the seat of a connection that dropped in the middle of a match, if it has a session.
+     *
+     * @return true if the seat is held, false if the connection should leave its room
+     */
+    boolean holdSeat(ClientConnection connection, double now) {
+        var session = sessions.get(connection);
+        if (session == null)
+            return false;
+
+        GameRoom room = manager.getRoom(connection);
+        if (room != null && room.isStarted() && !room.isGameFinished()) {
+            suspend(session, room, now);
+            return true;
+        }
+
+        sessions.remove(session);
+        return false;
+    }
+
+    /**
+     * Recreates a held seat from the journal after a restart.
+     */
+    void restore(long token, GameRoom room, int seat) {
+        sessions.restore(token, room, seat, resumeGrace);
+    }
+
+    /**
+     * Gives up the seats whose grace period has ended, which ends their matches as if the players had left.
+     */
+    void expire(double now) {
+        SessionTable.Session expired;
+        while ((expired = sessions.pollExpired(now)) != null) {
+            GameRoom room = expired.room;
+            if (room.isClosed())
+                continue;
+
+            room.releaseSeat(expired.seat);
+            manager.closeAbandoned(room);
+        }
+    }
+
+    /**
+     * Holds the session's seat in the room, the match waits for it to resume.
+     */
+    private void suspend(SessionTable.Session session, GameRoom room, double now) {
+        manager.unseat(session.connection);
+        int seat = room.suspendPlayer(session.connection);
+        sessions.suspend(session, room, seat, now + resumeGrace);
+    }
+
+    private void sendToken(ClientConnection connection, long token) {
+        if (connection.isBinary()) {
+            BinaryProtocol.encodeToken(tokenPacket, token);
+            connection.sendBytes(tokenPacket, tokenPacket.length);
+        } else {
+            connection.send("SESSION," + Long.toHexString(token) + ",");
+        }
+    }
+}
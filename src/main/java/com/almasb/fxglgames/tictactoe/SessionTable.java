@@ -0,0 +1,192 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resumable sessions, owned by {@link SessionManager} and only used from the tick thread.
+ *
+ * A connection that asks for a session gets a random token. If it drops during a match, the session
+ * holds its seat until a deadline, and a new connection that presents the token takes the seat back.
+ * Held sessions expire in the order they were suspended, as the grace period is the same for all of them.
+ * A server with an id puts it in the top byte of its tokens, so a {@link ConnectionRouter}
+ * can send a resume to the server that issued the token.
+ */
+final class SessionTable {
+
+    static final class Session {
+        final long token;
+
+        /**
+         * Null while the session is suspended.
+         */
+        ClientConnection connection;
+
+        /**
+         * Room and seat held while the session is suspended.
+         */
+        GameRoom room = null;
+        int seat = -1;
+
+        double deadline = 0;
+
+        /**
+         * Entries in the expiry queue, only the last one is live.
+         */
+        int queued = 0;
+
+        Session(long token) {
+            this.token = token;
+        }
+
+        boolean isSuspended() {
+            return connection == null;
+        }
+    }
+
+    static final int MAX_SERVER_ID = 255;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * In the top byte of every token, unless 0.
+     */
+    private final int serverId;
+
+    private final Map<Long, Session> byToken = new HashMap<>();
+    private final Map<ClientConnection, Session> byConnection = new HashMap<>();
+
+    /**
+     * Suspended sessions in order of their deadlines, a session may appear more than once.
+     */
+    private final ArrayDeque<Session> expiries = new ArrayDeque<>();
+
+    SessionTable() {
+        this(0);
+    }
+
+    SessionTable(int serverId) {
+        if (serverId < 0 || serverId > MAX_SERVER_ID)
+            throw new IllegalArgumentException("Server id must be between 0 and " + MAX_SERVER_ID + ": " + serverId);
+
+        this.serverId = serverId;
+    }
+
+    int size() {
+        return byToken.size();
+    }
+
+    Session get(ClientConnection connection) {
+        return byConnection.get(connection);
+    }
+
+    Session find(long token) {
+        return byToken.get(token);
+    }
+
+    /**
+     * @return the connection's session, opened now if it has none
+     */
+    Session open(ClientConnection connection) {
+        Session session = byConnection.get(connection);
+        if (session != null)
+            return session;
+
+        long token;
+        do {
+            token = random.nextLong();
+            if (serverId != 0) {
+                token = token >>> 8 | (long) serverId << 56;
+            }
+        } while (token == 0 || byToken.containsKey(token));
+
+        session = new Session(token);
+        session.connection = connection;
+
+        byToken.put(token, session);
+        byConnection.put(connection, session);
+        return session;
+    }
+
+    /**
+     * Recreates a suspended session, e.g. from the journal after a restart.
+     */
+    Session restore(long token, GameRoom room, int seat, double deadline) {
+        var session = new Session(token);
+        byToken.put(token, session);
+        suspend(session, room, seat, deadline);
+        return session;
+    }
+
+    /**
+     * Holds the seat until the deadline, the session no longer has a connection.
+     */
+    void suspend(Session session, GameRoom room, int seat, double deadline) {
+        if (session.connection != null) {
+            byConnection.remove(session.connection);
+            session.connection = null;
+        }
+
+        session.room = room;
+        session.seat = seat;
+        session.deadline = deadline;
+
+        session.queued++;
+        expiries.add(session);
+    }
+
+    /**
+     * Moves the session to the connection, which gives up a session of its own if it had one.
+     */
+    void attach(Session session, ClientConnection connection) {
+        Session own = byConnection.get(connection);
+        if (own != null && own != session) {
+            remove(own);
+        }
+
+        if (session.connection != null) {
+            byConnection.remove(session.connection);
+        }
+
+        session.connection = connection;
+        session.room = null;
+        session.seat = -1;
+        byConnection.put(connection, session);
+    }
+
+    void remove(Session session) {
+        byToken.remove(session.token);
+
+        if (session.connection != null) {
+            byConnection.remove(session.connection);
+            session.connection = null;
+        }
+    }
+
+    /**
+     * @return a suspended session past its deadline, taken out of the table, or null
+     */
+    Session pollExpired(double now) {
+        Session session;
+        while ((session = expiries.peek()) != null) {
+            if (session.queued > 1 || !session.isSuspended() || byToken.get(session.token) != session) {
+                // resumed, removed or suspended again since
+                expiries.poll();
+                session.queued--;
+                continue;
+            }
+
+            if (session.deadline > now)
+                return null;
+
+            expiries.poll();
+            session.queued--;
+            byToken.remove(session.token);
+            return session;
+        }
+
+        return null;
+    }
+}
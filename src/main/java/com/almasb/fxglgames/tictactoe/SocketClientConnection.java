@@ -0,0 +1,105 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client accepted by {@link BlockingTransport}.
+ * Each connection has its own writer thread, so a flush never blocks the caller
+ * and a slow socket only delays its own client.
+ */
+public class SocketClientConnection extends BufferedClientConnection {
+
+    private final Socket socket;
+
+    private final OutputStream out;
+
+    /**
+     * Wakes the writer thread. A semaphore rather than a monitor, so a waiting virtual thread does not pin its carrier.
+     */
+    private final Semaphore flushSignal = new Semaphore(0);
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    public SocketClientConnection(Socket socket, int connectionNum) throws IOException {
+        super(connectionNum);
+
+        this.socket = socket;
+
+        out = socket.getOutputStream();
+    }
+
+    @Override
+    public void flush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            flushSignal.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        outbound.clear();
+
+        flushSignal.release();
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Blocks reading messages until the socket closes,
+     * passing each one straight to the listener.
+     */
+    void readLoop(Transport.Listener listener) {
+        var framer = new MessageFramer();
+        var dispatcher = new FrameDispatcher(framer, this, listener);
+
+        try {
+            InputStream in = socket.getInputStream();
+
+            int n;
+            while ((n = framer.readFrom(in)) >= 0) {
+                getStats().onBytesIn(n);
+                framer.dispatch(dispatcher);
+            }
+        } catch (Exception e) {
+            Log.debug("Connection {0} dropped: {1}", getConnectionNum(), e);
+        } finally {
+            close();
+            listener.onDisconnected(this);
+        }
+    }
+
+    /**
+     * Writes whatever is buffered each time a flush is requested.
+     * States queued while a write blocks are replaced by newer ones.
+     */
+    void writeLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+
+        try {
+            while (connected) {
+                flushSignal.acquire();
+                flushRequested.set(false);
+
+                if (!connected || outbound.isEmpty())
+                    continue;
+
+                buffer = drain(buffer);
+
+                out.write(buffer.array(), 0, buffer.limit());
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Copies new states from {@link SpectatorFeed}s to spectators on a thread of its own,
+ * so the tick thread only pays for publishing, never for the number of spectators.
+ */
+final class SpectatorFanout {
+
+    private final ConcurrentLinkedQueue<SpectatorFeed> ready = new ConcurrentLinkedQueue<>();
+
+    private final Semaphore signal = new Semaphore(0);
+
+    private Thread thread;
+
+    /**
+     * Called after a feed published a new entry.
+     */
+    void schedule(SpectatorFeed feed) {
+        if (!feed.hasSpectators() || !feed.scheduled.compareAndSet(false, true))
+            return;
+
+        ready.add(feed);
+        signal.release();
+
+        if (thread == null) {
+            thread = new Thread(this::loop, "spectator-fanout");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void loop() {
+        try {
+            while (true) {
+                signal.acquire();
+
+                SpectatorFeed feed;
+                while ((feed = ready.poll()) != null) {
+                    feed.scheduled.set(false);
+                    fanOut(feed);
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    private void fanOut(SpectatorFeed feed) {
+        if (feed.isClosed())
+            return;
+
+        for (SpectatorFeed.Spectator spectator : feed.getSpectators()) {
+            long latest = feed.getPublished();
+
+            // skip anything in between, only the newest state matters
+            while (spectator.cursor < latest && !feed.sendTo(spectator, latest)) {
+                latest = feed.getPublished();
+            }
+
+            if (spectator.cursor < latest) {
+                spectator.cursor = latest;
+                spectator.connection.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.lang.invoke.VarHandle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read-only view of a room for any number of spectators.
+ *
+ * The room publishes each broadcast into a small ring of serialized states, which costs the same
+ * however many spectators there are. {@link SpectatorFanout} then copies the newest entry to each
+ * spectator on its own thread, so spectators never delay the players. Spectators only ever need
+ * the newest state, so one that falls behind simply skips the entries it missed.
+ *
+ * Each slot is guarded by a sequence number, odd while the slot is being written, so a reader that races
+ * with the writer notices and reads again. The reader copies the slot aside and checks the sequence again
+ * before sending, so a torn copy never reaches a connection.
+ */
+final class SpectatorFeed {
+
+    static final int CAPACITY = 8;
+
+    static final class Spectator {
+        final ClientConnection connection;
+        final SpectatorFeed feed;
+
+        final byte[] own = new byte[24];
+        final int ownLength;
+
+        /**
+         * Sequence of the last entry sent, only touched by the fan-out thread.
+         */
+        long cursor = 0;
+
+        Spectator(ClientConnection connection, SpectatorFeed feed) {
+            this.connection = connection;
+            this.feed = feed;
+            ownLength = StateSnapshot.encodeSpectator(own, connection);
+        }
+    }
+
+    private final int roomId;
+
+    private final byte[][] text;
+    private final int[] textLength = new int[CAPACITY];
+    private final byte[][] binary;
+
+    private final AtomicLongArray slotSeq = new AtomicLongArray(CAPACITY);
+
+    /**
+     * Copy of the slot being sent, only touched by the fan-out thread.
+     */
+    private final byte[] scratch;
+
+    /**
+     * Sequence of the newest complete entry, 0 if nothing was published yet.
+     */
+    private volatile long published = 0;
+
+    private final Set<Spectator> spectators = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Set while the feed is waiting for the fan-out thread.
+     */
+    final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param snapshot sets the size of the entries, all snapshots of a room have the same size
+     */
+    SpectatorFeed(int roomId, StateSnapshot snapshot) {
+        this.roomId = roomId;
+
+        text = new byte[CAPACITY][snapshot.getText().length];
+        binary = new byte[CAPACITY][snapshot.getBinary().length];
+        scratch = new byte[Math.max(snapshot.getText().length, snapshot.getBinary().length)];
+    }
+
+    int getRoomId() {
+        return roomId;
+    }
+
+    Set<Spectator> getSpectators() {
+        return spectators;
+    }
+
+    boolean hasSpectators() {
+        return !spectators.isEmpty();
+    }
+
+    void add(Spectator spectator) {
+        spectators.add(spectator);
+    }
+
+    void remove(Spectator spectator) {
+        spectators.remove(spectator);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        spectators.clear();
+    }
+
+    long getPublished() {
+        return published;
+    }
+
+    /**
+     * Called by the room's tick thread, the only writer.
+     */
+    void publish(StateSnapshot snapshot) {
+        long seq = published + 1;
+        int slot = (int) (seq & (CAPACITY - 1));
+
+        // odd while writing
+        slotSeq.set(slot, seq * 2 - 1);
+        // keep the writes below from moving above the odd sequence
+        VarHandle.storeStoreFence();
+
+        System.arraycopy(snapshot.getText(), 0, text[slot], 0, snapshot.getTextLength());
+        textLength[slot] = snapshot.getTextLength();
+        System.arraycopy(snapshot.getBinary(), 0, binary[slot], 0, binary[slot].length);
+
+        slotSeq.set(slot, seq * 2);
+        published = seq;
+    }
+
+    /**
+     * Queues entry seq for the spectator.
+     *
+     * @return false if the entry was overwritten while reading, the caller should retry with the newest entry
+     */
+    boolean sendTo(Spectator spectator, long seq) {
+        int slot = (int) (seq & (CAPACITY - 1));
+
+        if (slotSeq.get(slot) != seq * 2)
+            return false;
+
+        var connection = spectator.connection;
+        int length;
+        if (connection.isBinary()) {
+            length = binary[slot].length;
+            System.arraycopy(binary[slot], 0, scratch, 0, length);
+        } else {
+            length = Math.min(textLength[slot], scratch.length);
+            System.arraycopy(text[slot], 0, scratch, 0, length);
+        }
+
+        // keep the reads above from moving below the check
+        VarHandle.loadLoadFence();
+
+        // if the slot changed while copying, a newer state is waiting anyway
+        if (slotSeq.get(slot) != seq * 2)
+            return false;
+
+        connection.sendState(scratch, length, spectator.own, spectator.ownLength);
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spectators of the rooms of a {@link RoomManager}, only used from its tick thread.
+ *
+ * A connection that sends "SPECTATE" (text, optionally followed by a room id) or {@link BinaryProtocol#SPECTATE}
+ * leaves whatever it was doing and watches the room, or the latest match if no id is given.
+ * Spectators get every state update through the room's {@link SpectatorFeed}, copied to them by
+ * a {@link SpectatorFanout}, but their moves are ignored. When the room closes its spectators
+ * stay connected and may ask to watch another one.
+ */
+final class SpectatorManager {
+
+    private final RoomManager manager;
+
+    private final Map<ClientConnection, SpectatorFeed.Spectator> spectators = new HashMap<>();
+
+    private final SpectatorFanout fanout = new SpectatorFanout();
+
+    /**
+     * Most recent room to get both players, what "SPECTATE" without a room id watches.
+     */
+    private GameRoom lastStartedRoom = null;
+
+    SpectatorManager(RoomManager manager) {
+        this.manager = manager;
+    }
+
+    int size() {
+        return spectators.size();
+    }
+
+    /**
+     * @param roomId room to watch, 0 for any match in progress
+     */
+    void spectate(ClientConnection connection, int roomId) {
+        manager.processJoins();
+
+        // leave first, so a player never ends up watching the room it just closed
+        manager.leaveRoom(connection);
+        manager.stopSpectating(connection);
+
+        GameRoom room = roomId > 0 ? manager.findRoom(roomId) : pickRoomToWatch();
+        if (room == null)
+            return;
+
+        var feed = room.openSpectatorFeed();
+        var spectator = new SpectatorFeed.Spectator(connection, feed);
+        feed.add(spectator);
+        spectators.put(connection, spectator);
+
+        // the new spectator is behind, so it gets the newest state
+        fanout.schedule(feed);
+    }
+
+    /**
+     * Stops the connection watching a room, if it was.
+     */
+    void remove(ClientConnection connection) {
+        var spectator = spectators.remove(connection);
+        if (spectator != null) {
+            spectator.feed.remove(spectator);
+        }
+    }
+
+    void onMatchStarted(GameRoom room) {
+        lastStartedRoom = room;
+    }
+
+    /**
+     * Passes the state the room has just published on to its spectators, if it has any.
+     */
+    void onBroadcast(GameRoom room) {
+        var feed = room.getSpectatorFeed();
+        if (feed != null) {
+            fanout.schedule(feed);
+        }
+    }
+
+    /**
+     * Forgets the room's spectators, who stay connected.
+     */
+    void onRoomClosed(GameRoom room) {
+        var feed = room.getSpectatorFeed();
+        if (feed != null) {
+            for (SpectatorFeed.Spectator spectator : feed.getSpectators()) {
+                spectators.remove(spectator.connection);
+            }
+        }
+
+        if (room == lastStartedRoom) {
+            lastStartedRoom = null;
+        }
+    }
+
+    private GameRoom pickRoomToWatch() {
+        if (lastStartedRoom != null && !lastStartedRoom.isClosed())
+            return lastStartedRoom;
+
+        for (GameRoom room : manager.getRooms()) {
+            if (room.isFull())
+                return room;
+        }
+
+        return null;
+    }
+}
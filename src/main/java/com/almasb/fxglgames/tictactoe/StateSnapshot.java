@@ -0,0 +1,138 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A room's state serialized once per broadcast, in both protocols.
+ *
+ * The shared part is the same for every recipient. Only the few bytes that differ
+ * (role and connection number) are written per recipient, into a small scratch array,
+ * so a broadcast costs one serialization however many connections receive it.
+ */
+final class StateSnapshot {
+
+    private static final byte[] GAME_DATA = "GAME_DATA,".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true,".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false,".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Takes the place of the X/O flag for spectators.
+     */
+    private static final byte[] SPECTATOR = "spectator,".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * "GAME_DATA," + board + 2 flags.
+     */
+    private final byte[] text;
+    private int textLength = 0;
+
+    private final byte[] binary;
+
+    /**
+     * Role and connection number, longest as text is "false," + 10 digits + ",".
+     */
+    private final byte[] own = new byte[24];
+
+    StateSnapshot(int numCells) {
+        text = new byte[GAME_DATA.length + numCells + 1 + 2 * FALSE.length];
+        binary = new byte[BinaryProtocol.sharedStateSize(numCells)];
+    }
+
+    void encode(BoardState state, boolean finished, boolean symbolChosen) {
+        int i = copy(GAME_DATA, text, 0);
+        i = state.writeTo(text, i);
+        text[i++] = ',';
+        i = copy(finished ? TRUE : FALSE, text, i);
+        i = copy(symbolChosen ? TRUE : FALSE, text, i);
+        textLength = i;
+
+        BinaryProtocol.encodeSharedState(binary, state, BinaryProtocol.encodeFlags(finished, symbolChosen));
+    }
+
+    byte[] getText() {
+        return text;
+    }
+
+    int getTextLength() {
+        return textLength;
+    }
+
+    byte[] getBinary() {
+        return binary;
+    }
+
+    /**
+     * Writes the recipient specific bytes of a spectator.
+     *
+     * @return number of bytes written
+     */
+    static int encodeSpectator(byte[] out, ClientConnection connection) {
+        if (connection.isBinary()) {
+            BinaryProtocol.encodeOwnState(out, BinaryProtocol.ROLE_SPECTATOR, connection.getConnectionNum());
+            return BinaryProtocol.STATE_OWN_SIZE;
+        }
+
+        int i = copy(SPECTATOR, out, 0);
+        i = writeInt(connection.getConnectionNum(), out, i);
+        out[i++] = ',';
+        return i;
+    }
+
+    /**
+     * Queues the snapshot for one recipient in the protocol it negotiated.
+     */
+    void sendTo(ClientConnection connection, boolean isX) {
+        if (connection.isBinary()) {
+            BinaryProtocol.encodeOwnState(own, isX ? BinaryProtocol.ROLE_X : BinaryProtocol.ROLE_O,
+                    connection.getConnectionNum());
+
+            connection.sendState(binary, binary.length, own, BinaryProtocol.STATE_OWN_SIZE);
+        } else {
+            int i = copy(isX ? TRUE : FALSE, own, 0);
+            i = writeInt(connection.getConnectionNum(), own, i);
+            own[i++] = ',';
+
+            connection.sendState(text, textLength, own, i);
+        }
+    }
+
+    /**
+     * Queues the snapshot for a connection that only watches, such as one playing back a replay.
+     */
+    void sendToSpectator(ClientConnection connection) {
+        int ownLength = encodeSpectator(own, connection);
+
+        if (connection.isBinary()) {
+            connection.sendState(binary, binary.length, own, ownLength);
+        } else {
+            connection.sendState(text, textLength, own, ownLength);
+        }
+    }
+
+    private static int copy(byte[] src, byte[] dst, int offset) {
+        System.arraycopy(src, 0, dst, offset, src.length);
+        return offset + src.length;
+    }
+
+    private static int writeInt(int value, byte[] dst, int offset) {
+        if (value < 0) {
+            dst[offset++] = '-';
+            value = -value;
+        }
+
+        int start = offset;
+        do {
+            dst[offset++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        // digits were written backwards
+        for (int lo = start, hi = offset - 1; lo < hi; lo++, hi--) {
+            byte tmp = dst[lo];
+            dst[lo] = dst[hi];
+            dst[hi] = tmp;
+        }
+
+        return offset;
+    }
+}
@@ -0,0 +1,148 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * Reads fields of a comma-separated text message in place, without splitting it,
+ * so that checking and parsing a message allocates nothing. Field 0 is the connection number.
+ * Whitespace around a field is ignored, as {@link String#trim()} would.
+ */
+final class TextFields {
+
+    private TextFields() { }
+
+    /**
+     * @return index of the first char of the field, or -1 if the message has fewer fields
+     */
+    static int start(String message, int field) {
+        int start = 0;
+        for (int i = 0; i < field; i++) {
+            start = message.indexOf(',', start) + 1;
+            if (start == 0)
+                return -1;
+        }
+        return start;
+    }
+
+    /**
+     * @return index just past the last char of the field starting at start
+     */
+    static int end(String message, int start) {
+        int end = message.indexOf(',', start);
+        return end < 0 ? message.length() : end;
+    }
+
+    /**
+     * @return true if the field is value, apart from whitespace around it
+     */
+    static boolean is(String message, int field, String value) {
+        int start = start(message, field);
+        if (start < 0)
+            return false;
+
+        int end = trimEnd(message, start, end(message, start));
+        start = trimStart(message, start, end);
+        return end - start == value.length() && message.startsWith(value, start);
+    }
+
+    /**
+     * @return true if the field is missing or only whitespace
+     */
+    static boolean isBlank(String message, int field) {
+        int start = start(message, field);
+        return start < 0 || trimStart(message, start, end(message, start)) == end(message, start);
+    }
+
+    /**
+     * @return true if no field after this one has anything but whitespace
+     */
+    static boolean isLast(String message, int field) {
+        int start = start(message, field + 1);
+        if (start < 0)
+            return true;
+
+        for (int i = start; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c != ',' && c > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the field as a decimal number from 0 to max, or -1 if it is missing, not a number or out of range
+     */
+    static int parseInt(String message, int field, int max) {
+        long value = parseLong(message, field);
+        return value > max ? -1 : (int) value;
+    }
+
+    /**
+     * @return the field as a decimal number from 0 to {@link Long#MAX_VALUE},
+     * or -1 if it is missing, not a number or out of range
+     */
+    static long parseLong(String message, int field) {
+        int start = start(message, field);
+        if (start < 0)
+            return -1;
+
+        int end = trimEnd(message, start, end(message, start));
+        start = trimStart(message, start, end);
+        if (end == start)
+            return -1;
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = message.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10)
+                return -1;
+
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the field as an unsigned hex number of up to 16 digits, or 0 if it is missing or not one
+     */
+    static long parseHex(String message, int field) {
+        int start = start(message, field);
+        if (start < 0)
+            return 0;
+
+        int end = trimEnd(message, start, end(message, start));
+        start = trimStart(message, start, end);
+        if (end - start > 16)
+            return 0;
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(message.charAt(i), 16);
+            if (digit < 0)
+                return 0;
+
+            value = value << 4 | digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * @return index of the first char from start to end that is not whitespace, or end
+     */
+    private static int trimStart(String message, int start, int end) {
+        while (start < end && message.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @return index just past the last char from start to end that is not whitespace, or start
+     */
+    private static int trimEnd(String message, int start, int end) {
+        while (end > start && message.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
@@ -30,20 +30,18 @@ import com.almasb.fxgl.app.ApplicationMode;
 import com.almasb.fxgl.app.GameApplication;
 import com.almasb.fxgl.app.GameSettings;
 import com.almasb.fxgl.entity.Entity;
-import com.almasb.fxgl.net.*;
 import javafx.animation.KeyFrame;
 import javafx.animation.KeyValue;
 import javafx.animation.Timeline;
+import javafx.geometry.Point2D;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Line;
 import javafx.util.Duration;
 
-import java.io.*;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
 import static com.almasb.fxgl.dsl.FXGL.*;
 
@@ -53,7 +51,7 @@ import static com.almasb.fxgl.dsl.FXGL.*;
  *
  * @author Almas Baimagambetov (AlmasB) (almaslvl@gmail.com)
  */
-public class TicTacToeApp extends GameApplication implements MessageHandler<String> {
+public class TicTacToeApp extends GameApplication implements RoomView {
 
     @Override
     protected void initSettings(GameSettings settings) {
@@ -65,267 +63,200 @@ public class TicTacToeApp extends GameApplication implements MessageHandler<Stri
         settings.setApplicationMode(ApplicationMode.DEBUG);
     }
 
-    private Entity[][] board = new Entity[3][3];
-    private List<TileCombo> combos = new ArrayList<>();
+    /**
+     * Board size and win length from -Dtictactoe.boardSize and -Dtictactoe.winLength, 3 x 3 by default.
+     */
+    private RoomManager rooms = new RoomManager();
 
-    private Boolean playerXTurn = true;
+    private int size = rooms.getBoardSize();
 
-    private Boolean clientisX = true;
+    private Entity[][] board = new Entity[size][size];
 
-    private Boolean symbolChosen = false;
-    public List<TileCombo> getCombos() {
-        return combos;
-    }
-    private Server<String> server;
+    /**
+     * Cells on screen as E, X or O, kept by the view callbacks on the FX thread
+     * so that reading the board never touches the rooms of the loop thread.
+     */
+    private char[] shownCells = new char[size * size];
 
+    /**
+     * Win lines drawn for the room currently on screen.
+     */
+    private List<Line> winLines = new ArrayList<>();
 
-    @Override
-    protected void initGame() {
-        getGameWorld().addEntityFactory(new TicTacToe());
+    /**
+     * Ticks the rooms on its own thread, so the network rate does not follow the frame rate.
+     */
+    private ServerLoop loop;
 
-        for (int y = 0; y < 3; y++) {
-            for (int x = 0; x < 3; x++) {
-                board[x][y] = spawn("tile", x * getAppWidth() / 3, y * getAppHeight() / 3);
-            }
-        }
-
-        combos.clear();
+    private static final int PORT = 55555;
 
-        // horizontal
-        for (int y = 0; y < 3; y++) {
-            combos.add(new TileCombo(board[0][y], board[1][y], board[2][y]));
-        }
+    /**
+     * FXGL's server unless -Dtictactoe.transport=nio|virtual|threads is set.
+     */
+    private Transport transport;
 
-        // vertical
-        for (int x = 0; x < 3; x++) {
-            combos.add(new TileCombo(board[x][0], board[x][1], board[x][2]));
-        }
 
-        // diagonals
-        combos.add(new TileCombo(board[0][0], board[1][1], board[2][2]));
-        combos.add(new TileCombo(board[2][0], board[1][1], board[0][2]));
-
-        Writers.INSTANCE.addTCPWriter(String.class, outputStream -> new MessageWriterS(outputStream));
-        Readers.INSTANCE.addTCPReader(String.class, in -> new MessageReaderS(in));
-
-        server = getNetService().newTCPServer(55555, new ServerConfig<>(String.class));
-
-        server.setOnConnected(connection -> {
-            connection.addMessageHandlerFX(this);
+    @Override
+    protected void initGame() {
+        getGameWorld().addEntityFactory(new TicTacToe());
 
-        });
-        server.startAsync();
-    }
+        Arrays.fill(shownCells, 'E');
 
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                board[x][y] = spawn("tile", x * getAppWidth() / size, y * getAppHeight() / size);
 
-        public String BoardToString()
-        {
-            StringBuilder s = new StringBuilder();
-            for(int j=0;j<3;j++) {
-                for (int i = 0; i < 3; i++) {
-                    switch (board[i][j].getComponent(GridCellComponent.class).getValue()) {
-                        case X:
-                            s.append("X");
-                            break;
-                        case O:
-                            s.append("O");
-                            break;
-                        case NONE:
-                            s.append("E");
-                            break;
-
-                    }
-                }
+                // tiles are drawn for a 3 x 3 board
+                board[x][y].setScaleX(3.0 / size);
+                board[x][y].setScaleY(3.0 / size);
             }
-            return s.toString();
         }
 
+        // the window shows one room at a time, its events arrive from the loop thread
+        rooms.setView(new FXRoomView(this));
+        rooms.start();
 
-    @Override
-    protected void onUpdate(double tpf) {
-        List<Connection<String>> connections = server.getConnections();
-        var message = ("GAME_DATA," + BoardToString() + "," + checkGameFinished() + "," + symbolChosen + "," ) ;
-
-        if (!connections.isEmpty()) {
-
-                for (int i = 0; i < connections.size(); i++) {
-                    String messageFull;
-                    if (i == 0) {
-                        messageFull = message.concat(clientisX + "," + connections.get(i).getConnectionNum() + ",");
-                    }
-                    else {
-                        messageFull = message.concat(!clientisX + "," + connections.get(i).getConnectionNum() + ",");
-                    }
-                    connections.get(i).send(messageFull);
-                }
-        }
-
-    }
-
-
-
-
-    @Override
-    public void onReceive(Connection<String> connection, String message) {
-        var tokens = message.split(",");
-        Arrays.stream(tokens).skip(1).forEach(key -> {
-            if (key.matches("LEFT_DOWN")) {
-                int x = Integer.parseInt(tokens[2]);
-                int y = Integer.parseInt(tokens[3]);
-                onUserMove(board[x][y]);
-            }
-            else if(key.matches("X")){
-            symbolChosen = true;
-            clientisX = true;
-            }
-            else if (key.matches("O")){
-                symbolChosen = true;
-                clientisX = false;
+        int udpPort = UdpStateChannel.configuredPort();
+        if (udpPort > 0) {
+            try {
+                rooms.setStateChannel(UdpStateChannel.open(udpPort));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open UDP port " + udpPort, e);
             }
-        });
         }
 
-    static class MessageWriterS implements TCPMessageWriter<String> {
+        loop = new ServerLoop(rooms, ServerLoop.configuredTickRate());
+        loop.start();
 
-        private OutputStream os;
-        private PrintWriter out;
+        var transportName = System.getProperty("tictactoe.transport", "fxgl");
 
-        MessageWriterS(OutputStream os) {
-            this.os = os;
-            out = new PrintWriter(os, true);
-        }
+        transport = transportName.equals("fxgl")
+                ? new FXGLTransport(getNetService())
+                : Transport.create(transportName);
 
-        @Override
-        public void write(String s) throws Exception {
-            out.print(s.toCharArray());
-            out.flush();
+        try {
+            transport.start(PORT, new AdmissionControl(loop));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to start " + transportName + " transport on port " + PORT, e);
         }
-    }
-
-    static class MessageReaderS implements TCPMessageReader<String> {
-
-        private BlockingQueue<String> messages = new ArrayBlockingQueue<>(50);
 
-        private InputStreamReader in;
+        ServerMetrics.expose();
+    }
 
-        MessageReaderS(InputStream is) {
-            in =  new InputStreamReader(is);
+    private Entity tileAt(int cell) {
+        return board[cell % size][cell / size];
+    }
 
-            var t = new Thread(() -> {
-                try {
+    private Point2D centerOf(int cell) {
+        return new Point2D((cell % size + 0.5) * getAppWidth() / size, (cell / size + 0.5) * getAppHeight() / size);
+    }
 
-                    char[] buf = new char[36];
+    /**
+     * Only from the FX thread.
+     *
+     * @return the board on screen as written by {@link BoardState#appendTo(StringBuilder)}
+     */
+    public String boardToString() {
+        return new String(shownCells);
+    }
 
-                    int len;
+    @Override
+    protected void initUI() {
+        Timeline timeline = new Timeline();
 
-                    while ((len = in.read(buf)) > 0) {
-                        var message = new String(Arrays.copyOf(buf, len));
+        for (int i = 1; i < size; i++) {
+            double x = getAppWidth() * i / (double) size;
+            double y = getAppHeight() * i / (double) size;
 
-                        System.out.println("Recv message: " + message);
+            Line column = new Line(x, 0, x, 0);
+            Line row = new Line(0, y, 0, y);
 
-                        messages.put(message);
-                    }
+            getGameScene().addUINodes(column, row);
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
+            // animation, from 0.5 s for the first line to 1 s for the last
+            Duration duration = Duration.seconds(0.5 + 0.5 * (i - 1) / Math.max(1, size - 2));
 
-            t.setDaemon(true);
-            t.start();
+            timeline.getKeyFrames().addAll(
+                    new KeyFrame(duration, new KeyValue(column.endYProperty(), getAppHeight())),
+                    new KeyFrame(duration, new KeyValue(row.endXProperty(), getAppWidth())));
         }
 
-        @Override
-        public String read() throws Exception {
-            return messages.take();
-        }
+        timeline.play();
     }
     @Override
-    protected void initUI() {
-        Line line1 = new Line(getAppWidth() / 3, 0, getAppWidth() / 3, 0);
-        Line line2 = new Line(getAppWidth() / 3 * 2, 0, getAppWidth() / 3 * 2, 0);
-        Line line3 = new Line(0, getAppHeight() / 3, 0, getAppHeight() / 3);
-        Line line4 = new Line(0, getAppHeight() / 3 * 2, 0, getAppHeight() / 3 * 2);
-
-        getGameScene().addUINodes(line1, line2, line3, line4);
-
-        // animation
-        KeyFrame frame1 = new KeyFrame(Duration.seconds(0.5),
-                new KeyValue(line1.endYProperty(), getAppHeight()));
-
-        KeyFrame frame2 = new KeyFrame(Duration.seconds(1),
-                new KeyValue(line2.endYProperty(), getAppHeight()));
+    public void onAttached(GameRoom room) {
+        // the tiles were reset when the previous room detached
+    }
 
-        KeyFrame frame3 = new KeyFrame(Duration.seconds(0.5),
-                new KeyValue(line3.endXProperty(), getAppWidth()));
+    @Override
+    public void onMark(int cell, TileValue value) {
+        shownCells[cell] = value.symbol.charAt(0);
+        tileAt(cell).getComponent(GridCellComponent.class).mark(value);
+    }
 
-        KeyFrame frame4 = new KeyFrame(Duration.seconds(1),
-                new KeyValue(line4.endXProperty(), getAppWidth()));
+    @Override
+    public void onWin(int fromCell, int toCell, TileValue winner) {
+        playWinAnimation(centerOf(fromCell), centerOf(toCell), winner);
+    }
 
-        Timeline timeline = new Timeline(frame1, frame2, frame3, frame4);
-        timeline.play();
+    @Override
+    public void onDraw() {
+        gameOver("DRAW");
     }
-    private boolean checkGameFinished() {
-        for (TileCombo combo : combos) {
-            if (combo.isComplete()) {
-                playWinAnimation(combo);
-                return true;
-            }
-        }
 
-        for (int y = 0; y < 3; y++) {
-            for (int x = 0; x < 3; x++) {
-                Entity tile = board[x][y];
-                if (tile.getComponent(GridCellComponent.class).isEmpty()) {
-                    // at least 1 tile is empty
-                    return false;
-                }
-            }
+    @Override
+    public void onDetached() {
+        for (int cell = 0; cell < size * size; cell++) {
+            tileAt(cell).getComponent(GridCellComponent.class).reset();
         }
+        Arrays.fill(shownCells, 'E');
 
-        gameOver("DRAW");
-        return true;
+        winLines.forEach(getGameScene()::removeUINode);
+        winLines.clear();
     }
-    private void playWinAnimation(TileCombo combo) {
+
+    private void playWinAnimation(Point2D from, Point2D to, TileValue winner) {
         Line line = new Line();
-        line.setStartX(combo.getTile1().getCenter().getX());
-        line.setStartY(combo.getTile1().getCenter().getY());
-        line.setEndX(combo.getTile1().getCenter().getX());
-        line.setEndY(combo.getTile1().getCenter().getY());
+        line.setStartX(from.getX());
+        line.setStartY(from.getY());
+        line.setEndX(from.getX());
+        line.setEndY(from.getY());
         line.setStroke(Color.YELLOW);
         line.setStrokeWidth(3);
 
         getGameScene().addUINode(line);
+        winLines.add(line);
 
         Timeline timeline = new Timeline();
         timeline.getKeyFrames().add(new KeyFrame(Duration.seconds(1),
-                new KeyValue(line.endXProperty(), combo.getTile3().getCenter().getX()),
-                new KeyValue(line.endYProperty(), combo.getTile3().getCenter().getY())));
-        timeline.setOnFinished(e -> gameOver(combo.getWinSymbol()));
+                new KeyValue(line.endXProperty(), to.getX()),
+                new KeyValue(line.endYProperty(), to.getY())));
+        timeline.setOnFinished(e -> gameOver(winner.symbol));
         timeline.play();
     }
     private void gameOver(String winner) {
-        getDialogService().showConfirmationBox("Winner: " + winner + "\nDid you enjoy it?", yes -> {
-            if (yes)
-                getGameController().exit();
-            else
-                getGameController().exit();
-        });
+        // other rooms are still playing, so the server keeps running
+        getDialogService().showMessageBox("Winner: " + winner);
     }
     public void onUserMove(Entity tile) {
-
-        if (playerXTurn) {
-            tile.getComponent(GridCellComponent.class).mark(TileValue.X);
-            playerXTurn = false;
-        }
-        else    {
-            tile.getComponent(GridCellComponent.class).mark(TileValue.O);
-            playerXTurn = true;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                if (board[x][y] == tile) {
+                    int cellX = x;
+                    int cellY = y;
+
+                    // the rooms belong to the loop thread
+                    loop.execute(() -> {
+                        GameRoom room = rooms.getViewedRoom();
+                        if (room != null) {
+                            room.onUserMove(cellX, cellY);
+                        }
+                    });
+                    return;
+                }
             }
-        clientisX = !clientisX;
-        checkGameFinished();
-        toString();
         }
+    }
     public static void main(String[] args) {
         launch(args);
     }
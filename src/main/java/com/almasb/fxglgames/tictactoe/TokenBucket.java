@@ -0,0 +1,52 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * Allows a steady rate of events with bursts of up to a fixed size, e.g. the messages of one connection.
+ * Not thread-safe, a connection's messages all arrive on the thread that reads it.
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastNanos;
+
+    /**
+     * Events denied since the last one allowed.
+     */
+    private int denied = 0;
+
+    /**
+     * @param ratePerSecond events allowed per second in the long run
+     * @param capacity events allowed at once after a quiet period, the bucket starts full
+     */
+    TokenBucket(double ratePerSecond, double capacity, long nowNanos) {
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.capacity = capacity;
+
+        tokens = capacity;
+        lastNanos = nowNanos;
+    }
+
+    /**
+     * @return true if the event is allowed, which takes a token
+     */
+    boolean tryTake(long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastNanos) * tokensPerNano);
+        lastNanos = nowNanos;
+
+        if (tokens >= 1) {
+            tokens--;
+            denied = 0;
+            return true;
+        }
+
+        denied++;
+        return false;
+    }
+
+    int getDeniedInARow() {
+        return denied;
+    }
+}
@@ -0,0 +1,60 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+
+/**
+ * Accepts clients on a TCP port and turns their bytes into messages.
+ *
+ * <ul>
+ *     <li>fxgl - FXGL's own server, only available inside {@link TicTacToeApp}</li>
+ *     <li>nio - a single selector thread for every connection</li>
+ *     <li>virtual - a virtual thread per connection</li>
+ *     <li>threads - a platform thread per connection</li>
+ * </ul>
+ */
+public interface Transport {
+
+    /**
+     * Receives events from transport threads, implementations must be thread-safe.
+     */
+    interface Listener {
+
+        void onConnected(ClientConnection connection);
+
+        /**
+         * Same contract as FXGL's MessageHandler<String>, one call per text message.
+         */
+        void onReceive(ClientConnection connection, String message);
+
+        /**
+         * One call per {@link BinaryProtocol} frame.
+         */
+        void onCommand(ClientConnection connection, byte op, int arg);
+
+        void onDisconnected(ClientConnection connection);
+    }
+
+    void start(int port, Listener listener) throws IOException;
+
+    void stop();
+
+    /**
+     * @param name nio, virtual or threads
+     */
+    static Transport create(String name) {
+        switch (name) {
+            case "nio":
+                return new NioTransport();
+            case "virtual":
+                return new BlockingTransport(Thread.ofVirtual().name("client-", 1).factory());
+            case "threads":
+                return new BlockingTransport(r -> {
+                    var t = new Thread(r);
+                    t.setDaemon(true);
+                    return t;
+                });
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + name);
+        }
+    }
+}
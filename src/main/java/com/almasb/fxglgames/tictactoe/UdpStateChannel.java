@@ -0,0 +1,284 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries state updates over UDP, so a lost packet delays only itself instead of every later state on the TCP stream.
+ * Everything else, moves and symbols included, stays on TCP.
+ *
+ * A client asks for it over TCP with "UDP" (text) or {@link BinaryProtocol#UDP} and gets the UDP port and
+ * a random key back, "UDP,port,hex key," or a {@link BinaryProtocol#UDP_KEY} packet. It then sends
+ * the key from its UDP socket at least every second:
+ * <pre>
+ *   byte  MAGIC
+ *   long  key, big endian
+ * </pre>
+ * From the first such datagram on, its states go to the address it came from instead of TCP,
+ * until nothing has been heard for {@link #SILENCE_TIMEOUT_MILLIS}, when they fall back to TCP.
+ *
+ * Every state datagram carries a sequence number and the last {@link #HISTORY} states, newest first:
+ * <pre>
+ *   byte  MAGIC
+ *   int   sequence number of the first state, big endian, the next ones count down from it
+ *   byte  number of states
+ *   then for each state
+ *   short length, big endian
+ *   bytes the state exactly as it would be sent over TCP, a GAME_DATA message or a STATE packet
+ * </pre>
+ * A client drops datagrams with a sequence number it has already seen, and one lost datagram costs nothing
+ * as the next one repeats its state. The last state of a quiet room is sent again with the room's keepalive.
+ */
+public final class UdpStateChannel implements AutoCloseable {
+
+    /**
+     * System property with the UDP port, unset or 0 for none. It may be the same number as the TCP port.
+     */
+    public static final String PORT_PROPERTY = "tictactoe.udpPort";
+
+    public static final byte MAGIC = (byte) 0xB8;
+
+    public static final int HELLO_SIZE = 9;
+
+    public static final int HEADER_SIZE = 6;
+
+    public static final int HISTORY = 3;
+
+    /**
+     * Datagrams stay below the usual path MTU, older states are left out if they would not fit.
+     */
+    public static final int MAX_DATAGRAM = 1200;
+
+    public static final long SILENCE_TIMEOUT_MILLIS = 3_000;
+
+    /**
+     * The UDP side of one connection.
+     */
+    public static final class Peer {
+
+        private final UdpStateChannel channel;
+        final long key;
+
+        private volatile SocketAddress address = null;
+        private volatile long lastHeardNanos = 0;
+
+        /**
+         * The last datagram sent, rebuilt in place for the next state.
+         * Guarded by this peer, states come from the tick thread and the spectator fanout.
+         */
+        private byte[] datagram = new byte[0];
+        private ByteBuffer packet = ByteBuffer.wrap(datagram);
+        private int length = 0;
+        private int numStates = 0;
+        private int sequence = 0;
+
+        Peer(UdpStateChannel channel, long key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        /**
+         * @return true if the client has sent its key recently enough for states to go over UDP
+         */
+        boolean isReachable() {
+            return address != null
+                    && System.nanoTime() - lastHeardNanos < TimeUnit.MILLISECONDS.toNanos(SILENCE_TIMEOUT_MILLIS);
+        }
+
+        /**
+         * Sends the state with the states before it, without blocking.
+         *
+         * @return bytes sent, 0 if the socket had no room for it
+         */
+        synchronized int send(byte[] shared, int sharedLength, byte[] own, int ownLength) {
+            int length = push(shared, sharedLength, own, ownLength);
+            packet.clear().limit(length);
+            try {
+                return channel.channel.send(packet, address);
+            } catch (IOException e) {
+                // lost like any other datagram, the next state repeats it
+                Log.debug("UDP send to {0} failed: {1}", address, e);
+                return 0;
+            }
+        }
+
+        /**
+         * Adds the state in front of the ones sent before, dropping the oldest, and returns the datagram length.
+         */
+        private int push(byte[] shared, int sharedLength, byte[] own, int ownLength) {
+            int stateLength = sharedLength + ownLength;
+            int entryLength = 2 + stateLength;
+
+            // keep as many earlier states as fit
+            int kept = 0;
+            int keptLength = 0;
+            int offset = HEADER_SIZE;
+            while (kept < numStates && kept < HISTORY - 1) {
+                int next = 2 + ((datagram[offset] & 0xFF) << 8 | datagram[offset + 1] & 0xFF);
+                if (HEADER_SIZE + entryLength + keptLength + next > MAX_DATAGRAM)
+                    break;
+
+                kept++;
+                keptLength += next;
+                offset += next;
+            }
+
+            int newLength = HEADER_SIZE + entryLength + keptLength;
+            if (datagram.length < newLength) {
+                byte[] bigger = new byte[Math.min(MAX_DATAGRAM, Math.max(newLength, HEADER_SIZE + HISTORY * entryLength))];
+                System.arraycopy(datagram, 0, bigger, 0, length);
+                datagram = bigger;
+                packet = ByteBuffer.wrap(datagram);
+            }
+
+            System.arraycopy(datagram, HEADER_SIZE, datagram, HEADER_SIZE + entryLength, keptLength);
+
+            int i = HEADER_SIZE;
+            datagram[i++] = (byte) (stateLength >> 8);
+            datagram[i++] = (byte) stateLength;
+            System.arraycopy(shared, 0, datagram, i, sharedLength);
+            System.arraycopy(own, 0, datagram, i + sharedLength, ownLength);
+
+            sequence++;
+            numStates = kept + 1;
+            length = newLength;
+
+            datagram[0] = MAGIC;
+            datagram[1] = (byte) (sequence >> 24);
+            datagram[2] = (byte) (sequence >> 16);
+            datagram[3] = (byte) (sequence >> 8);
+            datagram[4] = (byte) sequence;
+            datagram[5] = (byte) numStates;
+
+            return length;
+        }
+    }
+
+    /**
+     * Non-blocking, so a full socket buffer drops a state rather than stalling the tick.
+     */
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final int port;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final ConcurrentHashMap<Long, Peer> peers = new ConcurrentHashMap<>();
+
+    private UdpStateChannel(int port) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        this.port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+
+        var thread = new Thread(this::receiveLoop, "udp-state");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param port UDP port to bind, 0 for any free one
+     */
+    public static UdpStateChannel open(int port) throws IOException {
+        return new UdpStateChannel(port);
+    }
+
+    /**
+     * @return port from {@link #PORT_PROPERTY}, or 0 if it is not set
+     */
+    public static int configuredPort() {
+        return Integer.getInteger(PORT_PROPERTY, 0);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getNumPeers() {
+        return peers.size();
+    }
+
+    /**
+     * @return a new peer with a random key, states keep going over TCP until the client sends the key
+     */
+    Peer register() {
+        while (true) {
+            long key = random.nextLong();
+            if (key == 0)
+                continue;
+
+            var peer = new Peer(this, key);
+            if (peers.putIfAbsent(key, peer) == null)
+                return peer;
+        }
+    }
+
+    void remove(Peer peer) {
+        peers.remove(peer.key);
+    }
+
+    private void receiveLoop() {
+        var buffer = ByteBuffer.allocate(64);
+
+        while (channel.isOpen()) {
+            try {
+                selector.select();
+
+                SocketAddress sender;
+                while ((sender = channel.receive(buffer.clear())) != null) {
+                    if (buffer.position() == HELLO_SIZE && buffer.get(0) == MAGIC) {
+                        onHello(buffer.getLong(1), sender);
+                    }
+                }
+
+                selector.selectedKeys().clear();
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                // closed
+                return;
+            } catch (IOException e) {
+                Log.warn(e, "UDP receive failed");
+            }
+        }
+    }
+
+    private void onHello(long key, SocketAddress sender) {
+        Peer peer = peers.get(key);
+        if (peer == null)
+            return;
+
+        peer.lastHeardNanos = System.nanoTime();
+
+        // follows the client to a new address, e.g. after a NAT rebinding
+        if (!sender.equals(peer.address)) {
+            peer.address = sender;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            Log.warn(e, "Failed to close the UDP channel");
+        }
+    }
+}
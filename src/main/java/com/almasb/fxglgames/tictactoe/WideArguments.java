@@ -0,0 +1,51 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary arguments longer than the one byte a frame carries, sent as one frame per byte, big endian,
+ * such as a session token. Only used from the tick thread.
+ */
+final class WideArguments {
+
+    /**
+     * Per connection: opcode, bytes so far and how many.
+     */
+    private final Map<ClientConnection, long[]> partial = new HashMap<>();
+
+    private long value = 0;
+
+    /**
+     * Collects one byte, a frame with a different opcode starts over.
+     *
+     * @return true once numBytes bytes of op have arrived, see {@link #value()}
+     */
+    boolean append(ClientConnection connection, byte op, int b, int numBytes) {
+        long[] entry = partial.computeIfAbsent(connection, c -> new long[3]);
+        if (entry[0] != op) {
+            entry[0] = op;
+            entry[1] = 0;
+            entry[2] = 0;
+        }
+
+        entry[1] = entry[1] << 8 | (b & 0xFF);
+        if (++entry[2] < numBytes)
+            return false;
+
+        partial.remove(connection);
+        value = entry[1];
+        return true;
+    }
+
+    /**
+     * @return the argument completed by the last call to {@link #append(ClientConnection, byte, int, int)}
+     */
+    long value() {
+        return value;
+    }
+
+    void remove(ClientConnection connection) {
+        partial.remove(connection);
+    }
+}
@@ -3,4 +3,6 @@
  */
 open module pong.main {
     requires com.almasb.fxgl.all;
+    requires java.management;
+    requires jdk.httpserver;
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryProtocolTest {
+
+    @Test
+    void commandStringsRoundTrip() {
+        for (int op = 0; op <= BinaryProtocol.PLAYER; op++) {
+            byte opcode = op == 0 ? BinaryProtocol.MAGIC : (byte) op;
+            assertTrue(BinaryProtocol.isValidOpcode(opcode));
+
+            for (int arg = 0; arg < 256; arg++) {
+                String command = BinaryProtocol.commandString(opcode, (byte) arg);
+
+                assertTrue(BinaryProtocol.isCommand(command));
+                assertEquals(opcode, BinaryProtocol.opcodeOf(command));
+                assertEquals(arg, BinaryProtocol.argOf(command));
+                assertSame(command, BinaryProtocol.commandString(opcode, (byte) arg));
+            }
+        }
+
+        assertFalse(BinaryProtocol.isValidOpcode((byte) 0));
+        assertFalse(BinaryProtocol.isValidOpcode(BinaryProtocol.STATE));
+        assertFalse(BinaryProtocol.isCommand("1,X"));
+    }
+
+    @Test
+    void rawStringsCarryEveryByte() {
+        byte[] packet = new byte[256];
+        for (int i = 0; i < packet.length; i++) {
+            packet[i] = (byte) i;
+        }
+
+        String raw = BinaryProtocol.toRaw(packet, packet.length);
+
+        assertTrue(BinaryProtocol.isRaw(raw));
+        assertFalse(BinaryProtocol.isRaw("GAME_DATA,EEEEEEEEE"));
+        assertFalse(BinaryProtocol.isRaw(""));
+        for (int i = 0; i < packet.length; i++) {
+            assertEquals(i, raw.charAt(i + 1));
+        }
+    }
+
+    @Test
+    void tokenAndRatingPackets() {
+        byte[] token = new byte[BinaryProtocol.TOKEN_PACKET_SIZE];
+        BinaryProtocol.encodeToken(token, 0x0123_4567_89AB_CDEFL);
+
+        assertEquals(BinaryProtocol.TOKEN, token[0]);
+        long decoded = 0;
+        for (int i = 1; i < token.length; i++) {
+            decoded = decoded << 8 | (token[i] & 0xFF);
+        }
+        assertEquals(0x0123_4567_89AB_CDEFL, decoded);
+
+        byte[] rating = new byte[BinaryProtocol.RATING_PACKET_SIZE];
+        BinaryProtocol.encodeRating(rating, 1732, 70_000);
+
+        assertEquals(BinaryProtocol.RATING, rating[0]);
+        assertEquals(1732, (rating[1] & 0xFF) << 8 | (rating[2] & 0xFF));
+        assertEquals(70_000, (rating[3] & 0xFF) << 24 | (rating[4] & 0xFF) << 16 | (rating[5] & 0xFF) << 8 | (rating[6] & 0xFF));
+    }
+
+    @Test
+    void defaultStatePacketLayout() {
+        var board = new BoardState();
+        board.mark(0, TileValue.X);
+        board.mark(8, TileValue.O);
+
+        assertEquals(BinaryProtocol.STATE_SHARED_SIZE, BinaryProtocol.sharedStateSize(9));
+        assertEquals(BinaryProtocol.STATE_PACKET_SIZE, BinaryProtocol.statePacketSize(9));
+
+        byte[] shared = new byte[BinaryProtocol.STATE_SHARED_SIZE];
+        BinaryProtocol.encodeSharedState(shared, board, BinaryProtocol.encodeFlags(false, true));
+
+        // cell 0 X in bits 0-1, cell 8 O in bits 16-17, symbol chosen in bit 19
+        int bits = (shared[1] & 0xFF) << 16 | (shared[2] & 0xFF) << 8 | (shared[3] & 0xFF);
+        assertEquals(BinaryProtocol.STATE, shared[0]);
+        assertEquals(1 | 2 << 16 | BinaryProtocol.FLAG_SYMBOL_CHOSEN << 18, bits);
+
+        byte[] own = new byte[BinaryProtocol.STATE_OWN_SIZE];
+        BinaryProtocol.encodeOwnState(own, BinaryProtocol.ROLE_SPECTATOR, 0x01020304);
+        assertArrayEquals(new byte[] { BinaryProtocol.ROLE_SPECTATOR, 1, 2, 3, 4 }, own);
+    }
+
+    @Test
+    void statesOfEveryBoardSizeDecodeToTheBoard() {
+        var random = new Random(5);
+
+        for (int size = BoardState.DEFAULT_SIZE; size <= BinaryProtocol.MAX_BOARD_SIZE; size++) {
+            var board = new BoardState(size, Math.min(size, 5));
+            int numCells = board.getNumCells();
+            byte[] out = new byte[BinaryProtocol.sharedStateSize(numCells)];
+
+            for (int round = 0; round < 20; round++) {
+                board.clear();
+                for (int cell = 0; cell < numCells; cell++) {
+                    int pick = random.nextInt(3);
+                    if (pick > 0) {
+                        // marks straight onto the board, a winner in between does not matter here
+                        board.mark(cell, pick == 1 ? TileValue.X : TileValue.O);
+                    }
+                }
+
+                boolean finished = random.nextBoolean();
+                boolean symbolChosen = random.nextBoolean();
+                BinaryProtocol.encodeSharedState(out, board, BinaryProtocol.encodeFlags(finished, symbolChosen));
+
+                assertEquals(BinaryProtocol.STATE, out[0]);
+                for (int cell = 0; cell < numCells; cell++) {
+                    assertEquals(board.getCode(cell), bitsAt(out, 2 * cell), "cell " + cell + " of " + size + "x" + size);
+                }
+                assertEquals(BinaryProtocol.encodeFlags(finished, symbolChosen), bitsAt(out, 2 * numCells));
+            }
+        }
+    }
+
+    /**
+     * @return the 2 bits at bit position of the packet after the opcode, read as one big endian number
+     */
+    private static int bitsAt(byte[] packet, int position) {
+        int last = packet.length - 1;
+        return packet[last - position / 8] >>> (position % 8) & 3;
+    }
+}
@@ -0,0 +1,208 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoardStateTest {
+
+    /**
+     * Board sizes and win lengths, the larger ones spanning several 64 bit words.
+     */
+    private static final int[][] BOARDS = { {3, 3}, {4, 3}, {5, 4}, {8, 5}, {9, 5}, {15, 5}, {16, 5}, {16, 16} };
+
+    @Test
+    void incrementalWinMatchesAFullScan() {
+        var random = new Random(3);
+
+        for (int[] spec : BOARDS) {
+            int size = spec[0];
+            int winLength = spec[1];
+            var board = new BoardState(size, winLength);
+
+            for (int game = 0; game < 200; game++) {
+                board.clear();
+                TileValue value = TileValue.X;
+
+                while (!board.isFinished()) {
+                    int cell;
+                    do {
+                        cell = random.nextInt(board.getNumCells());
+                    } while (!board.isEmpty(cell));
+
+                    boolean wouldWin = board.wouldWin(cell, value);
+                    assertTrue(board.mark(cell, value));
+
+                    TileValue expected = scanForWinner(board);
+                    assertEquals(expected, board.getWinner(), () -> size + "x" + size + "/" + winLength);
+                    assertEquals(expected != TileValue.NONE, wouldWin);
+
+                    value = value == TileValue.X ? TileValue.O : TileValue.X;
+                }
+
+                if (board.hasWinner()) {
+                    assertWinningRun(board);
+                } else {
+                    assertTrue(board.isFull());
+                }
+            }
+        }
+    }
+
+    @Test
+    void linesDoNotWrapAroundTheEdges() {
+        var board = new BoardState(4, 3);
+
+        // the end of row 0 and the start of row 1 are consecutive bits
+        board.mark(board.cellOf(2, 0), TileValue.X);
+        board.mark(board.cellOf(3, 0), TileValue.X);
+        board.mark(board.cellOf(0, 1), TileValue.X);
+        assertFalse(board.hasWinner());
+
+        // nor does an anti-diagonal
+        board.clear();
+        board.mark(board.cellOf(0, 1), TileValue.O);
+        board.mark(board.cellOf(3, 1), TileValue.O);
+        board.mark(board.cellOf(2, 2), TileValue.O);
+        assertFalse(board.hasWinner());
+    }
+
+    @Test
+    void winAcrossAWordBoundary() {
+        var board = new BoardState(15, 5);
+
+        // cells 60 to 64 of row 4, the last spans into the second word
+        for (int x = 0; x < 5; x++) {
+            board.mark(board.cellOf(x, 4), TileValue.O);
+        }
+
+        assertEquals(TileValue.O, board.getWinner());
+        assertEquals(board.cellOf(0, 4), board.getWinStart());
+        assertEquals(board.cellOf(4, 4), board.getWinEnd());
+    }
+
+    @Test
+    void firstWinIsKept() {
+        var board = new BoardState();
+
+        board.mark(0, TileValue.X);
+        board.mark(1, TileValue.X);
+        board.mark(2, TileValue.X);
+        board.mark(3, TileValue.O);
+        board.mark(4, TileValue.O);
+        board.mark(5, TileValue.O);
+
+        assertEquals(TileValue.X, board.getWinner());
+        assertEquals(0, board.getWinStart());
+        assertEquals(2, board.getWinEnd());
+    }
+
+    @Test
+    void rejectsTakenAndInvalidCells() {
+        var board = new BoardState();
+
+        assertTrue(board.mark(4, TileValue.X));
+        assertFalse(board.mark(4, TileValue.O));
+        assertFalse(board.mark(-1, TileValue.O));
+        assertFalse(board.mark(9, TileValue.O));
+        assertFalse(board.mark(0, TileValue.NONE));
+
+        assertEquals(TileValue.X, board.getValue(4));
+        assertEquals(1, board.getCode(4));
+        assertEquals(0, board.getCode(0));
+        assertEquals(0b1_1110_1111, board.getMask(TileValue.NONE));
+    }
+
+    @Test
+    void rejectsWinLengthsThatDoNotFit() {
+        assertThrows(IllegalArgumentException.class, () -> new BoardState(3, 4));
+        assertThrows(IllegalArgumentException.class, () -> new BoardState(0, 1));
+        assertThrows(IllegalStateException.class, () -> new BoardState(6, 5).getMask(TileValue.X));
+    }
+
+    @Test
+    void clearResetsTheResult() {
+        var board = new BoardState();
+        for (int cell = 0; cell < 3; cell++) {
+            board.mark(cell, TileValue.O);
+        }
+
+        board.clear();
+
+        assertFalse(board.isFinished());
+        assertEquals(-1, board.getWinStart());
+        assertEquals(0, board.getMask(TileValue.O));
+    }
+
+    @Test
+    void textFormsAgree() {
+        var board = new BoardState(9, 5);
+        board.mark(0, TileValue.X);
+        board.mark(64, TileValue.O);
+        board.mark(80, TileValue.X);
+
+        var sb = new StringBuilder();
+        board.appendTo(sb);
+
+        byte[] bytes = new byte[board.getNumCells() + 2];
+        assertEquals(1 + board.getNumCells(), board.writeTo(bytes, 1));
+
+        assertEquals(sb.toString(), new String(bytes, 1, board.getNumCells()));
+        assertEquals('X', sb.charAt(0));
+        assertEquals('O', sb.charAt(64));
+        assertEquals('X', sb.charAt(80));
+        assertEquals(78, sb.chars().filter(c -> c == 'E').count());
+    }
+
+    /**
+     * @return the symbol with winLength in a row anywhere on the board, checking every line from scratch
+     */
+    private static TileValue scanForWinner(BoardState board) {
+        int size = board.getSize();
+        int[][] directions = { {1, 0}, {0, 1}, {1, 1}, {1, -1} };
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                TileValue value = board.getValue(board.cellOf(x, y));
+                if (value == TileValue.NONE)
+                    continue;
+
+                for (int[] d : directions) {
+                    int run = 1;
+                    while (run < board.getWinLength() && board.isValidCell(x + d[0] * run, y + d[1] * run)
+                            && board.getValue(board.cellOf(x + d[0] * run, y + d[1] * run)) == value) {
+                        run++;
+                    }
+
+                    if (run == board.getWinLength())
+                        return value;
+                }
+            }
+        }
+
+        return TileValue.NONE;
+    }
+
+    private static void assertWinningRun(BoardState board) {
+        int size = board.getSize();
+        int x0 = board.getWinStart() % size;
+        int y0 = board.getWinStart() / size;
+        int x1 = board.getWinEnd() % size;
+        int y1 = board.getWinEnd() / size;
+
+        int steps = Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0));
+        assertTrue(steps >= board.getWinLength() - 1);
+
+        // a straight line, every cell on it the winner's
+        int dx = Integer.signum(x1 - x0);
+        int dy = Integer.signum(y1 - y0);
+        assertEquals(x1, x0 + dx * steps);
+        assertEquals(y1, y0 + dy * steps);
+
+        for (int i = 0; i <= steps; i++) {
+            assertEquals(board.getWinner(), board.getValue(board.cellOf(x0 + dx * i, y0 + dy * i)));
+        }
+    }
+}
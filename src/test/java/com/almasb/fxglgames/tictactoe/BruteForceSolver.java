@@ -0,0 +1,55 @@
+package com.almasb.fxglgames.tictactoe;
+
+/**
+ * Plain negamax over every continuation of a 3 x 3 position, to check the tables against.
+ */
+final class BruteForceSolver {
+
+    private static final int[] LINES = {
+            0b000_000_111, 0b000_111_000, 0b111_000_000,
+            0b001_001_001, 0b010_010_010, 0b100_100_100,
+            0b100_010_001, 0b001_010_100
+    };
+
+    private static final int FULL = (1 << 9) - 1;
+
+    private BruteForceSolver() { }
+
+    static boolean hasLine(int marks) {
+        for (int line : LINES) {
+            if ((marks & line) == line)
+                return true;
+        }
+        return false;
+    }
+
+    static boolean isOver(int x, int o) {
+        return hasLine(x) || hasLine(o) || (x | o) == FULL;
+    }
+
+    /**
+     * @return result with best play for the player to move, 1, 0 or -1, also for a finished game
+     */
+    static int solve(int x, int o) {
+        boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+        int own = xToMove ? x : o;
+        int other = xToMove ? o : x;
+
+        if (hasLine(other))
+            return PerfectPlay.LOSS;
+
+        if ((x | o) == FULL)
+            return PerfectPlay.DRAW;
+
+        int best = PerfectPlay.LOSS;
+        for (int cell = 0; cell < 9; cell++) {
+            if (((x | o) & 1 << cell) != 0)
+                continue;
+
+            int after = own | 1 << cell;
+            int result = -(xToMove ? solve(after, o) : solve(x, after));
+            best = Math.max(best, result);
+        }
+        return best;
+    }
+}
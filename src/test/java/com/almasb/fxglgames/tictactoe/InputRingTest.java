@@ -0,0 +1,128 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputRingTest {
+
+    /**
+     * Records what it is handed, messages as they are and commands as "op:arg".
+     */
+    private static final class Recorder implements InputRing.Handler {
+        final List<ClientConnection> connections = new ArrayList<>();
+        final List<String> inputs = new ArrayList<>();
+
+        @Override
+        public void onMessage(ClientConnection connection, String message) {
+            connections.add(connection);
+            inputs.add(message);
+        }
+
+        @Override
+        public void onCommand(ClientConnection connection, byte op, int arg) {
+            connections.add(connection);
+            inputs.add(op + ":" + arg);
+        }
+    }
+
+    @Test
+    void drainsInputsInOrderOverManyLaps() {
+        var ring = new InputRing(4);
+        var connection = new TestConnection(1);
+        var recorder = new Recorder();
+
+        for (int lap = 0; lap < 10; lap++) {
+            ring.publishMessage(connection, "1,LEFT_DOWN," + lap + ",0");
+            ring.publishCommand(connection, BinaryProtocol.MOVE, lap);
+            ring.publishMessage(connection, "1,X");
+
+            assertEquals(3, ring.drain(recorder));
+            assertEquals(0, ring.drain(recorder));
+        }
+
+        assertEquals(30, recorder.inputs.size());
+        for (int lap = 0; lap < 10; lap++) {
+            assertEquals("1,LEFT_DOWN," + lap + ",0", recorder.inputs.get(3 * lap));
+            assertEquals(BinaryProtocol.MOVE + ":" + lap, recorder.inputs.get(3 * lap + 1));
+            assertEquals("1,X", recorder.inputs.get(3 * lap + 2));
+        }
+        assertTrue(recorder.connections.stream().allMatch(c -> c == connection));
+    }
+
+    @Test
+    void keepsEveryProducersOrderWhenFull() throws Exception {
+        int producers = 4;
+        int perProducer = 20_000;
+
+        // far smaller than the inputs, so producers wait for the consumer
+        var ring = new InputRing(64);
+        var recorder = new Recorder();
+
+        var threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            var connection = new TestConnection(p);
+            var thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.publishCommand(connection, BinaryProtocol.MOVE, i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (recorder.inputs.size() < producers * perProducer && System.nanoTime() < deadline) {
+            if (ring.drain(recorder) == 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(producers * perProducer, recorder.inputs.size());
+
+        int[] next = new int[producers];
+        for (int i = 0; i < recorder.inputs.size(); i++) {
+            int producer = recorder.connections.get(i).getConnectionNum();
+            assertEquals(BinaryProtocol.MOVE + ":" + next[producer], recorder.inputs.get(i));
+            next[producer]++;
+        }
+    }
+
+    @Test
+    void failingInputDoesNotStopTheDrain() {
+        var ring = new InputRing(8);
+        var connection = new TestConnection(1);
+        var handled = new ArrayList<String>();
+
+        ring.publishMessage(connection, "bad");
+        ring.publishMessage(connection, "good");
+
+        int drained = ring.drain(new InputRing.Handler() {
+            @Override
+            public void onMessage(ClientConnection connection, String message) {
+                if (message.equals("bad"))
+                    throw new IllegalStateException(message);
+
+                handled.add(message);
+            }
+
+            @Override
+            public void onCommand(ClientConnection connection, byte op, int arg) { }
+        });
+
+        assertEquals(2, drained);
+        assertEquals(List.of("good"), handled);
+    }
+
+    @Test
+    void capacityMustBeAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new InputRing(100));
+    }
+}
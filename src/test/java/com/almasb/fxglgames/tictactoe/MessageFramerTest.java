@@ -0,0 +1,128 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageFramerTest {
+
+    @Test
+    void splitsLinesWhateverTheReadSizes() throws Exception {
+        byte[] stream = "1,LEFT_DOWN,0,2\n1,X\r\n\n1,SESSION\n".getBytes(StandardCharsets.US_ASCII);
+
+        for (int chunk = 1; chunk <= stream.length; chunk++) {
+            // once a delimiter has been seen, a partial line waits for the rest
+            var framer = new MessageFramer();
+            assertEquals(List.of("1,UDP"), readAll(framer, "1,UDP\n".getBytes(StandardCharsets.US_ASCII), 64));
+
+            assertEquals(List.of("1,LEFT_DOWN,0,2", "1,X", "1,SESSION"), readAll(framer, stream, chunk),
+                    "reads of " + chunk + " bytes");
+        }
+    }
+
+    @Test
+    void keepsAPartialLineForTheNextRead() throws Exception {
+        var framer = new MessageFramer();
+        var frames = new ArrayList<String>();
+
+        framer.readFrom(channel("1,BOT\n1,LEFT"));
+        framer.dispatch((data, offset, length) -> frames.add(MessageFramer.decode(data, offset, length)));
+        assertEquals(List.of("1,BOT"), frames);
+
+        framer.readFrom(channel("_DOWN,1,1\n"));
+        framer.dispatch((data, offset, length) -> frames.add(MessageFramer.decode(data, offset, length)));
+        assertEquals(List.of("1,BOT", "1,LEFT_DOWN,1,1"), frames);
+    }
+
+    @Test
+    void undelimitedClientGetsOneMessagePerRead() throws Exception {
+        var framer = new MessageFramer();
+        var frames = new ArrayList<String>();
+
+        framer.readFrom(channel("1,X"));
+        framer.dispatch((data, offset, length) -> frames.add(MessageFramer.decode(data, offset, length)));
+        framer.readFrom(channel("1,LEFT_DOWN,0,0"));
+        framer.dispatch((data, offset, length) -> frames.add(MessageFramer.decode(data, offset, length)));
+
+        assertEquals(List.of("1,X", "1,LEFT_DOWN,0,0"), frames);
+        assertFalse(framer.isBinary());
+    }
+
+    @Test
+    void binaryHandshakeSwitchesToFixedFrames() throws Exception {
+        byte[] stream = {
+                BinaryProtocol.MAGIC, BinaryProtocol.VERSION,
+                BinaryProtocol.SYMBOL, 'X',
+                BinaryProtocol.MOVE, 4,
+                // a newline is just an argument here
+                BinaryProtocol.MOVE, '\n'
+        };
+
+        for (int chunk = 1; chunk <= stream.length; chunk++) {
+            var framer = new MessageFramer();
+            var frames = new ArrayList<byte[]>();
+
+            var in = chunked(stream, chunk);
+            while (framer.readFrom(in) > 0) {
+                framer.dispatch((data, offset, length) -> frames.add(Arrays.copyOfRange(data, offset, offset + length)));
+            }
+
+            assertTrue(framer.isBinary());
+            assertEquals(4, frames.size());
+            for (int i = 0; i < frames.size(); i++) {
+                assertArrayEquals(new byte[] { stream[2 * i], stream[2 * i + 1] }, frames.get(i));
+            }
+        }
+    }
+
+    @Test
+    void lineLongerThanTheBufferFails() throws Exception {
+        var framer = new MessageFramer(16);
+        var in = channel("1,LEFT_DOWN,0,0,and more than sixteen bytes\n");
+
+        // the first line is delimited, so a later undelimited read is not one message
+        framer.readFrom(channel("1,X\n"));
+        framer.dispatch((data, offset, length) -> { });
+
+        assertThrows(IOException.class, () -> {
+            while (framer.readFrom(in) > 0) {
+                framer.dispatch((data, offset, length) -> { });
+            }
+        });
+    }
+
+    private static List<String> readAll(MessageFramer framer, byte[] stream, int chunk) throws Exception {
+        var frames = new ArrayList<String>();
+        var in = chunked(stream, chunk);
+
+        while (framer.readFrom(in) > 0) {
+            framer.dispatch((data, offset, length) -> frames.add(MessageFramer.decode(data, offset, length)));
+        }
+        return frames;
+    }
+
+    private static ReadableByteChannel channel(String text) {
+        return Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * @return a channel that gives at most chunk bytes per read
+     */
+    private static ReadableByteChannel chunked(byte[] bytes, int chunk) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        });
+    }
+}
@@ -0,0 +1,166 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoveAnalysisTest {
+
+    private static final int OPTIMAL = 0;
+    private static final int MISTAKE = 1;
+    private static final int BLUNDER = 2;
+    private static final int INVALID = 3;
+
+    @Test
+    void boardStringPacksAsMasks() {
+        assertEquals(MoveAnalysis.pack(0, 0, 4), MoveAnalysis.pack("EEEEEEEEE", 4));
+        assertEquals(MoveAnalysis.pack(0b100_010_001, 0b000_000_110, 5), MoveAnalysis.pack("XOOEXEEEX", 5));
+
+        assertThrows(IllegalArgumentException.class, () -> MoveAnalysis.pack("XOE", 0));
+        assertThrows(IllegalArgumentException.class, () -> MoveAnalysis.pack("XOEEXEEE-", 0));
+    }
+
+    @Test
+    void movesAreScoredByWhatTheyGiveUp() {
+        // every opening move keeps the draw
+        for (int cell = 0; cell < 9; cell++) {
+            assertEquals(OPTIMAL, score(MoveAnalysis.pack("EEEEEEEEE", cell)));
+        }
+
+        // X completes the top row, blocks O's row and lets the game draw, or lets O complete it
+        assertEquals(OPTIMAL, score(MoveAnalysis.pack("XXEOOEEEE", 2)));
+        assertEquals(MISTAKE, score(MoveAnalysis.pack("XXEOOEEEE", 5)));
+        assertEquals(BLUNDER, score(MoveAnalysis.pack("XXEOOEEEE", 8)));
+
+        // O has to block the top row to hold the draw
+        assertEquals(OPTIMAL, score(MoveAnalysis.pack("XXEEOEEEE", 2)));
+        assertEquals(MISTAKE, score(MoveAnalysis.pack("XXEEOEEEE", 8)));
+    }
+
+    @Test
+    void impossibleMovesAreInvalid() {
+        // finished, taken cell, off the board, more O than X
+        assertEquals(INVALID, score(MoveAnalysis.pack("XXXOOEEEE", 8)));
+        assertEquals(INVALID, score(MoveAnalysis.pack("XEEEEEEEE", 0)));
+        assertEquals(INVALID, score(MoveAnalysis.pack(0, 0, 9)));
+        assertEquals(INVALID, score(MoveAnalysis.pack("OOEEEEEEE", 4)));
+    }
+
+    @Test
+    void randomMovesScoreAsTheBruteForceSolverDoes() {
+        int numMoves = 3 * MoveAnalysis.LEAF_MOVES + 123;
+        int numPlayers = 3;
+
+        int[] moves = new int[numMoves + 10];
+        int[] players = new int[numMoves + 10];
+        long[] expected = new long[numPlayers * 4];
+        int[] results = new int[1 << 18];
+        Arrays.fill(results, Integer.MIN_VALUE);
+
+        var random = new SplittableRandom(3);
+        int x = 0;
+        int o = 0;
+
+        for (int i = 0; i < numMoves; i++) {
+            if (BruteForceSolver.isOver(x, o)) {
+                x = 0;
+                o = 0;
+            }
+
+            // now and then a move on a taken cell
+            int cell;
+            do {
+                cell = random.nextInt(9);
+            } while (((x | o) & 1 << cell) != 0 && random.nextInt(20) != 0);
+
+            moves[i] = MoveAnalysis.pack(x, o, cell);
+            players[i] = random.nextInt(numPlayers);
+
+            int field;
+            if (((x | o) & 1 << cell) != 0) {
+                field = INVALID;
+            } else {
+                boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+                int before = solve(results, x, o);
+                if (xToMove) {
+                    x |= 1 << cell;
+                } else {
+                    o |= 1 << cell;
+                }
+                field = before + solve(results, x, o);
+            }
+            expected[players[i] * 4 + field]++;
+        }
+
+        var pool = new ForkJoinPool(2);
+        try {
+            var stats = MoveAnalysis.analyze(moves, players, numMoves, numPlayers, pool);
+
+            assertEquals(numPlayers, stats.getNumPlayers());
+            for (int player = 0; player < numPlayers; player++) {
+                assertEquals(expected[player * 4 + OPTIMAL], stats.getOptimal(player));
+                assertEquals(expected[player * 4 + MISTAKE], stats.getMistakes(player));
+                assertEquals(expected[player * 4 + BLUNDER], stats.getBlunders(player));
+                assertEquals(expected[player * 4 + INVALID], stats.getInvalid(player));
+            }
+
+            assertEquals(stats.toString(), MoveAnalysis.analyze(moves, players, numMoves, numPlayers).toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void replaysPackOnlyWhenTurnsAlternate() {
+        int[] moves = new int[9];
+
+        var replay = new Replay(1, 1, 0, 3, 3, 1, false, new byte[] { 4, 0, 8 }, new long[] { 0b010 });
+        assertEquals(3, MoveAnalysis.pack(replay, moves, 0));
+        assertEquals(MoveAnalysis.pack("EEEEEEEEE", 4), moves[0]);
+        assertEquals(MoveAnalysis.pack("EEEEXEEEE", 0), moves[1]);
+        assertEquals(MoveAnalysis.pack("OEEEXEEEE", 8), moves[2]);
+
+        var skippedTurn = new Replay(2, 1, 0, 3, 3, 1, false, new byte[] { 4, 0, 8 }, new long[] { 0 });
+        assertEquals(0, MoveAnalysis.pack(skippedTurn, moves, 0));
+
+        var largerBoard = new Replay(3, 1, 0, 4, 3, 1, false, new byte[] { 4, 0 }, new long[] { 0b10 });
+        assertEquals(0, MoveAnalysis.pack(largerBoard, moves, 0));
+    }
+
+    @Test
+    void moreMovesThanGivenAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> MoveAnalysis.analyze(new int[4], new int[4], 5, 1));
+        assertThrows(IllegalArgumentException.class, () -> MoveAnalysis.analyze(new int[5], new int[4], 5, 1));
+    }
+
+    /**
+     * @return field the move is counted in
+     */
+    private static int score(int move) {
+        var stats = MoveAnalysis.analyze(new int[] { move }, new int[1], 1, 1);
+        for (int field = 0; field < 4; field++) {
+            long count = switch (field) {
+                case OPTIMAL -> stats.getOptimal(0);
+                case MISTAKE -> stats.getMistakes(0);
+                case BLUNDER -> stats.getBlunders(0);
+                default -> stats.getInvalid(0);
+            };
+            if (count == 1)
+                return field;
+        }
+        fail("Move not counted: " + stats);
+        return -1;
+    }
+
+    private static int solve(int[] results, int x, int o) {
+        int position = x | o << 9;
+        if (results[position] == Integer.MIN_VALUE) {
+            results[position] = BruteForceSolver.solve(x, o);
+        }
+        return results[position];
+    }
+}
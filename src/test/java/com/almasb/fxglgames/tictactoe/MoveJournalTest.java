@@ -0,0 +1,240 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoveJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsAreReadBackWhileTheJournalIsStillOpen() throws Exception {
+        var journal = MoveJournal.open(dir, 64, 10);
+        try {
+            journal.roomOpened(7, 3, 3);
+            journal.botSeated(7);
+            journal.symbolChosen(7, true);
+            journal.move(7, 4, 1);
+            journal.gameFinished(7, 1);
+            journal.roomClosed(7);
+            journal.commit();
+
+            // as a new process would after this one died, the records are in the mapped file
+            assertEquals(List.of(
+                    "2 7 3 3", "3 7 0 0", "4 7 88 0", "5 7 1 4", "6 7 1 0", "7 7 0 0"), readAll());
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    void fullSegmentsRollOver() throws Exception {
+        try (var journal = MoveJournal.open(dir, 4, 10)) {
+            for (int i = 0; i < 10; i++) {
+                journal.move(1, i, 1);
+            }
+        }
+
+        // a header and 3 records per segment
+        assertEquals(4, MoveJournal.listSegments(dir).size());
+
+        var records = readAll();
+        assertEquals(10, records.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("5 1 1 " + i, records.get(i));
+        }
+    }
+
+    @Test
+    void tornRecordEndsItsSegmentOnly() throws Exception {
+        try (var journal = MoveJournal.open(dir, 64, 10)) {
+            for (int i = 0; i < 5; i++) {
+                journal.move(1, i, 2);
+            }
+        }
+
+        // a crash halfway through writing the third record
+        Path segment = MoveJournal.listSegments(dir).get(0);
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0x55 }), 3 * MoveJournal.RECORD_SIZE + 6);
+        }
+
+        // the next run starts a segment of its own
+        try (var journal = MoveJournal.open(dir, 64, 10)) {
+            journal.roomClosed(1);
+        }
+
+        assertEquals(List.of("5 1 2 0", "5 1 2 1", "7 1 0 0"), readAll());
+    }
+
+    @Test
+    void seatTokensSurviveTheirSplit() throws Exception {
+        long[] written = { 0x8000_0000_0000_0001L, 0xFFFF_0000_FFFF_1234L };
+
+        try (var journal = MoveJournal.open(dir, 64, 10)) {
+            journal.seatToken(3, 0, written[0]);
+            journal.seatToken(3, 1, written[1]);
+        }
+
+        long[] tokens = new long[2];
+        MoveJournal.read(dir, (time, type, roomId, a, b) -> {
+            assertEquals(MoveJournal.SEAT_TOKEN, type);
+            MoveJournal.mergeTokenPart(tokens, a, b);
+        });
+
+        assertArrayEquals(written, tokens);
+    }
+
+    @Test
+    void checkpointDeletesTheSegmentsBeforeIt() throws Exception {
+        try (var journal = MoveJournal.open(dir, 16, 5)) {
+            for (int i = 0; i < 8; i++) {
+                journal.move(1, i % 9, 1);
+            }
+            assertTrue(journal.isCheckpointDue());
+
+            journal.startCheckpoint();
+            journal.roomOpened(1, 3, 3);
+            journal.finishCheckpoint();
+            assertFalse(journal.isCheckpointDue());
+
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (MoveJournal.listSegments(dir).size() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            assertEquals(1, MoveJournal.listSegments(dir).size());
+            assertEquals(List.of("2 1 3 3"), readAll());
+        }
+    }
+
+    @Test
+    void serverRecoversAMatchAndItsSeatsAfterACrash() throws Exception {
+        var crashed = new RoomManager(3, 3, dir, null);
+        RoomManager recovered = null;
+
+        try {
+            crashed.start();
+
+            var a = new TestConnection(1);
+            var b = new TestConnection(2);
+            crashed.onConnected(a);
+            crashed.onConnected(b);
+            tick(crashed);
+
+            crashed.onMessage(a, "1,SESSION");
+            crashed.onMessage(b, "2,SESSION");
+            tick(crashed);
+            long tokenA = tokenOf(a.takeOutput());
+            long tokenB = tokenOf(b.takeOutput());
+
+            // only the player whose turn it is gets through
+            crashed.onMessage(a, "1,X");
+            crashed.onMessage(b, "2,X");
+            for (String cell : new String[] { "1,1", "0,0", "2,2" }) {
+                crashed.onMessage(a, "1,LEFT_DOWN," + cell);
+                crashed.onMessage(b, "2,LEFT_DOWN," + cell);
+            }
+            tick(crashed);
+
+            GameRoom room = crashed.getRoom(a);
+            assertEquals("OEEEXEEEX", boardOf(room));
+
+            // never closed, as if the process had been killed
+            recovered = new RoomManager(3, 3, dir, null);
+            recovered.start();
+
+            assertEquals(1, recovered.getNumRooms());
+            GameRoom rebuilt = recovered.getRooms().iterator().next();
+            assertEquals(room.getId(), rebuilt.getId());
+            assertEquals("OEEEXEEEX", boardOf(rebuilt));
+            assertEquals(2, rebuilt.getNumSuspended());
+
+            var c = new TestConnection(3);
+            var d = new TestConnection(4);
+            recovered.onConnected(c);
+            recovered.onConnected(d);
+            recovered.onMessage(c, "3,RESUME," + Long.toHexString(tokenA));
+            recovered.onMessage(d, "4,RESUME, " + Long.toHexString(tokenB));
+            tick(recovered);
+
+            assertSame(rebuilt, recovered.getRoom(c));
+            assertSame(rebuilt, recovered.getRoom(d));
+            assertEquals(0, rebuilt.getNumSuspended());
+        } finally {
+            if (recovered != null) {
+                recovered.close();
+            }
+            crashed.close();
+        }
+    }
+
+    @Test
+    void aMoveThatDoesNotMarkIsCorrupt() throws Exception {
+        try (var journal = MoveJournal.open(dir, 64, 10)) {
+            for (int roomId = 1; roomId <= 2; roomId++) {
+                journal.roomOpened(roomId, 3, 3);
+                journal.symbolChosen(roomId, true);
+                journal.move(roomId, 4, 1);
+                journal.seatToken(roomId, 0, 0x1234L + roomId);
+                journal.seatToken(roomId, 1, 0x5678L + roomId);
+            }
+            journal.move(1, 0, 2);
+
+            // the cell is taken
+            journal.move(2, 4, 2);
+            journal.commit();
+        }
+
+        var recovered = new RoomManager(3, 3, dir, null);
+        try {
+            recovered.start();
+
+            assertEquals(1, recovered.getNumRooms());
+            GameRoom rebuilt = recovered.getRooms().iterator().next();
+            assertEquals(1, rebuilt.getId());
+            assertEquals("OEEEXEEEE", boardOf(rebuilt));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    private List<String> readAll() throws IOException {
+        var records = new ArrayList<String>();
+        MoveJournal.read(dir, (time, type, roomId, a, b) -> records.add(type + " " + roomId + " " + a + " " + b));
+        return records;
+    }
+
+    /**
+     * Ticks past a matchmaking batch.
+     */
+    private static void tick(RoomManager rooms) {
+        for (int i = 0; i < 3; i++) {
+            rooms.tick(i * 0.1);
+        }
+    }
+
+    private static long tokenOf(String output) {
+        var matcher = Pattern.compile("SESSION,(\\p{XDigit}+),").matcher(output);
+        assertTrue(matcher.find(), output);
+        return Long.parseUnsignedLong(matcher.group(1), 16);
+    }
+
+    private static String boardOf(GameRoom room) {
+        var sb = new StringBuilder();
+        room.getState().appendTo(sb);
+        return sb.toString();
+    }
+}
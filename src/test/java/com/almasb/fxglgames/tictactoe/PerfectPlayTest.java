@@ -0,0 +1,153 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerfectPlayTest {
+
+    @Test
+    void tableHoldsEveryCanonicalPositionWithAMoveToMake() {
+        assertEquals(627, PerfectPlay.getNumPositions());
+    }
+
+    @Test
+    void evaluatesEveryReachablePositionAsNegamaxDoes() {
+        int[] checked = { 0 };
+        forEachReachable(0, 0, (x, o) -> {
+            assertEquals(BruteForceSolver.solve(x, o), PerfectPlay.evaluate(x, o), () -> "x " + x + ", o " + o);
+            checked[0]++;
+        });
+
+        // every position reachable with X moving first
+        assertEquals(5478, checked[0]);
+    }
+
+    @Test
+    void unreachablePositions() {
+        // O ahead of X, both with a line, overlapping marks
+        assertEquals(PerfectPlay.UNREACHABLE, PerfectPlay.evaluate(0, 0b11));
+        assertEquals(PerfectPlay.UNREACHABLE, PerfectPlay.evaluate(0b000_000_111, 0b000_111_000));
+        assertEquals(PerfectPlay.UNREACHABLE, PerfectPlay.evaluate(0b1, 0b1));
+    }
+
+    /**
+     * Every optimal move is stored in one orientation of the board, so a move mapped back
+     * with the wrong inverse symmetry would lose or draw where the position is won.
+     */
+    @Test
+    void bestMoveKeepsTheResultInEveryOrientation() {
+        var random = new Random(1);
+
+        forEachReachable(0, 0, (x, o) -> {
+            if (BruteForceSolver.isOver(x, o))
+                return;
+
+            var board = boardOf(x, o);
+            boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+            int before = BruteForceSolver.solve(x, o);
+
+            for (int i = 0; i < 8; i++) {
+                int cell = PerfectPlay.bestMove(board, xToMove, random);
+                assertTrue(board.isEmpty(cell));
+
+                int after = xToMove ? BruteForceSolver.solve(x | 1 << cell, o) : BruteForceSolver.solve(x, o | 1 << cell);
+                assertEquals(before, -after, () -> "x " + x + ", o " + o + ", cell " + cell);
+            }
+        });
+    }
+
+    @Test
+    void botNeverLosesToRandomMoves() {
+        var random = new Random(7);
+
+        for (int game = 0; game < 2000; game++) {
+            var board = new BoardState();
+            boolean botIsX = game % 2 == 0;
+            boolean xToMove = true;
+
+            while (!board.isFinished()) {
+                int cell;
+                if (xToMove == botIsX) {
+                    cell = PerfectPlay.bestMove(board, xToMove, random);
+                } else {
+                    do {
+                        cell = random.nextInt(board.getNumCells());
+                    } while (!board.isEmpty(cell));
+                }
+
+                board.mark(cell, xToMove ? TileValue.X : TileValue.O);
+                xToMove = !xToMove;
+            }
+
+            assertNotEquals(botIsX ? TileValue.O : TileValue.X, board.getWinner());
+        }
+    }
+
+    @Test
+    void finishedBoardHasNoMove() {
+        var board = boardOf(0b000_000_111, 0b000_011_000);
+
+        assertEquals(-1, PerfectPlay.bestMove(board, false, new Random(0)));
+        assertEquals(PerfectPlay.LOSS, PerfectPlay.evaluate(board));
+    }
+
+    @Test
+    void largerBoardsAreNotSolved() {
+        var board = new BoardState(15, 5);
+
+        assertFalse(PerfectPlay.isSolved(board));
+        assertThrows(IllegalArgumentException.class, () -> PerfectPlay.evaluate(board));
+
+        // the heuristic still blocks four in a row
+        for (int i = 0; i < 4; i++) {
+            board.mark(board.cellOf(i + 3, 7), TileValue.X);
+        }
+        board.mark(board.cellOf(2, 7), TileValue.O);
+
+        assertEquals(board.cellOf(7, 7), PerfectPlay.bestMove(board, false, new Random(0)));
+    }
+
+    private interface PositionVisitor {
+        void visit(int x, int o);
+    }
+
+    /**
+     * Visits each position reachable from x and o once, finished ones included.
+     */
+    private static void forEachReachable(int x, int o, PositionVisitor visitor) {
+        forEachReachable(x, o, visitor, new boolean[1 << 18]);
+    }
+
+    private static void forEachReachable(int x, int o, PositionVisitor visitor, boolean[] seen) {
+        if (seen[x | o << 9])
+            return;
+
+        seen[x | o << 9] = true;
+        visitor.visit(x, o);
+
+        if (BruteForceSolver.isOver(x, o))
+            return;
+
+        boolean xToMove = Integer.bitCount(x) == Integer.bitCount(o);
+        for (int cell = 0; cell < 9; cell++) {
+            if (((x | o) & 1 << cell) == 0) {
+                forEachReachable(xToMove ? x | 1 << cell : x, xToMove ? o : o | 1 << cell, visitor, seen);
+            }
+        }
+    }
+
+    static BoardState boardOf(int x, int o) {
+        var board = new BoardState();
+        for (int cell = 0; cell < 9; cell++) {
+            if ((x & 1 << cell) != 0) {
+                board.mark(cell, TileValue.X);
+            } else if ((o & 1 << cell) != 0) {
+                board.mark(cell, TileValue.O);
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,148 @@
+package com.almasb.fxglgames.tictactoe;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayArchiveTest {
+
+    @TempDir
+    Path dir;
+
+    private final SplittableRandom random = new SplittableRandom(7);
+
+    @Test
+    void blockDecodesEveryMatchItEncodes() throws Exception {
+        var replays = List.of(
+                match(1, 3, 3, 0),
+                match(2, 3, 3, 9),
+                match(3, 15, 5, 100),
+                match(4, 16, 5, 256),
+                match(5, 3, 3, 5));
+
+        var block = ByteBuffer.wrap(ReplayArchive.encode(replays));
+
+        for (int i = 0; i < replays.size(); i++) {
+            assertSameMatch(replays.get(i), ReplayArchive.decode(block, i));
+        }
+    }
+
+    @Test
+    void matchesAreReadBackByIdAfterClosing() throws Exception {
+        var added = new ArrayList<Replay>();
+
+        try (var archive = ReplayArchive.open(dir)) {
+            for (int i = 0; i < 2 * ReplayArchive.MATCHES_PER_BLOCK + 10; i++) {
+                var replay = match(archive.reserveMatchId(), i % 4 == 0 ? 15 : 3, i % 4 == 0 ? 5 : 3, -1);
+                archive.add(replay);
+                added.add(replay);
+            }
+        }
+
+        try (var archive = ReplayArchive.openReadOnly(dir)) {
+            assertEquals(added.size(), archive.getNumWritten());
+
+            for (Replay replay : added) {
+                assertSameMatch(replay, archive.read(replay.getMatchId()));
+            }
+
+            assertNull(archive.read(0));
+            assertNull(archive.read(added.size() + 1));
+
+            var read = new ArrayList<Replay>();
+            archive.forEach(read::add);
+            assertEquals(added.size(), read.size());
+            for (int i = 0; i < added.size(); i++) {
+                assertSameMatch(added.get(i), read.get(i));
+            }
+        }
+    }
+
+    @Test
+    void tornTailIsDroppedOnOpen() throws Exception {
+        try (var archive = ReplayArchive.open(dir)) {
+            for (int i = 0; i < 3; i++) {
+                archive.add(match(archive.reserveMatchId(), 3, 3, -1));
+            }
+        }
+
+        Path data = dir.resolve("replays.dat");
+        Path index = dir.resolve("replays.idx");
+        long dataSize = Files.size(data);
+        long indexSize = Files.size(index);
+
+        // a block cut short by a crash, with its index entry written, and half of another entry
+        var entry = ByteBuffer.allocate(ReplayArchive.INDEX_ENTRY_SIZE + 10);
+        entry.putLong(4).putLong(dataSize).putInt(1000).putInt(1);
+        Files.write(index, entry.array(), StandardOpenOption.APPEND);
+        Files.write(data, new byte[100], StandardOpenOption.APPEND);
+
+        try (var archive = ReplayArchive.open(dir)) {
+            assertEquals(3, archive.getNumWritten());
+            assertEquals(4, archive.reserveMatchId());
+            assertNotNull(archive.read(3));
+            assertNull(archive.read(4));
+        }
+
+        assertEquals(dataSize, Files.size(data));
+        assertEquals(indexSize, Files.size(index));
+    }
+
+    /**
+     * @param numMoves moves to play, or -1 for a random number of them
+     */
+    private Replay match(long matchId, int boardSize, int winLength, int numMoves) {
+        int numCells = boardSize * boardSize;
+        if (numMoves < 0) {
+            numMoves = random.nextInt(numCells + 1);
+        }
+
+        int[] order = new int[numCells];
+        for (int i = 0; i < numCells; i++) {
+            order[i] = i;
+        }
+
+        byte[] cells = new byte[numMoves];
+        long[] oMoves = new long[(numMoves + 63) / 64];
+        for (int i = 0; i < numMoves; i++) {
+            int j = i + random.nextInt(numCells - i);
+            int cell = order[j];
+            order[j] = order[i];
+            order[i] = cell;
+
+            cells[i] = (byte) cell;
+            if (i % 2 == 1) {
+                oMoves[i >>> 6] |= 1L << i;
+            }
+        }
+
+        return new Replay(matchId, random.nextInt(1 << 20), random.nextLong(1L << 42),
+                boardSize, winLength, random.nextInt(3), random.nextBoolean(), cells, oMoves);
+    }
+
+    private static void assertSameMatch(Replay expected, Replay actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getMatchId(), actual.getMatchId());
+        assertEquals(expected.getRoomId(), actual.getRoomId());
+        assertEquals(expected.getStartMillis(), actual.getStartMillis());
+        assertEquals(expected.getBoardSize(), actual.getBoardSize());
+        assertEquals(expected.getWinLength(), actual.getWinLength());
+        assertEquals(expected.getWinner(), actual.getWinner());
+        assertEquals(expected.isAgainstBot(), actual.isAgainstBot());
+        assertArrayEquals(expected.getCells(), actual.getCells());
+        assertArrayEquals(expected.getOMoves(), actual.getOMoves());
+
+        for (int move = 0; move < expected.getNumMoves(); move++) {
+            assertEquals(move % 2 == 0 ? TileValue.X : TileValue.O, actual.getSymbol(move));
+        }
+    }
+}
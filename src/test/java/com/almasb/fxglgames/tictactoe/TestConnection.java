@@ -0,0 +1,40 @@
+package com.almasb.fxglgames.tictactoe;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connection without a socket, flush keeps what was written for the test to read.
+ */
+class TestConnection extends BufferedClientConnection {
+
+    private ByteBuffer written = ByteBuffer.allocate(1024);
+
+    private final StringBuilder output = new StringBuilder();
+
+    TestConnection(int connectionNum) {
+        super(connectionNum);
+    }
+
+    @Override
+    public void flush() {
+        written = drain(written);
+        output.append(StandardCharsets.ISO_8859_1.decode(written));
+        written.clear();
+    }
+
+    /**
+     * @return everything flushed since the last call
+     */
+    String takeOutput() {
+        flush();
+        String text = output.toString();
+        output.setLength(0);
+        return text;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+}